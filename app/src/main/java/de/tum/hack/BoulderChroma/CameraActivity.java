@@ -53,8 +53,11 @@ import java.nio.ByteBuffer;
 
 import de.tum.hack.BoulderChroma.R;
 
-import de.tum.hack.BoulderChroma.env.ImageUtils;
 import de.tum.hack.BoulderChroma.env.Logger;
+import de.tum.hack.BoulderChroma.env.SystemTrace;
+import de.tum.hack.BoulderChroma.env.YuvConverter;
+import de.tum.hack.BoulderChroma.metrics.FrameLedger;
+import de.tum.hack.BoulderChroma.metrics.FrameTrace;
 
 public abstract class CameraActivity extends AppCompatActivity
     implements OnImageAvailableListener,
@@ -84,6 +87,9 @@ public abstract class CameraActivity extends AppCompatActivity
   private BottomSheetBehavior sheetBehavior;
 
   protected TextView frameValueTextView, cropValueTextView, inferenceTimeTextView;
+  protected TextView startupTimeTextView, latencyTextView, frameFatesTextView, profileTextView;
+  // What became of the camera frames; subclasses account for the frames they process.
+  protected final FrameLedger frameLedger = new FrameLedger();
   protected ImageView bottomSheetArrowImageView;
   private ImageView plusImageView, minusImageView;
   private SwitchCompat apiSwitchCompat;
@@ -92,6 +98,7 @@ public abstract class CameraActivity extends AppCompatActivity
   @Override
   protected void onCreate(final Bundle savedInstanceState) {
     LOGGER.d("onCreate " + this);
+    FrameTrace.setBackend(new SystemTrace());
     super.onCreate(null);
     getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
@@ -162,6 +169,10 @@ public abstract class CameraActivity extends AppCompatActivity
     frameValueTextView = findViewById(R.id.frame_info);
     cropValueTextView = findViewById(R.id.crop_info);
     inferenceTimeTextView = findViewById(R.id.inference_info);
+    startupTimeTextView = findViewById(R.id.startup_info);
+    latencyTextView = findViewById(R.id.latency_info);
+    frameFatesTextView = findViewById(R.id.frame_fates_info);
+    profileTextView = findViewById(R.id.profile_info);
 
     apiSwitchCompat.setOnCheckedChangeListener(this);
 
@@ -187,6 +198,7 @@ public abstract class CameraActivity extends AppCompatActivity
   public void onPreviewFrame(final byte[] bytes, final Camera camera) {
     if (isProcessingFrame) {
       LOGGER.w("Dropping frame!");
+      frameLedger.record(FrameLedger.Fate.CAMERA_BUSY);
       return;
     }
 
@@ -201,6 +213,7 @@ public abstract class CameraActivity extends AppCompatActivity
       }
     } catch (final Exception e) {
       LOGGER.e(e, "Exception!");
+      frameLedger.record(FrameLedger.Fate.CAMERA_ERROR);
       return;
     }
 
@@ -212,7 +225,7 @@ public abstract class CameraActivity extends AppCompatActivity
         new Runnable() {
           @Override
           public void run() {
-            ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
+            YuvConverter.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
           }
         };
 
@@ -224,7 +237,12 @@ public abstract class CameraActivity extends AppCompatActivity
             isProcessingFrame = false;
           }
         };
-    processImage();
+    Trace.beginSection("previewFrame");
+    try {
+      processImage();
+    } finally {
+      Trace.endSection();
+    }
   }
 
   /** Callback for Camera2 API */
@@ -246,6 +264,7 @@ public abstract class CameraActivity extends AppCompatActivity
 
       if (isProcessingFrame) {
         image.close();
+        frameLedger.record(FrameLedger.Fate.CAMERA_BUSY);
         return;
       }
       isProcessingFrame = true;
@@ -260,7 +279,7 @@ public abstract class CameraActivity extends AppCompatActivity
           new Runnable() {
             @Override
             public void run() {
-              ImageUtils.convertYUV420ToARGB8888(
+              YuvConverter.convertYUV420ToARGB8888(
                   yuvBytes[0],
                   yuvBytes[1],
                   yuvBytes[2],
@@ -285,6 +304,7 @@ public abstract class CameraActivity extends AppCompatActivity
       processImage();
     } catch (final Exception e) {
       LOGGER.e(e, "Exception!");
+      frameLedger.record(FrameLedger.Fate.CAMERA_ERROR);
       Trace.endSection();
       return;
     }
@@ -516,6 +536,15 @@ public abstract class CameraActivity extends AppCompatActivity
     }
   }
 
+  /** Reflects an automatically chosen backend in the controls without applying it again. */
+  protected void showBackendConfig(final int numThreads, final boolean useNNAPI) {
+    threadsTextView.setText(String.valueOf(numThreads));
+    apiSwitchCompat.setOnCheckedChangeListener(null);
+    apiSwitchCompat.setChecked(useNNAPI);
+    apiSwitchCompat.setText(useNNAPI ? "NNAPI" : "TFLITE");
+    apiSwitchCompat.setOnCheckedChangeListener(this);
+  }
+
   protected void showFrameInfo(String frameInfo) {
     frameValueTextView.setText(frameInfo);
   }
@@ -528,6 +557,22 @@ public abstract class CameraActivity extends AppCompatActivity
     inferenceTimeTextView.setText(inferenceTime);
   }
 
+  protected void showStartupTime(String startupTime) {
+    startupTimeTextView.setText(startupTime);
+  }
+
+  protected void showLatency(String latency) {
+    latencyTextView.setText(latency);
+  }
+
+  protected void showFrameFates(String frameFates) {
+    frameFatesTextView.setText(frameFates);
+  }
+
+  protected void showProfile(String profile) {
+    profileTextView.setText(profile);
+  }
+
   protected abstract void processImage();
 
   protected abstract void onPreviewSizeChosen(final Size size, final int rotation);
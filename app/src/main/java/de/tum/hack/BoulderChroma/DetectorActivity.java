@@ -26,34 +26,67 @@ import android.graphics.Paint.Style;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.media.ImageReader.OnImageAvailableListener;
+import android.os.Bundle;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
-import android.util.JsonReader;
-import android.util.JsonToken;
+import android.os.Trace;
 import android.util.Log;
 import android.util.Size;
 import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
 import android.widget.Toast;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
+import de.tum.hack.BoulderChroma.color.HoldColorClassifier;
+import de.tum.hack.BoulderChroma.color.HoldPalette;
 import de.tum.hack.BoulderChroma.customview.OverlayView;
 import de.tum.hack.BoulderChroma.customview.OverlayView.DrawCallback;
+import de.tum.hack.BoulderChroma.customview.RenderedOverlayView;
 import de.tum.hack.BoulderChroma.env.BorderedText;
+import de.tum.hack.BoulderChroma.env.DeviceSignals;
 import de.tum.hack.BoulderChroma.env.ImageUtils;
 import de.tum.hack.BoulderChroma.env.Logger;
+import de.tum.hack.BoulderChroma.governor.PerformanceGovernor;
+import de.tum.hack.BoulderChroma.governor.PerformanceProfile;
+import de.tum.hack.BoulderChroma.metrics.FrameLedger;
+import de.tum.hack.BoulderChroma.metrics.FrameTrace;
+import de.tum.hack.BoulderChroma.metrics.LatencyStats;
+import de.tum.hack.BoulderChroma.pipeline.Pipeline;
+import de.tum.hack.BoulderChroma.pipeline.Stage;
+import de.tum.hack.BoulderChroma.tflite.BackendCalibrator;
+import de.tum.hack.BoulderChroma.tflite.BackendConfig;
+import de.tum.hack.BoulderChroma.tflite.CascadeClassifier;
 import de.tum.hack.BoulderChroma.tflite.Classifier;
-import de.tum.hack.BoulderChroma.tflite.TFLiteObjectDetectionAPIModel;
+import de.tum.hack.BoulderChroma.tflite.DetectedBox;
+import de.tum.hack.BoulderChroma.tflite.HoldColorLabeler;
+import de.tum.hack.BoulderChroma.tflite.InputSizeController;
+import de.tum.hack.BoulderChroma.tflite.InterpreterPool;
+import de.tum.hack.BoulderChroma.tflite.ManagedClassifier;
+import de.tum.hack.BoulderChroma.tflite.ModelManager;
+import de.tum.hack.BoulderChroma.tflite.ServerDetector;
+import de.tum.hack.BoulderChroma.tflite.TileLayout;
+import de.tum.hack.BoulderChroma.tflite.TileMerger;
+import de.tum.hack.BoulderChroma.tflite.TilePlanner;
+import de.tum.hack.BoulderChroma.tracking.DetectionScheduler;
 import de.tum.hack.BoulderChroma.tracking.MultiBoxTracker;
+import de.tum.hack.BoulderChroma.tracking.TrackSnapshot;
 
 /**
  * An activity that uses a TensorFlowMultiBoxDetector and ObjectTracker to detect and then track
@@ -67,65 +100,299 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
   private static final boolean TF_OD_API_IS_QUANTIZED = false;
   private static final String TF_OD_API_MODEL_FILE = "model.tflite";
   private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/labels.txt";
-  private static final DetectorMode MODE = DetectorMode.TF_OD_API;
+  // A model file with the same name in this directory of app storage replaces the bundled one,
+  // and is swapped in while running when it is written.
+  private static final String UPDATED_MODEL_DIR = "models";
+  // Number of interpreters that can run inference concurrently. Each one holds its own buffers.
+  private static final int TF_OD_API_POOL_SIZE = 1;
+  // Inference threads of the model until calibration or the thread controls choose others.
+  private static final int DEFAULT_NUM_THREADS = 4;
+  // Frames that can be in the detection pipeline at once: one per stage.
+  private static final int FRAMES_IN_FLIGHT = 3;
+  // Input size of the proposal stage of the cascade.
+  private static final int CASCADE_PROPOSAL_INPUT_SIZE = 256;
+  private static final DetectorMode MODE = DetectorMode.REMOTE;
+  // Frame latency the input size controller and the performance governor try to stay under.
+  private static final long DETECTION_BUDGET_MS = 250;
+  // Longest pause between detections while the tracker reports a stable scene.
+  private static final long MAX_DETECTION_INTERVAL_MS = 1000;
+  // Detect early when this much of the frame shows parts of the wall that were never searched.
+  private static final float MAX_UNSEARCHED_FRACTION = 0.25f;
   // Minimum detection confidence to track a detection.
   private static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.2f;
   private static final boolean MAINTAIN_ASPECT = false;
-  private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
   private static final boolean SAVE_PREVIEW_BITMAP = false;
   private static final float TEXT_SIZE_DIP = 10;
-  OverlayView trackingOverlay;
+  // Draw the tracks on a render thread at display rate instead of on the UI thread per update.
+  private static final boolean RENDER_OVERLAY_ON_THREAD = true;
+  // How often the stage latencies in the bottom sheet are refreshed.
+  private static final long LATENCY_DISPLAY_INTERVAL_MS = 1000;
+  // How often the stage latencies are appended to a file in app storage, for later analysis.
+  private static final long LATENCY_SNAPSHOT_INTERVAL_MS = 10000;
+  private static final String LATENCY_DIR = "latency";
+  View trackingOverlay;
   private Integer sensorOrientation;
 
-  private Classifier detector;
+  // Loaded in the background while the camera opens; null until it is ready for inference.
+  private volatile ManagedClassifier detector;
+  // Guards publishing the detector against the activity being destroyed meanwhile.
+  private final Object detectorLock = new Object();
+  private boolean destroyed = false;
+  private FileObserver modelObserver;
+  private long createTimeMs;
+  private volatile boolean firstResultsTracked = false;
+  private boolean firstOverlayDrawn = false;
 
-  private long lastProcessingTimeMs;
-  private Bitmap rgbFrameBitmap = null;
-  private Bitmap croppedBitmap = null;
-  private Bitmap cropCopyBitmap = null;
+  // Id of the frame whose results were applied last but have not been drawn yet, or -1.
+  private final AtomicLong undisplayedFrameId = new AtomicLong(-1);
 
-  private boolean computingDetection = false;
+  // Frames free to take a camera image; the others are somewhere in the detection pipeline.
+  private volatile BlockingQueue<DetectionFrame> freeFrames;
+  private volatile Pipeline<DetectionFrame> detectionPipeline;
 
   private long timestamp = 0;
+  // Id of the newest frame whose results went to the tracker; only used by the post stage.
+  private long lastAppliedFrameId = -1;
 
+  private int cropSize;
   private Matrix frameToCropTransform;
   private Matrix cropToFrameTransform;
+  private InputSizeController inputSizeController;
+  private final DetectionScheduler detectionScheduler =
+      new DetectionScheduler(MAX_DETECTION_INTERVAL_MS);
+
+  // Tiled detection works on the frame rotated to screen orientation, at full resolution.
+  private int rotatedWidth;
+  private int rotatedHeight;
+  private Matrix frameToRotatedTransform;
+  private TilePlanner tilePlanner;
+  private final Matrix frameToTileTransform = new Matrix();
+  private final Canvas tileCanvas = new Canvas();
+  private Matrix rotatedToFrameTransform;
+
+  // Created lazily on the post-processing thread, building its lookup table takes a moment.
+  private HoldColorClassifier holdColorClassifier;
+  // Index query scratch of assignColors, on the post-processing thread.
+  private int[] settledCandidates = new int[0];
+  private final ServerDetector serverDetector =
+      new ServerDetector(ServerDetector.DEFAULT_URL);
+
+  // Chooses the preview size, input size limit, detection interval, inference threads and upload
+  // quality from the thermal status, the battery and the detection latency.
+  private final PerformanceGovernor governor =
+      new PerformanceGovernor(PerformanceProfile.LADDER, DETECTION_BUDGET_MS);
+  private DeviceSignals deviceSignals;
+  // Guards requestedThreads and appliedThreads, which the model loader, the model swapper and the
+  // inference handler thread all update.
+  private final Object threadsLock = new Object();
+  // Threads chosen by calibration or the thread controls; the profile may allow fewer.
+  private int requestedThreads = DEFAULT_NUM_THREADS;
+  // Threads the detector was last set to, 0 if unknown.
+  private int appliedThreads = DEFAULT_NUM_THREADS;
+  // Calibrated backend of the model loaded last, or null if it was not calibrated.
+  private volatile BackendConfig backendConfig;
 
   private MultiBoxTracker tracker;
 
+  private final LatencyStats latencyStats = new LatencyStats();
+  private final Handler latencyHandler = new Handler(Looper.getMainLooper());
+  private File latencyFile;
+  private long lastLatencySnapshotMs;
+
   private BorderedText borderedText;
 
   @Override
-  public void onPreviewSizeChosen(final Size size, final int rotation) {
-    final float textSizePx =
-        TypedValue.applyDimension(
-            TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, getResources().getDisplayMetrics());
-    borderedText = new BorderedText(textSizePx);
-    borderedText.setTypeface(Typeface.MONOSPACE);
+  protected void onCreate(final Bundle savedInstanceState) {
+    createTimeMs = SystemClock.uptimeMillis();
+    // Read the device state before the base class opens the camera, so that a hot phone starts
+    // out with the preview size of a cheaper profile.
+    deviceSignals = new DeviceSignals(this);
+    governor.update(createTimeMs, deviceSignals.read());
+    // A detector handed over from the instance destroyed by a configuration change.
+    final ManagedClassifier retained = (ManagedClassifier) getLastCustomNonConfigurationInstance();
+    if (retained != null) {
+      retained.setLatencyStats(latencyStats);
+      detector = retained;
+    } else {
+      // Start loading the model before the base class asks for permissions and opens the camera,
+      // so that both happen at the same time.
+      new Thread(this::loadDetector, "model-loader").start();
+    }
+    super.onCreate(savedInstanceState);
+  }
 
-    tracker = new MultiBoxTracker(this);
+  @Override
+  public Object onRetainCustomNonConfigurationInstance() {
+    return detector;
+  }
 
-    int cropSize = TF_OD_API_INPUT_SIZE;
+  @Override
+  public synchronized void onResume() {
+    super.onResume();
+    final File modelDir = new File(getFilesDir(), UPDATED_MODEL_DIR);
+    if (!modelDir.mkdirs() && !modelDir.isDirectory()) {
+      LOGGER.w("Could not create %s", modelDir);
+    }
+    modelObserver =
+        new FileObserver(modelDir.getPath(), FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO) {
+          @Override
+          public void onEvent(final int event, final String path) {
+            if (TF_OD_API_MODEL_FILE.equals(path)) {
+              swapDetector();
+            }
+          }
+        };
+    modelObserver.startWatching();
+
+    if (latencyFile == null) {
+      latencyFile =
+          new File(
+              new File(getFilesDir(), LATENCY_DIR),
+              "latency-" + System.currentTimeMillis() + ".jsonl");
+    }
+    lastLatencySnapshotMs = SystemClock.uptimeMillis();
+    latencyHandler.postDelayed(latencyUpdater, LATENCY_DISPLAY_INTERVAL_MS);
+  }
 
+  @Override
+  public synchronized void onPause() {
+    modelObserver.stopWatching();
+    modelObserver = null;
+    latencyHandler.removeCallbacks(latencyUpdater);
+    writeLatencySnapshot();
+    if (detectionPipeline != null) {
+      // The detector may be closed next; no stage may still be using it.
+      if (!detectionPipeline.close()) {
+        LOGGER.w("Detection pipeline still running after close.");
+      }
+      detectionPipeline = null;
+    }
+    super.onPause();
+  }
+
+  @Override
+  public synchronized void onDestroy() {
+    synchronized (detectorLock) {
+      destroyed = true;
+      // On a configuration change the new instance takes over our reference.
+      if (detector != null && !isChangingConfigurations()) {
+        detector.close();
+      }
+    }
+    super.onDestroy();
+  }
+
+  /**
+   * Reads the labels, maps the model, applies the calibrated backend and runs a warm-up inference,
+   * so that the first camera frame is processed at steady-state speed. If the model is still
+   * loaded from a previous instance of this activity, it is reused as is.
+   */
+  private void loadDetector() {
+    final long startTime = SystemClock.uptimeMillis();
+    final ManagedClassifier classifier;
     try {
-      detector =
-          TFLiteObjectDetectionAPIModel.create(
+      classifier = ModelManager.getInstance().acquire(TF_OD_API_MODEL_FILE, this::createDetector);
+      classifier.setLatencyStats(latencyStats);
+    } catch (final IOException e) {
+      e.printStackTrace();
+      LOGGER.e(e, "Exception initializing classifier!");
+      runOnUiThread(
+          () -> {
+            Toast toast =
+                Toast.makeText(
+                    getApplicationContext(),
+                    "Classifier could not be initialized",
+                    Toast.LENGTH_SHORT);
+            toast.show();
+            finish();
+          });
+      return;
+    }
+    synchronized (detectorLock) {
+      if (destroyed) {
+        classifier.close();
+        return;
+      }
+      detector = classifier;
+    }
+    runInBackground(this::applyThreads);
+    LOGGER.i("Detector ready after %dms", SystemClock.uptimeMillis() - startTime);
+  }
+
+  /** Creates the detector from the updated model in app storage if present, else from assets. */
+  private Classifier createDetector() throws IOException {
+    final File updatedModel =
+        new File(new File(getFilesDir(), UPDATED_MODEL_DIR), TF_OD_API_MODEL_FILE);
+    backendConfig = null;
+    final Classifier model;
+    if (updatedModel.isFile()) {
+      LOGGER.i("Loading updated model from %s", updatedModel);
+      model =
+          InterpreterPool.create(
+              updatedModel,
+              getAssets(),
+              TF_OD_API_LABELS_FILE,
+              TF_OD_API_INPUT_SIZE,
+              TF_OD_API_IS_QUANTIZED,
+              TF_OD_API_POOL_SIZE);
+      if (MODE != DetectorMode.REMOTE) {
+        calibrateBackend(model, new BackendCalibrator(this, updatedModel, TF_OD_API_INPUT_SIZE));
+      }
+    } else {
+      model =
+          InterpreterPool.create(
               getAssets(),
               TF_OD_API_MODEL_FILE,
               TF_OD_API_LABELS_FILE,
               TF_OD_API_INPUT_SIZE,
-              TF_OD_API_IS_QUANTIZED);
-      cropSize = TF_OD_API_INPUT_SIZE;
-    } catch (final IOException e) {
-      e.printStackTrace();
-      LOGGER.e(e, "Exception initializing classifier!");
-      Toast toast =
-          Toast.makeText(
-              getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
-      toast.show();
-      finish();
+              TF_OD_API_IS_QUANTIZED,
+              TF_OD_API_POOL_SIZE);
+      if (MODE != DetectorMode.REMOTE) {
+        calibrateBackend(
+            model, new BackendCalibrator(this, TF_OD_API_MODEL_FILE, TF_OD_API_INPUT_SIZE));
+      }
     }
 
+    final Classifier classifier;
+    if (MODE == DetectorMode.TF_OD_API_CASCADE) {
+      model.setInputSize(CASCADE_PROPOSAL_INPUT_SIZE);
+      classifier =
+          new CascadeClassifier(
+              model, new HoldColorLabeler(), MINIMUM_CONFIDENCE_TF_OD_API, TF_OD_API_INPUT_SIZE);
+    } else {
+      classifier = model;
+    }
+    if (MODE != DetectorMode.REMOTE) {
+      classifier.warmUp();
+    }
+    return classifier;
+  }
+
+  /** Replaces the running model with the updated one, without interrupting the camera. */
+  private void swapDetector() {
+    try {
+      if (ModelManager.getInstance().swap(TF_OD_API_MODEL_FILE, this::createDetector)) {
+        // The handle replays the backend of the previous model; use the new model's calibration.
+        final BackendConfig config = backendConfig;
+        if (config != null) {
+          runInBackground(() -> applyBackend(config));
+        }
+      }
+    } catch (final IOException | RuntimeException e) {
+      LOGGER.e(e, "Could not swap in updated model!");
+    }
+  }
+
+  @Override
+  public void onPreviewSizeChosen(final Size size, final int rotation) {
+    final float textSizePx =
+        TypedValue.applyDimension(
+            TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, getResources().getDisplayMetrics());
+    borderedText = new BorderedText(textSizePx);
+    borderedText.setTypeface(Typeface.MONOSPACE);
+
+    tracker = new MultiBoxTracker(this);
+
     previewWidth = size.getWidth();
     previewHeight = size.getHeight();
 
@@ -133,8 +400,151 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
 
     LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
-    rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-    croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+
+    inputSizeController =
+        new InputSizeController(
+            InputSizeController.DEFAULT_TIERS, TF_OD_API_INPUT_SIZE, DETECTION_BUDGET_MS);
+    applyProfile();
+    updateCropSize(inputSizeController.getInputSize());
+
+    final boolean transpose = sensorOrientation % 180 != 0;
+    rotatedWidth = transpose ? previewHeight : previewWidth;
+    rotatedHeight = transpose ? previewWidth : previewHeight;
+    frameToRotatedTransform =
+        ImageUtils.getTransformationMatrix(
+            previewWidth, previewHeight, rotatedWidth, rotatedHeight, sensorOrientation, false);
+    rotatedToFrameTransform = new Matrix();
+    frameToRotatedTransform.invert(rotatedToFrameTransform);
+    tilePlanner = new TilePlanner(DETECTION_BUDGET_MS);
+
+    // The preview size is chosen again on every resume; register the draw callback only once.
+    if (trackingOverlay == null) {
+      final OverlayView overlayView = (OverlayView) findViewById(R.id.tracking_overlay);
+      final RenderedOverlayView renderedOverlayView =
+          (RenderedOverlayView) findViewById(R.id.rendered_overlay);
+      if (RENDER_OVERLAY_ON_THREAD) {
+        overlayView.setVisibility(View.GONE);
+        renderedOverlayView.setVisibility(View.VISIBLE);
+        trackingOverlay = renderedOverlayView;
+      } else {
+        trackingOverlay = overlayView;
+      }
+      // Tapping a hold highlights its route.
+      trackingOverlay.setOnTouchListener(
+          (view, event) -> {
+            if (event.getActionMasked() != MotionEvent.ACTION_UP) {
+              return true;
+            }
+            tracker.highlightRouteAt(event.getX(), event.getY());
+            invalidateOverlay();
+            return view.performClick();
+          });
+      overlayView.addCallback(
+          new DrawCallback() {
+            @Override
+            public void drawCallback(final Canvas canvas) {
+              Trace.beginSection("drawOverlay");
+              final long startNanos = System.nanoTime();
+              tracker.draw(canvas);
+              latencyStats.recordSince(LatencyStats.Stage.DRAW, startNanos);
+              Trace.endSection();
+              onOverlayDrawn();
+              if (isDebug()) {
+                tracker.drawDebug(canvas);
+              }
+              if (firstResultsTracked && !firstOverlayDrawn) {
+                firstOverlayDrawn = true;
+                reportTimeToFirstOverlay();
+              }
+            }
+          });
+      renderedOverlayView.addCallback(
+          new RenderedOverlayView.RenderCallback() {
+            @Override
+            public void onRender(final Canvas canvas, final long frameTimeNanos) {
+              // Vsync times are in the monotonic clock, like uptimeMillis().
+              Trace.beginSection("drawOverlay");
+              final long startNanos = System.nanoTime();
+              tracker.drawInterpolated(canvas, frameTimeNanos / 1000000);
+              latencyStats.recordSince(LatencyStats.Stage.DRAW, startNanos);
+              Trace.endSection();
+              onOverlayDrawn();
+              if (isDebug()) {
+                tracker.drawDebug(canvas);
+              }
+              if (firstResultsTracked && !firstOverlayDrawn) {
+                firstOverlayDrawn = true;
+                runOnUiThread(() -> reportTimeToFirstOverlay());
+              }
+            }
+          });
+    }
+
+    tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+    if (detectionPipeline != null) {
+      detectionPipeline.close();
+    }
+    startDetectionPipeline();
+  }
+
+  /**
+   * Applies the fastest backend for this device and the model that was loaded, benchmarking them
+   * first if this model has not been seen on this device before. Runs on the loader thread before
+   * the detector is published, or on the swapping thread while the previous model keeps serving,
+   * so no frames wait for the benchmark.
+   */
+  private void calibrateBackend(final Classifier classifier, final BackendCalibrator calibrator) {
+    final BackendConfig config;
+    try {
+      config = calibrator.loadOrCalibrate();
+    } catch (final IOException e) {
+      LOGGER.e(e, "Backend calibration failed!");
+      return;
+    }
+    config.applyTo(classifier);
+    if (detector == null) {
+      // The first model; a swapped-in one takes its threads in applyBackend once it serves.
+      synchronized (threadsLock) {
+        requestedThreads = config.numThreads;
+        appliedThreads = config.numThreads;
+      }
+    }
+    backendConfig = config;
+    runOnUiThread(() -> showBackendConfig(config.numThreads, config.useNnapi));
+  }
+
+  /** Applies a calibrated backend to the running detector, within the profile's thread limit. */
+  private void applyBackend(final BackendConfig config) {
+    if (detector == null) {
+      return;
+    }
+    detector.setUseXNNPACK(config.useXnnpack);
+    detector.setUseNNAPI(config.useNnapi);
+    synchronized (threadsLock) {
+      requestedThreads = config.numThreads;
+      // The detector runs with the threads of the previous model until set again.
+      appliedThreads = 0;
+      applyThreads();
+    }
+  }
+
+  /** Redraws the tracks; the overlay on the render thread redraws by itself. */
+  private void invalidateOverlay() {
+    if (!RENDER_OVERLAY_ON_THREAD) {
+      trackingOverlay.postInvalidate();
+    }
+  }
+
+  private void reportTimeToFirstOverlay() {
+    final long elapsedMs = SystemClock.uptimeMillis() - createTimeMs;
+    LOGGER.i("Time to first overlay: %dms", elapsedMs);
+    showStartupTime(elapsedMs + "ms");
+  }
+
+  /** Recomputes the crop transforms; only called when the input size tier changes. */
+  private void updateCropSize(final int size) {
+    LOGGER.i("Using crop size %dx%d", size, size);
+    cropSize = size;
 
     frameToCropTransform =
         ImageUtils.getTransformationMatrix(
@@ -144,246 +554,480 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     cropToFrameTransform = new Matrix();
     frameToCropTransform.invert(cropToFrameTransform);
-
-    trackingOverlay = (OverlayView) findViewById(R.id.tracking_overlay);
-    trackingOverlay.addCallback(
-        new DrawCallback() {
-          @Override
-          public void drawCallback(final Canvas canvas) {
-            tracker.draw(canvas);
-            if (isDebug()) {
-              tracker.drawDebug(canvas);
-            }
-          }
-        });
-
-    tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
   }
 
   @Override
   protected void processImage() {
     ++timestamp;
     final long currTimestamp = timestamp;
-    trackingOverlay.postInvalidate();
-
-    // No mutex needed as this method is not reentrant.
-    if (computingDetection) {
+    frameLedger.record(FrameLedger.Fate.PROCESSED);
+    final long frameTimeMs = SystemClock.uptimeMillis();
+    final long trackStartNanos = System.nanoTime();
+    tracker.trackFlow(getLuminance(), getLuminanceStride(), frameTimeMs);
+    latencyStats.recordSince(LatencyStats.Stage.TRACKING, trackStartNanos);
+    invalidateOverlay();
+
+    if (tracker.getUnsearchedFraction() > MAX_UNSEARCHED_FRACTION) {
+      detectionScheduler.requestDetection();
+    }
+    final Pipeline<DetectionFrame> pipeline = detectionPipeline;
+    if (pipeline == null || detector == null || !detectionScheduler.isDetectionDue(frameTimeMs)) {
+      frameLedger.record(FrameLedger.Fate.NOT_DUE);
       readyForNextImage();
       return;
     }
-    computingDetection = true;
-    LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
-
-    rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
-
+    // All frames are still in the pipeline; it is busy enough.
+    final DetectionFrame frame = freeFrames.poll();
+    if (frame == null) {
+      frameLedger.record(FrameLedger.Fate.PIPELINE_BUSY);
+      readyForNextImage();
+      return;
+    }
+    LOGGER.i("Preparing image %d for detection in bg thread.", currTimestamp);
+    frame.id = currTimestamp;
+    frame.timeMs = frameTimeMs;
+    frame.fate = null;
+    // Spans the whole way of the frame through the pipeline, until it is recycled.
+    FrameTrace.beginFrame("frame", currTimestamp);
+    Trace.beginSection("convertYuv");
+    final long yuvStartNanos = System.nanoTime();
+    System.arraycopy(getRgbBytes(), 0, frame.pixels, 0, frame.pixels.length);
+    latencyStats.recordSince(LatencyStats.Stage.YUV, yuvStartNanos);
+    Trace.endSection();
     readyForNextImage();
+    pipeline.submit(frame);
+  }
 
-    final Canvas canvas = new Canvas(croppedBitmap);
-    canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
-    // For examining the actual TF input.
-    if (SAVE_PREVIEW_BITMAP) {
-      ImageUtils.saveBitmap(croppedBitmap);
+  /**
+   * Creates the detection pipeline and the frames it passes along. Each frame owns the bitmaps it
+   * is prepared in, so a frame can be converted while the previous one is still in inference.
+   */
+  private void startDetectionPipeline() {
+    final BlockingQueue<DetectionFrame> frames = new ArrayBlockingQueue<>(FRAMES_IN_FLIGHT);
+    for (int i = 0; i < FRAMES_IN_FLIGHT; ++i) {
+      frames.add(new DetectionFrame(previewWidth, previewHeight));
     }
+    freeFrames = frames;
+    detectionPipeline =
+        new Pipeline<DetectionFrame>(
+                frame -> {
+                  FrameTrace.endFrame("frame", frame.id);
+                  // Frames the stages did not settle were pushed out of a queue.
+                  frameLedger.record(
+                      frame.fate != null ? frame.fate : FrameLedger.Fate.SUPERSEDED);
+                  frames.offer(frame);
+                })
+            .setErrorHandler(
+                (stage, frame, e) -> {
+                  LOGGER.e(e, "Stage %s failed on image %d", stage, frame.id);
+                  frame.fate = FrameLedger.Fate.DETECTION_ERROR;
+                })
+            .addStage("convert", traced("convert", this::convertFrame), 1, 1)
+            .addStage("infer", traced("infer", this::inferFrame), TF_OD_API_POOL_SIZE, 1)
+            .addStage("post", traced("post", this::postProcessFrame), 1, 1)
+            .start();
+  }
 
-    runInBackground(
-        new Runnable() {
-          @Override
-          public void run() {
-            LOGGER.i("Running detection on image " + currTimestamp);
-            final long startTime = SystemClock.uptimeMillis();
-
-
-            // Send web request to our """backend""" an get info about where to draw the boxes
-            ByteArrayOutputStream bao = new ByteArrayOutputStream();
-            croppedBitmap.compress(Bitmap.CompressFormat.JPEG, 100, bao);
-
-            byte[] data = bao.toByteArray();
-
-            List<Classifier.Recognition> rects = new ArrayList<>();
-            try {
-              LOGGER.i("Attempting to send an image.");
-              URL url = new URL("http://131.159.226.43:5000/");
-              // multipart file
-              HttpURLConnection con = (HttpURLConnection) url.openConnection();
-              con.setRequestMethod("POST");
-              con.setUseCaches(false);
-              con.setDoOutput(true);
-              con.setRequestProperty("Content-Size", "" + data.length);
-              String boundary = "===" + System.currentTimeMillis() + "===";
-              con.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-
-              OutputStream out = con.getOutputStream();
-
-              OutputStreamWriter writer = new OutputStreamWriter(out);
-              writer.append("--" + boundary + "\r\n");
-              writer.append(
-                      "Content-Disposition: form-data; name=\"file\"; filename=\"image.jpg\"\r\n");
-              writer.append(
-                      "Content-Type: " + URLConnection.guessContentTypeFromName("image.jpg") + "\r\n");
-              writer.append("Content-Transfer-Encoding: binary\r\n\r\n");
-              writer.flush();
-
-              out.write(data);
-              out.flush();
-
-              writer.append("\r\n");
-              writer.flush();
-
-              writer.append("\r\n").flush();
-              writer.append("--" + boundary + "--\r\n");
-              writer.close();
-
-
-              int code = con.getResponseCode();
-              if (code < 200 || code >= 300) {
-                throw new Exception("Image upload failed with return code " + code);
-              }
+  /**
+   * Traces a stage both as a section of the thread it runs on and as a section of the frame, so
+   * that the stages of one frame line up across threads.
+   */
+  private static Stage<DetectionFrame> traced(
+      final String name, final Stage<DetectionFrame> stage) {
+    return frame -> {
+      FrameTrace.beginFrame(name, frame.id);
+      Trace.beginSection(name);
+      try {
+        return stage.process(frame);
+      } finally {
+        Trace.endSection();
+        FrameTrace.endFrame(name, frame.id);
+      }
+    };
+  }
 
-              JsonReader reader = new JsonReader(new InputStreamReader(con.getInputStream(), "UTF-8"));
+  /**
+   * Ends the section that shows how long it took the results of a frame to be drawn. Called by
+   * the overlay every time it draws.
+   */
+  private void onOverlayDrawn() {
+    final long frameId = undisplayedFrameId.getAndSet(-1);
+    if (frameId >= 0) {
+      FrameTrace.endFrame("display", frameId);
+    }
+  }
 
-              // Parse JSON response
-              reader.beginArray();
-              while (reader.hasNext()) {
-                rects.add(readRecognition(reader));
-              }
-              reader.endArray();
-
-              reader.close();
-              con.disconnect();
-            } catch (Exception e) {
-              e.printStackTrace();
-              computingDetection = false;
-              return;
-            }
+  /** Draws the frame into the crop or the tiles the detector takes as input. */
+  private boolean convertFrame(final DetectionFrame frame) {
+    final long startNanos = System.nanoTime();
+    frame.bitmap.setPixels(frame.pixels, 0, previewWidth, 0, 0, previewWidth, previewHeight);
+
+    if (MODE == DetectorMode.TF_OD_API_TILED) {
+      frame.tileLayout =
+          TileLayout.create(
+              rotatedWidth,
+              rotatedHeight,
+              tilePlanner.getShortTiles(),
+              tilePlanner.getLongTiles(),
+              tilePlanner.getOverlap());
+      prepareTiles(frame, inputSizeController.getInputSize());
+      frame.cropInfo =
+          frame.tileLayout.cols
+              + "x"
+              + frame.tileLayout.rows
+              + " tiles of "
+              + (int) frame.tileLayout.side;
+      frame.boxToFrameTransform.setScale(rotatedWidth, rotatedHeight);
+      frame.boxToFrameTransform.postConcat(rotatedToFrameTransform);
+    } else {
+      if (inputSizeController.getInputSize() != cropSize) {
+        updateCropSize(inputSizeController.getInputSize());
+      }
+      if (frame.crop == null || frame.crop.getWidth() != cropSize) {
+        frame.crop = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+      }
+      frame.cropInfo = cropSize + "x" + cropSize;
+      frame.boxToFrameTransform.setScale(cropSize, cropSize);
+      frame.boxToFrameTransform.postConcat(cropToFrameTransform);
+
+      final Canvas canvas = new Canvas(frame.crop);
+      canvas.drawBitmap(frame.bitmap, frameToCropTransform, null);
+      // For examining the actual TF input.
+      if (SAVE_PREVIEW_BITMAP) {
+        ImageUtils.saveBitmap(frame.crop);
+      }
+    }
+    latencyStats.recordSince(LatencyStats.Stage.PREPROCESS, startNanos);
+    return true;
+  }
 
-            // TODO return
-            LOGGER.i(String.format("Received %d rects.", rects.size()));
+  private boolean inferFrame(final DetectionFrame frame) {
+    LOGGER.i("Running detection on image %d", frame.id);
+    final long startTime = SystemClock.uptimeMillis();
+    try {
+      if (MODE == DetectorMode.TF_OD_API || MODE == DetectorMode.TF_OD_API_CASCADE) {
+        frame.results = detectLocally(frame.crop);
+      } else if (MODE == DetectorMode.TF_OD_API_TILED) {
+        frame.results = detectTiled(frame.tiles, frame.tileLayout);
+      } else {
+        frame.results = detectRemotely(frame.crop);
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      frame.fate = FrameLedger.Fate.DETECTION_ERROR;
+      return false;
+    }
+    frame.processingTimeMs = SystemClock.uptimeMillis() - startTime;
+    return true;
+  }
 
-            // DRIVE BY
-            /*AssetManager assetManager = DetectorActivity.this.getAssets();
+  /** Colors the results and hands them to the tracker, which the overlay draws from. */
+  private boolean postProcessFrame(final DetectionFrame frame) {
+    final List<Classifier.Recognition> rects = frame.results;
+    final long processingTimeMs = frame.processingTimeMs;
+    governor.onDetectionLatency(processingTimeMs);
+    if (MODE != DetectorMode.TF_OD_API_TILED) {
+      inputSizeController.onFrameProcessed(processingTimeMs);
+    } else if (!tilePlanner.onFrameProcessed(frame.tiles.size(), processingTimeMs)
+        && frame.tiles.size() == 1) {
+      // Only lower the resolution of each tile once tiling is already at its minimum.
+      inputSizeController.onFrameProcessed(processingTimeMs);
+    }
 
-            InputStream istr;
-            Bitmap testBitmap = null;
-            try {
-              istr = assetManager.open("0026.png");
-              testBitmap = BitmapFactory.decodeStream(istr);
-            } catch (IOException e) {
-              // handle exception
-            }*/
+    // With several interpreters, a frame can finish after a newer one; its holds are outdated.
+    if (frame.id < lastAppliedFrameId) {
+      frame.fate = FrameLedger.Fate.RESULT_STALE;
+      return false;
+    }
+    lastAppliedFrameId = frame.id;
+    frame.fate = FrameLedger.Fate.RESULT_APPLIED;
 
+    // TODO return
+    LOGGER.i("Received %d rects.", rects.size());
+    assignColors(frame);
 
+    // DRIVE BY
+    /*AssetManager assetManager = DetectorActivity.this.getAssets();
 
-            /*final List<Classifier.Recognition> results = detector.recognizeImage(croppedBitmap);
-            lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+    InputStream istr;
+    Bitmap testBitmap = null;
+    try {
+      istr = assetManager.open("0026.png");
+      testBitmap = BitmapFactory.decodeStream(istr);
+    } catch (IOException e) {
+      // handle exception
+    }*/
 
-            cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-            final Canvas canvas = new Canvas(cropCopyBitmap);
-            final Paint paint = new Paint();
-            paint.setColor(Color.RED);
-            paint.setStyle(Style.STROKE);
-            paint.setStrokeWidth(2.0f);
 
-            float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-            switch (MODE) {
-              case TF_OD_API:
-                minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-                break;
-            }
 
-            final List<Classifier.Recognition> mappedRecognitions =
-                new LinkedList<Classifier.Recognition>();
+    /*final List<Classifier.Recognition> results = detector.recognizeImage(croppedBitmap);
+    lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
 
-            for (final Classifier.Recognition result : results) {
-              final RectF location = result.getLocation();
-              if (location != null && result.getConfidence() >= minimumConfidence) {*/
+    cropCopyBitmap = Bitmap.createBitmap(frameCrop);
+    final Canvas canvas = new Canvas(cropCopyBitmap);
+    final Paint paint = new Paint();
+    paint.setColor(Color.RED);
+    paint.setStyle(Style.STROKE);
+    paint.setStrokeWidth(2.0f);
 
-                // find color of the location
-                /*if (location.centerX() < cropCopyBitmap.getWidth() && location.centerY() < cropCopyBitmap.getHeight()) {
-                  int pixel = cropCopyBitmap.getPixel((int)location.centerX(), (int)location.centerY());
-                  int redValue = Color.red(pixel);
-                  int blueValue = Color.blue(pixel);
-                  int greenValue = Color.green(pixel);
-                  result.setColor(Color.rgb(redValue, greenValue, blueValue));
-                  LOGGER.i(String.format("Found pixel with color #%06X", (0xFFFFFF & result.getColor())));
-                }*/
+    float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
+    switch (MODE) {
+      case TF_OD_API:
+        minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
+        break;
+    }
 
-                /*canvas.drawRect(location, paint);
+    final List<Classifier.Recognition> mappedRecognitions =
+        new LinkedList<Classifier.Recognition>();
 
-                cropToFrameTransform.mapRect(location);
-                result.setLocation(location);
-                mappedRecognitions.add(result);
-              }
-            }*/
+    for (final Classifier.Recognition result : results) {
+      final RectF location = result.getLocation();
+      if (location != null && result.getConfidence() >= minimumConfidence) {*/
 
-            cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-            final Canvas canvas = new Canvas(cropCopyBitmap);
+        // find color of the location
+        /*if (location.centerX() < cropCopyBitmap.getWidth() && location.centerY() < cropCopyBitmap.getHeight()) {
+          int pixel = cropCopyBitmap.getPixel((int)location.centerX(), (int)location.centerY());
+          int redValue = Color.red(pixel);
+          int blueValue = Color.blue(pixel);
+          int greenValue = Color.green(pixel);
+          result.setColor(Color.rgb(redValue, greenValue, blueValue));
+          LOGGER.i(String.format("Found pixel with color #%06X", (0xFFFFFF & result.getColor())));
+        }*/
 
-            tracker.trackResults(rects, currTimestamp);
-            trackingOverlay.postInvalidate();
+        /*canvas.drawRect(location, paint);
 
-            computingDetection = false;
+        cropToFrameTransform.mapRect(location);
+        result.setLocation(location);
+        mappedRecognitions.add(result);
+      }
+    }*/
+
+    final long trackStartNanos = System.nanoTime();
+    tracker.trackResults(rects, frame.timeMs);
+    latencyStats.recordSince(LatencyStats.Stage.TRACKING, trackStartNanos);
+    FrameTrace.beginFrame("display", frame.id);
+    final long superseded = undisplayedFrameId.getAndSet(frame.id);
+    if (superseded >= 0) {
+      // Replaced by newer results before the overlay got to draw them.
+      FrameTrace.endFrame("display", superseded);
+    }
+    detectionScheduler.onDetection(frame.timeMs, tracker.isStable());
+    firstResultsTracked = true;
+    invalidateOverlay();
 
-            runOnUiThread(
-                new Runnable() {
-                  @Override
-                  public void run() {
-                    showFrameInfo(previewWidth + "x" + previewHeight);
-                    showCropInfo(cropCopyBitmap.getWidth() + "x" + cropCopyBitmap.getHeight());
-                    showInference(lastProcessingTimeMs + "ms");
-                  }
-                });
-            }
+    final String cropInfo = frame.cropInfo;
+    runOnUiThread(
+        new Runnable() {
+          @Override
+          public void run() {
+            showFrameInfo(previewWidth + "x" + previewHeight);
+            showCropInfo(cropInfo);
+            showInference(processingTimeMs + "ms");
+          }
         });
+    return true;
   }
 
-  private Classifier.Recognition readRecognition(JsonReader reader) throws IOException {
-    String id = null;
-    String title = null;
-    float confidence = 0.0f;
-    RectF boundingBox = null;
-
-    reader.beginObject();
-    while (reader.hasNext()) {
-      String name = reader.nextName();
-      if (name.equals("probability")) {
-        confidence = (float) reader.nextDouble();
-      } else if (name.equals("tagId")) {
-        id = reader.nextString();
-      } else if (name.equals("tagName")) {
-        title = reader.nextString();
-      } else if (name.equals("boundingBox")) {
-        boundingBox = readRect(reader);
-      } else {
-        reader.skipValue();
+  /** Sends the crop to the detection server and parses the returned boxes. */
+  private List<Classifier.Recognition> detectRemotely(final Bitmap crop) throws Exception {
+    // Send web request to our """backend""" an get info about where to draw the boxes
+    Trace.beginSection("compressJpeg");
+    long startNanos = System.nanoTime();
+    ByteArrayOutputStream bao = new ByteArrayOutputStream();
+    crop.compress(Bitmap.CompressFormat.JPEG, governor.getProfile().jpegQuality, bao);
+    latencyStats.recordSince(LatencyStats.Stage.ENCODE, startNanos);
+    Trace.endSection();
+
+    LOGGER.i("Attempting to send an image.");
+    final byte[] response;
+    Trace.beginSection("upload");
+    try {
+      startNanos = System.nanoTime();
+      response = serverDetector.upload(bao.toByteArray());
+      latencyStats.recordSince(LatencyStats.Stage.INFERENCE, startNanos);
+    } finally {
+      Trace.endSection();
+    }
+
+    Trace.beginSection("parseResponse");
+    try {
+      startNanos = System.nanoTime();
+      final List<DetectedBox> boxes =
+          ServerDetector.parse(new InputStreamReader(new ByteArrayInputStream(response), "UTF-8"));
+      final List<Classifier.Recognition> rects = new ArrayList<>(boxes.size());
+      for (final DetectedBox box : boxes) {
+        rects.add(Classifier.Recognition.of(box));
       }
+      latencyStats.recordSince(LatencyStats.Stage.DECODE, startNanos);
+      return rects;
+    } finally {
+      Trace.endSection();
     }
-    reader.endObject();
-    return new Classifier.Recognition(id, title, confidence, boundingBox);
-  }
-
-  private RectF readRect(JsonReader reader) throws IOException {
-    float left = 0.0f;
-    float top = 0.0f;
-    float width = 0.0f;
-    float height = 0.0f;
-
-    reader.beginObject();
-    while (reader.hasNext()) {
-      String name = reader.nextName();
-      if (name.equals("left")) {
-        left = (float) reader.nextDouble();// * croppedBitmap.getWidth();
-      } else if (name.equals("top")) {
-        top = (float) reader.nextDouble();// * croppedBitmap.getHeight();
-      } else if (name.equals("width")) {
-        width = (float) reader.nextDouble();// * croppedBitmap.getWidth();
-      } else if (name.equals("height")) {
-        height = (float) reader.nextDouble();// * croppedBitmap.getHeight();
+  }
+
+  /**
+   * Runs the on-device model on the crop and returns the confident boxes in coordinates relative
+   * to the crop, matching what the server returns.
+   */
+  private List<Classifier.Recognition> detectLocally(final Bitmap crop) {
+    detector.setInputSize(crop.getWidth());
+    final List<Classifier.Recognition> results = detector.recognizeImage(crop);
+
+    final List<Classifier.Recognition> rects = new ArrayList<>(results.size());
+    for (final Classifier.Recognition result : results) {
+      final RectF location = result.getLocation();
+      if (location != null && result.getConfidence() >= MINIMUM_CONFIDENCE_TF_OD_API) {
+        location.left /= crop.getWidth();
+        location.right /= crop.getWidth();
+        location.top /= crop.getHeight();
+        location.bottom /= crop.getHeight();
+        result.setLocation(location);
+        rects.add(result);
+      }
+    }
+    return rects;
+  }
+
+  /**
+   * Sets the color of every box to the dominant hold color in the pixels of the frame it was
+   * detected on. Boxes of tracks with a settled color take that color instead.
+   */
+  private void assignColors(final DetectionFrame frame) {
+    final List<Classifier.Recognition> recognitions = frame.results;
+    final TrackSnapshot tracks = tracker.getSnapshot();
+    if (settledCandidates.length < tracks.size()) {
+      settledCandidates = new int[tracks.size()];
+    }
+    boolean uncolored = false;
+    for (final Classifier.Recognition recognition : recognitions) {
+      // Boxes labelled by the detector already have a color.
+      if (recognition.getColor() != 0) {
+        continue;
+      }
+      // Holds whose color the tracker has settled on are not classified again.
+      final RectF location = recognition.getLocation();
+      final int settled =
+          tracks.findSettled(
+              location.left, location.top, location.right, location.bottom, settledCandidates);
+      if (settled >= 0) {
+        recognition.setColor(tracks.getColor(settled));
       } else {
-        reader.skipValue();
+        uncolored = true;
+      }
+    }
+    if (!uncolored) {
+      return;
+    }
+    if (holdColorClassifier == null) {
+      holdColorClassifier = new HoldColorClassifier();
+    }
+    final RectF box = new RectF();
+    for (final Classifier.Recognition recognition : recognitions) {
+      if (recognition.getColor() != 0) {
+        continue;
       }
+      frame.boxToFrameTransform.mapRect(box, recognition.getLocation());
+      final int color =
+          holdColorClassifier.classify(
+              frame.pixels, previewWidth, previewHeight, box.left, box.top, box.right, box.bottom);
+      if (color >= 0) {
+        recognition.setColor(HoldPalette.getDisplayColor(color));
+      }
+    }
+  }
+
+  /**
+   * Draws the frame into one bitmap per tile of its layout. The bitmaps of a frame are only
+   * reallocated when the number of tiles or the input size changes.
+   */
+  private void prepareTiles(final DetectionFrame frame, final int inputSize) {
+    final TileLayout layout = frame.tileLayout;
+    if (frame.tiles.size() != layout.getTileCount()
+        || frame.tiles.get(0).getWidth() != inputSize) {
+      LOGGER.i("Using %d tiles of %dx%d", layout.getTileCount(), inputSize, inputSize);
+      frame.tiles = new ArrayList<>(layout.getTileCount());
+      for (int i = 0; i < layout.getTileCount(); ++i) {
+        frame.tiles.add(Bitmap.createBitmap(inputSize, inputSize, Config.ARGB_8888));
+      }
+    }
+
+    final float scale = inputSize / layout.side;
+    for (int i = 0; i < layout.getTileCount(); ++i) {
+      frameToTileTransform.set(frameToRotatedTransform);
+      frameToTileTransform.postTranslate(-layout.getLeft(i), -layout.getTop(i));
+      frameToTileTransform.postScale(scale, scale);
+
+      tileCanvas.setBitmap(frame.tiles.get(i));
+      // Tiles may extend beyond a narrow frame.
+      tileCanvas.drawColor(Color.BLACK);
+      tileCanvas.drawBitmap(frame.bitmap, frameToTileTransform, null);
+    }
+    tileCanvas.setBitmap(null);
+  }
+
+  /** Runs all tiles as one batch and merges the results into frame-relative boxes. */
+  private List<Classifier.Recognition> detectTiled(
+      final List<Bitmap> tiles, final TileLayout layout) {
+    final int inputSize = tiles.get(0).getWidth();
+    detector.setInputSize(inputSize);
+    final List<List<DetectedBox>> perTile = new ArrayList<>(tiles.size());
+    for (final List<Classifier.Recognition> results : detector.recognizeImages(tiles)) {
+      final List<DetectedBox> boxes = new ArrayList<>(results.size());
+      for (final Classifier.Recognition result : results) {
+        boxes.add(result.toDetectedBox());
+      }
+      perTile.add(boxes);
+    }
+    final List<DetectedBox> merged =
+        TileMerger.merge(perTile, layout, inputSize, MINIMUM_CONFIDENCE_TF_OD_API);
+    final List<Classifier.Recognition> rects = new ArrayList<>(merged.size());
+    for (final DetectedBox box : merged) {
+      rects.add(Classifier.Recognition.of(box));
+    }
+    return rects;
+  }
+
+  /** Refreshes the stage latencies in the bottom sheet and writes a snapshot when one is due. */
+  private final Runnable latencyUpdater =
+      new Runnable() {
+        @Override
+        public void run() {
+          showLatency(latencyStats.format());
+          final long now = SystemClock.uptimeMillis();
+          showFrameFates(frameLedger.formatRates(now, createTimeMs));
+          if (governor.update(now, deviceSignals.read())) {
+            LOGGER.i("Switched to performance profile %s", governor.describe());
+            applyProfile();
+          }
+          showProfile(governor.describe());
+          if (now - lastLatencySnapshotMs >= LATENCY_SNAPSHOT_INTERVAL_MS) {
+            lastLatencySnapshotMs = now;
+            runInBackground(DetectorActivity.this::writeLatencySnapshot);
+          }
+          latencyHandler.postDelayed(this, LATENCY_DISPLAY_INTERVAL_MS);
+        }
+      };
+
+  /**
+   * Appends the stage latencies as one line of JSON to this session's file in app storage. The
+   * histograms are cumulative, so the latencies of an interval are the difference of two lines.
+   */
+  private void writeLatencySnapshot() {
+    final File file = latencyFile;
+    if (file == null) {
+      return;
+    }
+    final File dir = file.getParentFile();
+    if (!dir.mkdirs() && !dir.isDirectory()) {
+      LOGGER.w("Could not create %s", dir);
+      return;
+    }
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8")) {
+      writer.write(latencyStats.toJson(System.currentTimeMillis()));
+      writer.write('\n');
+    } catch (final IOException e) {
+      LOGGER.e(e, "Could not write latency snapshot to %s", file);
     }
-    reader.endObject();
-    return new RectF(left, top, left + width, top + height);
   }
 
   @Override
@@ -393,22 +1037,90 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
   @Override
   protected Size getDesiredPreviewFrameSize() {
-    return DESIRED_PREVIEW_SIZE;
+    final PerformanceProfile profile = governor.getProfile();
+    return new Size(profile.previewWidth, profile.previewHeight);
+  }
+
+  /**
+   * Applies the profile of the governor. The input size limit, the detection interval and the
+   * upload quality apply from the next frame on and the thread count once the inference thread
+   * gets to it; the preview size applies when the camera is opened next, since reopening it now
+   * would stall the preview.
+   */
+  private void applyProfile() {
+    final PerformanceProfile profile = governor.getProfile();
+    if (inputSizeController != null) {
+      inputSizeController.setMaxInputSize(profile.maxInputSize);
+    }
+    detectionScheduler.setMinIntervalMs(profile.minDetectionIntervalMs);
+    runInBackground(this::applyThreads);
+  }
+
+  /** Runs inference on the requested number of threads, or as many as the profile allows. */
+  private void applyThreads() {
+    synchronized (threadsLock) {
+      final int threads = Math.min(requestedThreads, governor.getProfile().maxThreads);
+      if (detector != null && threads != appliedThreads) {
+        appliedThreads = threads;
+        detector.setNumThreads(threads);
+      }
+    }
+  }
+
+  /** A camera frame on its way through the detection pipeline, with the buffers it owns. */
+  private static final class DetectionFrame {
+    final int[] pixels;
+    final Bitmap bitmap;
+    // Maps the normalized boxes detected on this frame to camera frame pixels.
+    final Matrix boxToFrameTransform = new Matrix();
+    Bitmap crop;
+    List<Bitmap> tiles = new ArrayList<>();
+    TileLayout tileLayout;
+    long id;
+    long timeMs;
+    String cropInfo;
+    List<Classifier.Recognition> results;
+    long processingTimeMs;
+    // Set by the stage that settled what became of the frame, null while it is undecided.
+    FrameLedger.Fate fate;
+
+    DetectionFrame(final int width, final int height) {
+      pixels = new int[width * height];
+      bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+    }
   }
 
   // Which detection model to use: by default uses Tensorflow Object Detection API frozen
   // checkpoints.
   private enum DetectorMode {
-    TF_OD_API;
+    TF_OD_API,
+    // Split the full-resolution frame into overlapping tiles and detect on all of them in one
+    // batch, so that small holds are not lost when the frame is scaled down.
+    TF_OD_API_TILED,
+    // Find boxes with the model at a low resolution and label only those boxes by their color.
+    TF_OD_API_CASCADE,
+    // Upload the crop to the detection server instead of running the model on the device.
+    REMOTE;
   }
 
   @Override
   protected void setUseNNAPI(final boolean isChecked) {
-    runInBackground(() -> detector.setUseNNAPI(isChecked));
+    runInBackground(
+        () -> {
+          if (detector != null) {
+            detector.setUseNNAPI(isChecked);
+          }
+        });
   }
 
   @Override
   protected void setNumThreads(final int numThreads) {
-    runInBackground(() -> detector.setNumThreads(numThreads));
+    runInBackground(
+        () -> {
+          synchronized (threadsLock) {
+            requestedThreads = numThreads;
+            applyThreads();
+          }
+        });
   }
 }
@@ -36,8 +36,8 @@ import java.util.List;
 import de.tum.hack.BoulderChroma.R;
 
 import de.tum.hack.BoulderChroma.customview.AutoFitTextureView;
-import de.tum.hack.BoulderChroma.env.ImageUtils;
 import de.tum.hack.BoulderChroma.env.Logger;
+import de.tum.hack.BoulderChroma.env.YuvConverter;
 
 public class LegacyCameraConnectionFragment extends Fragment {
   private static final Logger LOGGER = new Logger();
@@ -97,7 +97,7 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
           camera.setPreviewCallbackWithBuffer(imageListener);
           Camera.Size s = camera.getParameters().getPreviewSize();
-          camera.addCallbackBuffer(new byte[ImageUtils.getYUVByteSize(s.height, s.width)]);
+          camera.addCallbackBuffer(new byte[YuvConverter.getYUVByteSize(s.height, s.width)]);
 
           textureView.setAspectRatio(s.height, s.width);
 
@@ -0,0 +1,123 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.customview;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PorterDuff;
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.TextureView;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An overlay drawn on its own thread, once per display refresh. Unlike {@link OverlayView}, it
+ * needs no invalidation and puts no drawing work on the UI thread; callbacks run on the render
+ * thread and must not touch other views.
+ */
+public class RenderedOverlayView extends TextureView
+    implements TextureView.SurfaceTextureListener, Choreographer.FrameCallback {
+  private final List<RenderCallback> callbacks = new CopyOnWriteArrayList<RenderCallback>();
+  // Guards the surface against being released by the UI thread while it is drawn on.
+  private final Object surfaceLock = new Object();
+  private boolean surfaceAvailable = false;
+  private HandlerThread renderThread;
+
+  public RenderedOverlayView(final Context context, final AttributeSet attrs) {
+    super(context, attrs);
+    setOpaque(false);
+    setSurfaceTextureListener(this);
+  }
+
+  public void addCallback(final RenderCallback callback) {
+    callbacks.add(callback);
+  }
+
+  @Override
+  public void onSurfaceTextureAvailable(
+      final SurfaceTexture surface, final int width, final int height) {
+    synchronized (surfaceLock) {
+      surfaceAvailable = true;
+    }
+    renderThread = new HandlerThread("OverlayRenderer");
+    renderThread.start();
+    // The choreographer of the render thread delivers the vsync callbacks on that thread.
+    new Handler(renderThread.getLooper())
+        .post(
+            new Runnable() {
+              @Override
+              public void run() {
+                Choreographer.getInstance().postFrameCallback(RenderedOverlayView.this);
+              }
+            });
+  }
+
+  @Override
+  public void onSurfaceTextureSizeChanged(
+      final SurfaceTexture surface, final int width, final int height) {}
+
+  @Override
+  public boolean onSurfaceTextureDestroyed(final SurfaceTexture surface) {
+    synchronized (surfaceLock) {
+      surfaceAvailable = false;
+    }
+    renderThread.quitSafely();
+    try {
+      renderThread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    renderThread = null;
+    return true;
+  }
+
+  @Override
+  public void onSurfaceTextureUpdated(final SurfaceTexture surface) {}
+
+  @Override
+  public void doFrame(final long frameTimeNanos) {
+    synchronized (surfaceLock) {
+      if (!surfaceAvailable) {
+        return;
+      }
+      final Canvas canvas = lockCanvas();
+      if (canvas != null) {
+        try {
+          canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+          for (final RenderCallback callback : callbacks) {
+            callback.onRender(canvas, frameTimeNanos);
+          }
+        } finally {
+          unlockCanvasAndPost(canvas);
+        }
+      }
+    }
+    Choreographer.getInstance().postFrameCallback(this);
+  }
+
+  /** Interface defining the callback for client classes. */
+  public interface RenderCallback {
+    /**
+     * @param frameTimeNanos vsync time of the frame being drawn, in the {@link System#nanoTime()}
+     *     time base
+     */
+    void onRender(final Canvas canvas, final long frameTimeNanos);
+  }
+}
@@ -0,0 +1,83 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.env;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import de.tum.hack.BoulderChroma.governor.DeviceState;
+import java.lang.reflect.Method;
+
+/**
+ * Reads the {@link DeviceState} the performance governor reacts to. The thermal status is public
+ * API only from Android 10 on and reached by reflection, since the app compiles against an older
+ * SDK; before that it reads as {@link DeviceState#THERMAL_NONE}. The battery is read from the
+ * sticky battery broadcast, which needs no receiver.
+ */
+public final class DeviceSignals {
+  private static final Logger LOGGER = new Logger();
+
+  private final Context context;
+  private final PowerManager powerManager;
+  private final Method getCurrentThermalStatus;
+
+  public DeviceSignals(final Context context) {
+    this.context = context.getApplicationContext();
+    powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+    Method thermalStatus = null;
+    if (Build.VERSION.SDK_INT >= 29) {
+      try {
+        thermalStatus = PowerManager.class.getMethod("getCurrentThermalStatus");
+      } catch (final NoSuchMethodException e) {
+        LOGGER.w(e, "Thermal status is not available");
+      }
+    }
+    getCurrentThermalStatus = thermalStatus;
+  }
+
+  public DeviceState read() {
+    final Intent battery =
+        context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    int batteryPercent = -1;
+    boolean charging = true;
+    if (battery != null) {
+      final int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+      final int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+      if (level >= 0 && scale > 0) {
+        batteryPercent = level * 100 / scale;
+      }
+      charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+    return new DeviceState(
+        readThermalStatus(),
+        batteryPercent,
+        charging,
+        powerManager != null && powerManager.isPowerSaveMode());
+  }
+
+  private int readThermalStatus() {
+    if (getCurrentThermalStatus == null || powerManager == null) {
+      return DeviceState.THERMAL_NONE;
+    }
+    try {
+      return (Integer) getCurrentThermalStatus.invoke(powerManager);
+    } catch (final Exception e) {
+      return DeviceState.THERMAL_NONE;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.env;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Box labels rendered once into a shared bitmap and drawn from there, instead of measuring and
+ * drawing the text for every box on every frame. Each sprite is the label in white on a
+ * translucent rectangle of the box color, like {@link BorderedText#drawText(Canvas, float, float,
+ * String, Paint)}.
+ *
+ * <p>Sprites are added on first use. Sprites drawn earlier in a frame must not change before the
+ * frame is rendered, so when the atlas is full the labels that do not fit are drawn as text for the
+ * rest of the frame; the atlas is cleared in the next {@link #beginFrame()} and refilled with the
+ * labels in use. Only use from the thread that draws.
+ */
+public class LabelAtlas {
+  private static final int ATLAS_WIDTH = 1024;
+  private static final int ATLAS_ROWS = 16;
+  private static final int MAX_SPRITES = 64;
+  private static final int BACKGROUND_ALPHA = 160;
+
+  private final Bitmap atlas;
+  private final Canvas atlasCanvas;
+  private final Paint textPaint = new Paint();
+  private final Paint backgroundPaint = new Paint();
+  private final Paint spritePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+  private final int rowHeight;
+  // Distance from the baseline to the bottom of a row, room for descenders.
+  private final float descent;
+
+  private final String[] labels = new String[MAX_SPRITES];
+  private final int[] colors = new int[MAX_SPRITES];
+  private final Rect[] bounds = new Rect[MAX_SPRITES];
+  private int count = 0;
+  private int nextX = 0;
+  private int nextRow = 0;
+  private boolean full = false;
+
+  private final RectF destination = new RectF();
+
+  /** @param textSize text size in pixels */
+  public LabelAtlas(final float textSize) {
+    textPaint.setTextSize(textSize);
+    textPaint.setColor(Color.WHITE);
+    textPaint.setStyle(Paint.Style.FILL);
+    backgroundPaint.setStyle(Paint.Style.FILL);
+    final Paint.FontMetrics metrics = textPaint.getFontMetrics();
+    rowHeight = (int) Math.ceil(metrics.descent - metrics.ascent);
+    descent = metrics.descent;
+    atlas = Bitmap.createBitmap(ATLAS_WIDTH, rowHeight * ATLAS_ROWS, Bitmap.Config.ARGB_8888);
+    atlasCanvas = new Canvas(atlas);
+    for (int i = 0; i < MAX_SPRITES; ++i) {
+      bounds[i] = new Rect();
+    }
+  }
+
+  /** Call before drawing the labels of a frame. Clears the atlas if it ran full last frame. */
+  public void beginFrame() {
+    if (full) {
+      full = false;
+      count = 0;
+      nextX = 0;
+      nextRow = 0;
+    }
+  }
+
+  /** Draws the label with its top left corner at the given position. */
+  public void draw(
+      final Canvas canvas, final String label, final int color, final float left, final float top) {
+    final int index = getSprite(label, color);
+    if (index < 0) {
+      destination.set(left, top, left + textPaint.measureText(label), top + rowHeight);
+      setBackground(color);
+      canvas.drawRect(destination, backgroundPaint);
+      canvas.drawText(label, left, destination.bottom - descent, textPaint);
+      return;
+    }
+    final Rect sprite = bounds[index];
+    destination.set(left, top, left + sprite.width(), top + sprite.height());
+    canvas.drawBitmap(atlas, sprite, destination, spritePaint);
+  }
+
+  /** Returns the index of the sprite of a label, or -1 while the atlas is full. */
+  private int getSprite(final String label, final int color) {
+    for (int i = 0; i < count; ++i) {
+      if (colors[i] == color && labels[i].equals(label)) {
+        return i;
+      }
+    }
+
+    if (full) {
+      return -1;
+    }
+    final int width = Math.min(ATLAS_WIDTH, (int) Math.ceil(textPaint.measureText(label)));
+    final int row = nextX + width > ATLAS_WIDTH ? nextRow + 1 : nextRow;
+    if (count == MAX_SPRITES || row == ATLAS_ROWS) {
+      full = true;
+      return -1;
+    }
+    if (row != nextRow) {
+      nextX = 0;
+      nextRow = row;
+    }
+
+    final int index = count++;
+    labels[index] = label;
+    colors[index] = color;
+    final Rect sprite = bounds[index];
+    sprite.set(nextX, nextRow * rowHeight, nextX + width, (nextRow + 1) * rowHeight);
+    nextX += width;
+
+    setBackground(color);
+    atlasCanvas.save();
+    atlasCanvas.clipRect(sprite);
+    atlasCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+    atlasCanvas.drawRect(sprite, backgroundPaint);
+    atlasCanvas.drawText(label, sprite.left, sprite.bottom - descent, textPaint);
+    atlasCanvas.restore();
+    return index;
+  }
+
+  private void setBackground(final int color) {
+    backgroundPaint.setColor(color);
+    backgroundPaint.setAlpha(BACKGROUND_ALPHA);
+  }
+}
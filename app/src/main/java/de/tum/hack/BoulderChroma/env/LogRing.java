@@ -0,0 +1,188 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.env;
+
+import android.util.Log;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded ring of pending log messages, written to the platform log by a background thread.
+ * Messages are stored unformatted, with primitive arguments kept primitive, so that logging neither
+ * blocks nor allocates on the calling thread. When the ring is full, messages are dropped and
+ * counted instead of waiting.
+ *
+ * <p>Any number of threads may add messages; the slots are claimed with a sequence number per slot,
+ * as in Dmitry Vyukov's bounded queue, so writers never take a lock.
+ */
+final class LogRing {
+  // Must be a power of two.
+  private static final int CAPACITY = 1024;
+  private static final int MASK = CAPACITY - 1;
+  // How long the writer sleeps when the ring is empty.
+  private static final long IDLE_SLEEP_MS = 20;
+  private static final String TAG = "Logger";
+
+  static final int ARGS_NONE = 0;
+  static final int ARGS_OBJECTS = 1;
+  static final int ARGS_LONG = 2;
+  static final int ARGS_LONG_LONG = 3;
+  static final int ARGS_DOUBLE = 4;
+
+  private static final LogRing INSTANCE = new LogRing();
+
+  /** A pending message. Only the writer of the slot touches it between claim and publish. */
+  private static final class Entry {
+    int priority;
+    String tag;
+    String prefix;
+    String format;
+    int argsKind;
+    Object[] args;
+    long first;
+    long second;
+    double value;
+    Throwable throwable;
+  }
+
+  private final Entry[] entries = new Entry[CAPACITY];
+  // For slot i: equal to the position of the writer that may fill it, one more once it is filled.
+  private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicInteger dropped = new AtomicInteger();
+  // Only used by the writer thread.
+  private long head = 0;
+
+  private LogRing() {
+    for (int i = 0; i < CAPACITY; ++i) {
+      entries[i] = new Entry();
+      sequences.set(i, i);
+    }
+    final Thread writer = new Thread(this::drainForever, "log-writer");
+    writer.setDaemon(true);
+    writer.setPriority(Thread.MIN_PRIORITY);
+    writer.start();
+  }
+
+  static LogRing get() {
+    return INSTANCE;
+  }
+
+  /** Queues a message, or drops it if the ring is full. */
+  void add(
+      final int priority,
+      final String tag,
+      final String prefix,
+      final String format,
+      final int argsKind,
+      final Object[] args,
+      final long first,
+      final long second,
+      final double value,
+      final Throwable throwable) {
+    long position;
+    while (true) {
+      position = tail.get();
+      final long sequence = sequences.get((int) (position & MASK));
+      if (sequence < position) {
+        // The writer has not emptied this slot yet: the ring is full.
+        dropped.incrementAndGet();
+        return;
+      }
+      if (sequence == position && tail.compareAndSet(position, position + 1)) {
+        break;
+      }
+      // Another thread claimed the slot first; try the next one.
+    }
+    final int slot = (int) (position & MASK);
+    final Entry entry = entries[slot];
+    entry.priority = priority;
+    entry.tag = tag;
+    entry.prefix = prefix;
+    entry.format = format;
+    entry.argsKind = argsKind;
+    entry.args = args;
+    entry.first = first;
+    entry.second = second;
+    entry.value = value;
+    entry.throwable = throwable;
+    sequences.set(slot, position + 1);
+  }
+
+  private void drainForever() {
+    while (true) {
+      if (!drain()) {
+        try {
+          Thread.sleep(IDLE_SLEEP_MS);
+        } catch (final InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+
+  /** Writes all published messages; returns whether there were any. */
+  private boolean drain() {
+    boolean wrote = false;
+    while (true) {
+      final int slot = (int) (head & MASK);
+      if (sequences.get(slot) != head + 1) {
+        break;
+      }
+      final Entry entry = entries[slot];
+      final int priority = entry.priority;
+      final String tag = entry.tag;
+      final String message = entry.prefix + format(entry);
+      final Throwable throwable = entry.throwable;
+      // Drop the references before handing the slot back.
+      entry.args = null;
+      entry.throwable = null;
+      sequences.set(slot, head + CAPACITY);
+      ++head;
+
+      Log.println(
+          priority,
+          tag,
+          throwable != null ? message + '\n' + Log.getStackTraceString(throwable) : message);
+      wrote = true;
+    }
+    final int lost = dropped.getAndSet(0);
+    if (lost > 0) {
+      Log.w(TAG, lost + " log messages dropped, the log ring was full");
+    }
+    return wrote;
+  }
+
+  private static String format(final Entry entry) {
+    try {
+      switch (entry.argsKind) {
+        case ARGS_OBJECTS:
+          return String.format(entry.format, entry.args);
+        case ARGS_LONG:
+          return String.format(entry.format, entry.first);
+        case ARGS_LONG_LONG:
+          return String.format(entry.format, entry.first, entry.second);
+        case ARGS_DOUBLE:
+          return String.format(entry.format, entry.value);
+        default:
+          return entry.format;
+      }
+    } catch (final RuntimeException e) {
+      // A broken format must not stop the writer; log it unformatted.
+      return entry.format + " (" + e + ")";
+    }
+  }
+}
@@ -19,7 +19,14 @@ import android.util.Log;
 import java.util.HashSet;
 import java.util.Set;
 
-/** Wrapper for the platform log function, allows convenient message prefixing and log disabling. */
+/**
+ * Wrapper for the platform log function, allows convenient message prefixing and log disabling.
+ *
+ * <p>Messages are written asynchronously by {@link LogRing}. The level is checked before anything
+ * else, and messages are formatted on the writer thread: pass a format with its arguments instead
+ * of building the message, and prefer the overloads with primitive arguments on hot paths, which
+ * neither box nor allocate a varargs array.
+ */
 public final class Logger {
   private static final String DEFAULT_TAG = "tensorflow";
   private static final int DEFAULT_MIN_LOG_LEVEL = Log.DEBUG;
@@ -37,6 +44,8 @@ public final class Logger {
   private final String tag;
   private final String messagePrefix;
   private int minLogLevel = DEFAULT_MIN_LOG_LEVEL;
+  // Lowest level the platform enables for the tag. Looked up once, it is a system property read.
+  private final int platformLogLevel;
 
   /**
    * Creates a Logger using the class name as the message prefix.
@@ -71,6 +80,7 @@ public final class Logger {
     this.tag = tag;
     final String prefix = messagePrefix == null ? getCallerSimpleName() : messagePrefix;
     this.messagePrefix = (prefix.length() > 0) ? prefix + ": " : prefix;
+    this.platformLogLevel = lowestLoggableLevel(tag);
   }
 
   /** Creates a Logger using the caller's class name as the message prefix. */
@@ -112,75 +122,221 @@ public final class Logger {
     return Logger.class.getSimpleName();
   }
 
+  private static int lowestLoggableLevel(final String tag) {
+    for (int level = Log.VERBOSE; level < Log.ASSERT; ++level) {
+      if (Log.isLoggable(tag, level)) {
+        return level;
+      }
+    }
+    return Log.ASSERT;
+  }
+
   public void setMinLogLevel(final int minLogLevel) {
     this.minLogLevel = minLogLevel;
   }
 
   public boolean isLoggable(final int logLevel) {
-    return logLevel >= minLogLevel || Log.isLoggable(tag, logLevel);
+    return logLevel >= minLogLevel || logLevel >= platformLogLevel;
+  }
+
+  /**
+   * Queues a message for the log writer thread. Formatting happens there, so callers pass the
+   * format and its arguments rather than a built string.
+   */
+  private void enqueue(
+      final int priority,
+      final Throwable t,
+      final String format,
+      final int argsKind,
+      final Object[] args,
+      final long first,
+      final long second,
+      final double value) {
+    LogRing.get()
+        .add(priority, tag, messagePrefix, format, argsKind, args, first, second, value, t);
+  }
+
+  public void v(final String message) {
+    if (isLoggable(Log.VERBOSE)) {
+      enqueue(Log.VERBOSE, null, message, LogRing.ARGS_NONE, null, 0, 0, 0);
+    }
+  }
+
+  public void v(final String format, final long arg) {
+    if (isLoggable(Log.VERBOSE)) {
+      enqueue(Log.VERBOSE, null, format, LogRing.ARGS_LONG, null, arg, 0, 0);
+    }
   }
 
-  private String toMessage(final String format, final Object... args) {
-    return messagePrefix + (args.length > 0 ? String.format(format, args) : format);
+  public void v(final String format, final long first, final long second) {
+    if (isLoggable(Log.VERBOSE)) {
+      enqueue(Log.VERBOSE, null, format, LogRing.ARGS_LONG_LONG, null, first, second, 0);
+    }
+  }
+
+  public void v(final String format, final double arg) {
+    if (isLoggable(Log.VERBOSE)) {
+      enqueue(Log.VERBOSE, null, format, LogRing.ARGS_DOUBLE, null, 0, 0, arg);
+    }
   }
 
   public void v(final String format, final Object... args) {
     if (isLoggable(Log.VERBOSE)) {
-      Log.v(tag, toMessage(format, args));
+      enqueue(Log.VERBOSE, null, format, argsKind(args), args, 0, 0, 0);
     }
   }
 
   public void v(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.VERBOSE)) {
-      Log.v(tag, toMessage(format, args), t);
+      enqueue(Log.VERBOSE, t, format, argsKind(args), args, 0, 0, 0);
+    }
+  }
+
+  public void d(final String message) {
+    if (isLoggable(Log.DEBUG)) {
+      enqueue(Log.DEBUG, null, message, LogRing.ARGS_NONE, null, 0, 0, 0);
+    }
+  }
+
+  public void d(final String format, final long arg) {
+    if (isLoggable(Log.DEBUG)) {
+      enqueue(Log.DEBUG, null, format, LogRing.ARGS_LONG, null, arg, 0, 0);
+    }
+  }
+
+  public void d(final String format, final long first, final long second) {
+    if (isLoggable(Log.DEBUG)) {
+      enqueue(Log.DEBUG, null, format, LogRing.ARGS_LONG_LONG, null, first, second, 0);
+    }
+  }
+
+  public void d(final String format, final double arg) {
+    if (isLoggable(Log.DEBUG)) {
+      enqueue(Log.DEBUG, null, format, LogRing.ARGS_DOUBLE, null, 0, 0, arg);
     }
   }
 
   public void d(final String format, final Object... args) {
     if (isLoggable(Log.DEBUG)) {
-      Log.d(tag, toMessage(format, args));
+      enqueue(Log.DEBUG, null, format, argsKind(args), args, 0, 0, 0);
     }
   }
 
   public void d(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.DEBUG)) {
-      Log.d(tag, toMessage(format, args), t);
+      enqueue(Log.DEBUG, t, format, argsKind(args), args, 0, 0, 0);
+    }
+  }
+
+  public void i(final String message) {
+    if (isLoggable(Log.INFO)) {
+      enqueue(Log.INFO, null, message, LogRing.ARGS_NONE, null, 0, 0, 0);
+    }
+  }
+
+  public void i(final String format, final long arg) {
+    if (isLoggable(Log.INFO)) {
+      enqueue(Log.INFO, null, format, LogRing.ARGS_LONG, null, arg, 0, 0);
+    }
+  }
+
+  public void i(final String format, final long first, final long second) {
+    if (isLoggable(Log.INFO)) {
+      enqueue(Log.INFO, null, format, LogRing.ARGS_LONG_LONG, null, first, second, 0);
+    }
+  }
+
+  public void i(final String format, final double arg) {
+    if (isLoggable(Log.INFO)) {
+      enqueue(Log.INFO, null, format, LogRing.ARGS_DOUBLE, null, 0, 0, arg);
     }
   }
 
   public void i(final String format, final Object... args) {
     if (isLoggable(Log.INFO)) {
-      Log.i(tag, toMessage(format, args));
+      enqueue(Log.INFO, null, format, argsKind(args), args, 0, 0, 0);
     }
   }
 
   public void i(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.INFO)) {
-      Log.i(tag, toMessage(format, args), t);
+      enqueue(Log.INFO, t, format, argsKind(args), args, 0, 0, 0);
+    }
+  }
+
+  public void w(final String message) {
+    if (isLoggable(Log.WARN)) {
+      enqueue(Log.WARN, null, message, LogRing.ARGS_NONE, null, 0, 0, 0);
+    }
+  }
+
+  public void w(final String format, final long arg) {
+    if (isLoggable(Log.WARN)) {
+      enqueue(Log.WARN, null, format, LogRing.ARGS_LONG, null, arg, 0, 0);
+    }
+  }
+
+  public void w(final String format, final long first, final long second) {
+    if (isLoggable(Log.WARN)) {
+      enqueue(Log.WARN, null, format, LogRing.ARGS_LONG_LONG, null, first, second, 0);
+    }
+  }
+
+  public void w(final String format, final double arg) {
+    if (isLoggable(Log.WARN)) {
+      enqueue(Log.WARN, null, format, LogRing.ARGS_DOUBLE, null, 0, 0, arg);
     }
   }
 
   public void w(final String format, final Object... args) {
     if (isLoggable(Log.WARN)) {
-      Log.w(tag, toMessage(format, args));
+      enqueue(Log.WARN, null, format, argsKind(args), args, 0, 0, 0);
     }
   }
 
   public void w(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.WARN)) {
-      Log.w(tag, toMessage(format, args), t);
+      enqueue(Log.WARN, t, format, argsKind(args), args, 0, 0, 0);
+    }
+  }
+
+  public void e(final String message) {
+    if (isLoggable(Log.ERROR)) {
+      enqueue(Log.ERROR, null, message, LogRing.ARGS_NONE, null, 0, 0, 0);
+    }
+  }
+
+  public void e(final String format, final long arg) {
+    if (isLoggable(Log.ERROR)) {
+      enqueue(Log.ERROR, null, format, LogRing.ARGS_LONG, null, arg, 0, 0);
+    }
+  }
+
+  public void e(final String format, final long first, final long second) {
+    if (isLoggable(Log.ERROR)) {
+      enqueue(Log.ERROR, null, format, LogRing.ARGS_LONG_LONG, null, first, second, 0);
+    }
+  }
+
+  public void e(final String format, final double arg) {
+    if (isLoggable(Log.ERROR)) {
+      enqueue(Log.ERROR, null, format, LogRing.ARGS_DOUBLE, null, 0, 0, arg);
     }
   }
 
   public void e(final String format, final Object... args) {
     if (isLoggable(Log.ERROR)) {
-      Log.e(tag, toMessage(format, args));
+      enqueue(Log.ERROR, null, format, argsKind(args), args, 0, 0, 0);
     }
   }
 
   public void e(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.ERROR)) {
-      Log.e(tag, toMessage(format, args), t);
+      enqueue(Log.ERROR, t, format, argsKind(args), args, 0, 0, 0);
     }
   }
+
+  private static int argsKind(final Object[] args) {
+    return args.length > 0 ? LogRing.ARGS_OBJECTS : LogRing.ARGS_NONE;
+  }
 }
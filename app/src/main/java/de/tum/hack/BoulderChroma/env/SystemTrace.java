@@ -0,0 +1,114 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.env;
+
+import android.os.Build;
+import android.os.Trace;
+import de.tum.hack.BoulderChroma.metrics.FrameTrace;
+import java.lang.reflect.Method;
+
+/**
+ * Writes {@link FrameTrace} sections to the Android system trace. Asynchronous sections are public
+ * API only from Android 10 on; before that, the hidden methods of {@link Trace} that the framework
+ * uses itself are called through reflection, as {@code TraceCompat} of newer AndroidX versions
+ * does.
+ */
+public final class SystemTrace implements FrameTrace.Backend {
+  private static final Logger LOGGER = new Logger();
+
+  // Trace.TRACE_TAG_APP, the tag sections of apps are written with.
+  private static final long TRACE_TAG_APP = 1L << 12;
+
+  // The hidden methods before Android 10, null from then on or if they are missing.
+  private final Method isTagEnabled;
+  private final Method asyncBegin;
+  private final Method asyncEnd;
+  private final Object[] isTagEnabledArgs = {TRACE_TAG_APP};
+
+  public SystemTrace() {
+    Method enabled = null;
+    Method begin = null;
+    Method end = null;
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+      try {
+        enabled = Trace.class.getMethod("isTagEnabled", long.class);
+        begin = Trace.class.getMethod("asyncTraceBegin", long.class, String.class, int.class);
+        end = Trace.class.getMethod("asyncTraceEnd", long.class, String.class, int.class);
+      } catch (final NoSuchMethodException e) {
+        LOGGER.w(e, "Asynchronous trace sections are not available");
+        enabled = null;
+        begin = null;
+        end = null;
+      }
+    }
+    isTagEnabled = enabled;
+    asyncBegin = begin;
+    asyncEnd = end;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      return Trace.isEnabled();
+    }
+    if (isTagEnabled == null) {
+      return false;
+    }
+    try {
+      return (Boolean) isTagEnabled.invoke(null, isTagEnabledArgs);
+    } catch (final Exception e) {
+      return false;
+    }
+  }
+
+  @Override
+  public void beginSection(final String name) {
+    Trace.beginSection(name);
+  }
+
+  @Override
+  public void endSection() {
+    Trace.endSection();
+  }
+
+  @Override
+  public void beginAsyncSection(final String name, final int cookie) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      Trace.beginAsyncSection(name, cookie);
+    } else {
+      invokeHidden(asyncBegin, name, cookie);
+    }
+  }
+
+  @Override
+  public void endAsyncSection(final String name, final int cookie) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      Trace.endAsyncSection(name, cookie);
+    } else {
+      invokeHidden(asyncEnd, name, cookie);
+    }
+  }
+
+  private static void invokeHidden(final Method method, final String name, final int cookie) {
+    if (method == null) {
+      return;
+    }
+    try {
+      method.invoke(null, TRACE_TAG_APP, name, cookie);
+    } catch (final Exception e) {
+      // Tracing must never break the pipeline.
+    }
+  }
+}
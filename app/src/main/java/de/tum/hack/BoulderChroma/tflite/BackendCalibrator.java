@@ -0,0 +1,228 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.tflite;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.SystemClock;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+
+import de.tum.hack.BoulderChroma.env.Logger;
+
+/**
+ * Finds the fastest interpreter configuration for this device by timing the model on a synthetic
+ * input. The result is stored per device and model, so the benchmark only runs again when either
+ * changes.
+ */
+public class BackendCalibrator {
+  private static final Logger LOGGER = new Logger();
+
+  private static final String PREFERENCES_NAME = "backend_calibration";
+  // The UI thread control does not go beyond this.
+  private static final int MAX_THREADS = 8;
+  // Untimed runs per configuration, to exclude one-time setup from the measurement.
+  private static final int WARMUP_RUNS = 2;
+  private static final int TIMED_RUNS = 5;
+
+  private final Context context;
+  private final String modelFilename;
+  // The model file in storage, or null for the asset named modelFilename.
+  private final File modelFile;
+  private final int inputSize;
+
+  /** Calibrates for the model bundled in the assets under {@code modelFilename}. */
+  public BackendCalibrator(final Context context, final String modelFilename, final int inputSize) {
+    this(context, modelFilename, null, inputSize);
+  }
+
+  /** Calibrates for a model file in storage, e.g. an updated model. */
+  public BackendCalibrator(final Context context, final File modelFile, final int inputSize) {
+    this(context, modelFile.getPath(), modelFile, inputSize);
+  }
+
+  private BackendCalibrator(
+      final Context context,
+      final String modelFilename,
+      final File modelFile,
+      final int inputSize) {
+    this.context = context;
+    this.modelFilename = modelFilename;
+    this.modelFile = modelFile;
+    this.inputSize = inputSize;
+  }
+
+  /**
+   * Returns the stored configuration for the current device and model, running the benchmark
+   * first if there is none. Blocks for several seconds on the first launch, so call it off the UI
+   * thread.
+   */
+  public BackendConfig loadOrCalibrate() throws IOException {
+    final MappedByteBuffer model =
+        modelFile != null
+            ? TFLiteObjectDetectionAPIModel.loadModelFile(modelFile)
+            : TFLiteObjectDetectionAPIModel.loadModelFile(context.getAssets(), modelFilename);
+    final String key = preferenceKey(model);
+    final SharedPreferences preferences =
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+
+    final BackendConfig stored = BackendConfig.parse(preferences.getString(key, null));
+    if (stored != null) {
+      LOGGER.i("Using calibrated backend %s", stored);
+      return stored;
+    }
+
+    final BackendConfig best = calibrate(model);
+    final SharedPreferences.Editor editor = preferences.edit();
+    // Results for an older version of this model are obsolete now.
+    for (final String oldKey : preferences.getAll().keySet()) {
+      if (oldKey.startsWith(keyPrefix())) {
+        editor.remove(oldKey);
+      }
+    }
+    editor.putString(key, best.serialize()).apply();
+    return best;
+  }
+
+  private String keyPrefix() {
+    return Build.FINGERPRINT + "/" + modelFilename + "/";
+  }
+
+  /** Identifies the device and the exact model contents. */
+  private String preferenceKey(final MappedByteBuffer model) {
+    final CRC32 crc = new CRC32();
+    final ByteBuffer contents = model.duplicate();
+    contents.rewind();
+    final byte[] chunk = new byte[64 * 1024];
+    while (contents.hasRemaining()) {
+      final int length = Math.min(chunk.length, contents.remaining());
+      contents.get(chunk, 0, length);
+      crc.update(chunk, 0, length);
+    }
+    return keyPrefix()
+        + model.capacity()
+        + "/" + Long.toHexString(crc.getValue())
+        + "/" + inputSize;
+  }
+
+  private List<BackendConfig> candidates() {
+    final List<BackendConfig> configs = new ArrayList<>();
+    final int maxThreads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+    for (int threads = 1; threads <= maxThreads; ++threads) {
+      configs.add(new BackendConfig(threads, false, false));
+      configs.add(new BackendConfig(threads, true, false));
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+      configs.add(new BackendConfig(1, false, true));
+    }
+    return configs;
+  }
+
+  private BackendConfig calibrate(final MappedByteBuffer model) {
+    LOGGER.i("Calibrating backend for %s on %s", modelFilename, Build.MODEL);
+    BackendConfig best = null;
+    long bestNanos = Long.MAX_VALUE;
+    for (final BackendConfig config : candidates()) {
+      final long nanos;
+      try {
+        nanos = time(model, config);
+      } catch (final RuntimeException e) {
+        // Delegates are not available on every device.
+        LOGGER.w(e, "Backend %s failed", config);
+        continue;
+      }
+      LOGGER.i("Backend %s: %.1fms", config, nanos / 1e6f);
+      if (nanos < bestNanos) {
+        bestNanos = nanos;
+        best = config;
+      }
+    }
+    if (best == null) {
+      best = new BackendConfig(1, false, false);
+    }
+    LOGGER.i("Fastest backend is %s", best);
+    return best;
+  }
+
+  /** Returns the median time of one inference with the given configuration. */
+  private long time(final MappedByteBuffer model, final BackendConfig config) {
+    final Interpreter.Options options = new Interpreter.Options();
+    options.setNumThreads(config.numThreads);
+    options.setUseXNNPACK(config.useXnnpack);
+    options.setUseNNAPI(config.useNnapi);
+
+    final Interpreter interpreter = new Interpreter(model, options);
+    try {
+      interpreter.resizeInput(0, new int[] {1, inputSize, inputSize, 3});
+      interpreter.allocateTensors();
+
+      final ByteBuffer input = ByteBuffer.allocateDirect(interpreter.getInputTensor(0).numBytes());
+      input.order(ByteOrder.nativeOrder());
+      fillWithNoise(input, interpreter.getInputTensor(0).dataType());
+      final ByteBuffer output =
+          ByteBuffer.allocateDirect(interpreter.getOutputTensor(0).numBytes());
+      output.order(ByteOrder.nativeOrder());
+
+      for (int i = 0; i < WARMUP_RUNS; ++i) {
+        run(interpreter, input, output);
+      }
+      final long[] nanos = new long[TIMED_RUNS];
+      for (int i = 0; i < TIMED_RUNS; ++i) {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        run(interpreter, input, output);
+        nanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+      }
+      Arrays.sort(nanos);
+      return nanos[TIMED_RUNS / 2];
+    } finally {
+      interpreter.close();
+    }
+  }
+
+  /** Fills the input with pixel-like values, avoiding NaNs and denormals in float inputs. */
+  private static void fillWithNoise(final ByteBuffer input, final DataType dataType) {
+    final Random random = new Random(0);
+    input.rewind();
+    if (dataType == DataType.FLOAT32) {
+      while (input.remaining() >= 4) {
+        input.putFloat(random.nextInt(256));
+      }
+    } else {
+      while (input.hasRemaining()) {
+        input.put((byte) random.nextInt(256));
+      }
+    }
+  }
+
+  private static void run(
+      final Interpreter interpreter, final ByteBuffer input, final ByteBuffer output) {
+    input.rewind();
+    output.rewind();
+    interpreter.run(input, output);
+  }
+}
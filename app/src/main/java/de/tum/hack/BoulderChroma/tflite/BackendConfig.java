@@ -0,0 +1,68 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.tflite;
+
+/** An immutable interpreter configuration: thread count and which delegate to use, if any. */
+public final class BackendConfig {
+  public final int numThreads;
+  public final boolean useXnnpack;
+  public final boolean useNnapi;
+
+  public BackendConfig(final int numThreads, final boolean useXnnpack, final boolean useNnapi) {
+    this.numThreads = numThreads;
+    this.useXnnpack = useXnnpack;
+    this.useNnapi = useNnapi;
+  }
+
+  /** Applies this configuration to a classifier. */
+  public void applyTo(final Classifier classifier) {
+    classifier.setNumThreads(numThreads);
+    classifier.setUseXNNPACK(useXnnpack);
+    classifier.setUseNNAPI(useNnapi);
+  }
+
+  /** Returns a compact form suitable for storing in preferences, see {@link #parse}. */
+  public String serialize() {
+    return numThreads + "," + useXnnpack + "," + useNnapi;
+  }
+
+  /** Parses the output of {@link #serialize}, returning null if the string is malformed. */
+  public static BackendConfig parse(final String serialized) {
+    if (serialized == null) {
+      return null;
+    }
+    final String[] parts = serialized.split(",");
+    if (parts.length != 3) {
+      return null;
+    }
+    try {
+      return new BackendConfig(
+          Integer.parseInt(parts[0]),
+          Boolean.parseBoolean(parts[1]),
+          Boolean.parseBoolean(parts[2]));
+    } catch (final NumberFormatException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    if (useNnapi) {
+      return "NNAPI";
+    }
+    return (useXnnpack ? "XNNPACK" : "CPU") + " x" + numThreads;
+  }
+}
@@ -0,0 +1,270 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.tflite;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Trace;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.tum.hack.BoulderChroma.metrics.LatencyStats;
+
+/**
+ * A two-stage detector. A proposer running at a low input resolution finds hold boxes, and a
+ * {@link Labeler} decides the color of the proposed boxes only, all boxes of a frame at once.
+ *
+ * <p>A confident proposal that matches a box labelled in one of the previous frames keeps that
+ * label without running the second stage. Labels are refreshed after {@link #MAX_LABEL_AGE}
+ * frames so that a wrong label does not stick.
+ *
+ * <p>Locations are returned in pixels of the input image, like the single-stage model.
+ */
+public class CascadeClassifier implements Classifier {
+  /** Labels the proposals of one image. */
+  public interface Labeler {
+    /**
+     * Returns one labelled recognition per proposal, in the same order.
+     *
+     * @param proposals boxes in pixels of {@code image}
+     */
+    List<Recognition> label(Bitmap image, List<Recognition> proposals);
+  }
+
+  // Proposals must be at least this confident to reuse the label of a matching previous box.
+  private static final float REUSE_CONFIDENCE = 0.6f;
+  private static final float REUSE_IOU = 0.5f;
+  private static final int MAX_LABEL_AGE = 10;
+
+  private static class Labelled {
+    final Recognition recognition;
+    final int age;
+
+    Labelled(final Recognition recognition, final int age) {
+      this.recognition = recognition;
+      this.age = age;
+    }
+  }
+
+  private final Classifier proposer;
+  private final Labeler labeler;
+  private final float minimumConfidence;
+  private int inputSize;
+
+  // Per image of a batch, the boxes labelled in the previous frame.
+  private final List<List<Labelled>> previous = new ArrayList<>();
+  private final List<Bitmap> proposalBitmaps = new ArrayList<>();
+  private final Canvas proposalCanvas = new Canvas();
+  private final Matrix scaleTransform = new Matrix();
+  private final Paint scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+  /**
+   * @param proposer detector run on the image scaled down to its input size
+   * @param minimumConfidence proposals below this are dropped before labelling
+   * @param inputSize size of the square images passed to this classifier
+   */
+  public CascadeClassifier(
+      final Classifier proposer,
+      final Labeler labeler,
+      final float minimumConfidence,
+      final int inputSize) {
+    this.proposer = proposer;
+    this.labeler = labeler;
+    this.minimumConfidence = minimumConfidence;
+    this.inputSize = inputSize;
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    return recognizeImages(Collections.singletonList(bitmap)).get(0);
+  }
+
+  @Override
+  public synchronized List<List<Recognition>> recognizeImages(final List<Bitmap> bitmaps) {
+    Trace.beginSection("cascade");
+    final int proposalSize = proposer.getInputSize();
+    while (proposalBitmaps.size() < bitmaps.size()) {
+      proposalBitmaps.add(null);
+      previous.add(Collections.<Labelled>emptyList());
+    }
+
+    final List<Bitmap> scaled = new ArrayList<>(bitmaps.size());
+    for (int i = 0; i < bitmaps.size(); ++i) {
+      Bitmap proposalBitmap = proposalBitmaps.get(i);
+      if (proposalBitmap == null || proposalBitmap.getWidth() != proposalSize) {
+        proposalBitmap = Bitmap.createBitmap(proposalSize, proposalSize, Bitmap.Config.ARGB_8888);
+        proposalBitmaps.set(i, proposalBitmap);
+      }
+      final Bitmap bitmap = bitmaps.get(i);
+      scaleTransform.setScale(
+          (float) proposalSize / bitmap.getWidth(), (float) proposalSize / bitmap.getHeight());
+      proposalCanvas.setBitmap(proposalBitmap);
+      proposalCanvas.drawBitmap(bitmap, scaleTransform, scalePaint);
+      scaled.add(proposalBitmap);
+    }
+    proposalCanvas.setBitmap(null);
+
+    Trace.beginSection("propose");
+    final List<List<Recognition>> proposals = proposer.recognizeImages(scaled);
+    Trace.endSection();
+
+    final List<List<Recognition>> results = new ArrayList<>(bitmaps.size());
+    for (int i = 0; i < bitmaps.size(); ++i) {
+      final Bitmap bitmap = bitmaps.get(i);
+      results.add(
+          label(
+              bitmap,
+              proposals.get(i),
+              (float) bitmap.getWidth() / proposalSize,
+              (float) bitmap.getHeight() / proposalSize,
+              i));
+    }
+    Trace.endSection();
+    return results;
+  }
+
+  private List<Recognition> label(
+      final Bitmap bitmap,
+      final List<Recognition> proposals,
+      final float scaleX,
+      final float scaleY,
+      final int index) {
+    final List<Labelled> known = previous.get(index);
+    final List<Labelled> labelled = new ArrayList<>(proposals.size());
+    final List<Recognition> unlabelled = new ArrayList<>();
+    for (final Recognition proposal : proposals) {
+      if (proposal.getConfidence() < minimumConfidence) {
+        continue;
+      }
+      final RectF location = proposal.getLocation();
+      location.left *= scaleX;
+      location.right *= scaleX;
+      location.top *= scaleY;
+      location.bottom *= scaleY;
+
+      final Labelled match =
+          proposal.getConfidence() >= REUSE_CONFIDENCE ? findMatch(known, location) : null;
+      if (match != null && match.age < MAX_LABEL_AGE) {
+        final Recognition reused =
+            new Recognition(
+                match.recognition.getId(),
+                match.recognition.getTitle(),
+                proposal.getConfidence(),
+                location);
+        reused.setColor(match.recognition.getColor());
+        labelled.add(new Labelled(reused, match.age + 1));
+      } else {
+        unlabelled.add(
+            new Recognition(
+                proposal.getId(), proposal.getTitle(), proposal.getConfidence(), location));
+      }
+    }
+
+    if (!unlabelled.isEmpty()) {
+      Trace.beginSection("label");
+      for (final Recognition recognition : labeler.label(bitmap, unlabelled)) {
+        labelled.add(new Labelled(recognition, 0));
+      }
+      Trace.endSection();
+    }
+    previous.set(index, labelled);
+
+    final List<Recognition> results = new ArrayList<>(labelled.size());
+    for (final Labelled entry : labelled) {
+      results.add(entry.recognition);
+    }
+    return results;
+  }
+
+  private static Labelled findMatch(final List<Labelled> known, final RectF location) {
+    Labelled best = null;
+    float bestIou = REUSE_IOU;
+    for (final Labelled candidate : known) {
+      final float iou = iou(candidate.recognition.getLocation(), location);
+      if (iou > bestIou) {
+        bestIou = iou;
+        best = candidate;
+      }
+    }
+    return best;
+  }
+
+  private static float iou(final RectF a, final RectF b) {
+    final float width = Math.min(a.right, b.right) - Math.max(a.left, b.left);
+    final float height = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top);
+    if (width <= 0 || height <= 0) {
+      return 0;
+    }
+    final float intersection = width * height;
+    return intersection / (a.width() * a.height() + b.width() * b.height() - intersection);
+  }
+
+  @Override
+  public void enableStatLogging(final boolean debug) {
+    proposer.enableStatLogging(debug);
+  }
+
+  @Override
+  public String getStatString() {
+    return proposer.getStatString();
+  }
+
+  @Override
+  public void close() {
+    proposer.close();
+  }
+
+  @Override
+  public void setNumThreads(final int num_threads) {
+    proposer.setNumThreads(num_threads);
+  }
+
+  @Override
+  public void setUseNNAPI(final boolean isChecked) {
+    proposer.setUseNNAPI(isChecked);
+  }
+
+  @Override
+  public void setUseXNNPACK(final boolean isChecked) {
+    proposer.setUseXNNPACK(isChecked);
+  }
+
+  /** Only the proposer is timed. */
+  @Override
+  public void setLatencyStats(final LatencyStats stats) {
+    proposer.setLatencyStats(stats);
+  }
+
+  /** Sets the size of the images passed in; the proposer keeps its own input size. */
+  @Override
+  public synchronized void setInputSize(final int inputSize) {
+    this.inputSize = inputSize;
+  }
+
+  @Override
+  public synchronized int getInputSize() {
+    return inputSize;
+  }
+
+  @Override
+  public void warmUp() {
+    proposer.warmUp();
+  }
+}
@@ -19,10 +19,15 @@ import android.graphics.Bitmap;
 import android.graphics.RectF;
 import java.util.List;
 
+import de.tum.hack.BoulderChroma.metrics.LatencyStats;
+
 /** Generic interface for interacting with different recognition engines. */
 public interface Classifier {
   List<Recognition> recognizeImage(Bitmap bitmap);
 
+  /** Recognizes several images, e.g. tiles of one frame, returning one result list per image. */
+  List<List<Recognition>> recognizeImages(List<Bitmap> bitmaps);
+
   void enableStatLogging(final boolean debug);
 
   String getStatString();
@@ -33,6 +38,22 @@ public interface Classifier {
 
   void setUseNNAPI(boolean isChecked);
 
+  void setUseXNNPACK(boolean isChecked);
+
+  /** Changes the square input resolution of the model, reallocating buffers if necessary. */
+  void setInputSize(int inputSize);
+
+  int getInputSize();
+
+  /** Runs the model once on dummy data so the first real inference runs at full speed. */
+  void warmUp();
+
+  /**
+   * Makes the classifier record the time it spends encoding its input, running the model and
+   * decoding the output into {@code stats}; null stops recording.
+   */
+  void setLatencyStats(LatencyStats stats);
+
   /** An immutable result returned by a Classifier describing what was recognized. */
   public class Recognition {
     /**
@@ -62,6 +83,24 @@ public interface Classifier {
       this.location = location;
     }
 
+    /** Wraps a box decoded by the core detection code. */
+    public static Recognition of(final DetectedBox box) {
+      return new Recognition(
+          box.id, box.title, box.confidence, new RectF(box.left, box.top, box.right, box.bottom));
+    }
+
+    /** The plain Java form of this recognition, for the core detection code. */
+    public DetectedBox toDetectedBox() {
+      return new DetectedBox(
+          id,
+          title,
+          confidence != null ? confidence : 0f,
+          location.left,
+          location.top,
+          location.right,
+          location.bottom);
+    }
+
     public String getId() {
       return id;
     }
@@ -105,7 +144,7 @@ public interface Classifier {
         resultString += location + " ";
       }
 
-      if (color > 0) {
+      if (color != 0) {
         resultString += String.format("Color: %x", this.color);
       }
 
@@ -0,0 +1,62 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.tflite;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import de.tum.hack.BoulderChroma.color.HoldColorClassifier;
+import de.tum.hack.BoulderChroma.color.HoldPalette;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Second stage of a {@link CascadeClassifier} that labels each box with its dominant hold color.
+ * The pixels of the image are read once per call, however many boxes there are.
+ */
+public class HoldColorLabeler implements CascadeClassifier.Labeler {
+  private final HoldColorClassifier colorClassifier = new HoldColorClassifier();
+  private int[] pixels;
+
+  @Override
+  public synchronized List<Classifier.Recognition> label(
+      final Bitmap image, final List<Classifier.Recognition> proposals) {
+    final int width = image.getWidth();
+    final int height = image.getHeight();
+    if (pixels == null || pixels.length != width * height) {
+      pixels = new int[width * height];
+    }
+    image.getPixels(pixels, 0, width, 0, 0, width, height);
+
+    final List<Classifier.Recognition> labelled = new ArrayList<>(proposals.size());
+    for (final Classifier.Recognition proposal : proposals) {
+      final RectF box = proposal.getLocation();
+      final int color =
+          colorClassifier.classify(
+              pixels, width, height, box.left, box.top, box.right, box.bottom);
+      if (color < 0) {
+        // Outside the image; keep whatever the proposer guessed.
+        labelled.add(proposal);
+        continue;
+      }
+      final Classifier.Recognition recognition =
+          new Classifier.Recognition(
+              Integer.toString(color), HoldPalette.getName(color), proposal.getConfidence(), box);
+      recognition.setColor(HoldPalette.getDisplayColor(color));
+      labelled.add(recognition);
+    }
+    return labelled;
+  }
+}
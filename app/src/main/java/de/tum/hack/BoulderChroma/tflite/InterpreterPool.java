@@ -0,0 +1,267 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.tflite;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import de.tum.hack.BoulderChroma.env.Logger;
+import de.tum.hack.BoulderChroma.metrics.LatencyStats;
+
+/**
+ * A pool of interpreters sharing one memory-mapped model, so that several frames (or tiles) can be
+ * run through the model concurrently. Each pooled interpreter owns its own input and output
+ * buffers. {@link #recognizeImage} may be called from multiple threads; it blocks until an
+ * interpreter is free. Reconfiguration waits for all running inferences to finish. Once the pool
+ * is closed, every call throws an {@link IllegalStateException}, including those already waiting.
+ */
+public class InterpreterPool implements Classifier {
+  private static final Logger LOGGER = new Logger();
+  // How often a call waiting for an interpreter checks whether the pool was closed meanwhile.
+  private static final long CLOSED_CHECK_MS = 100;
+
+  private final List<TFLiteObjectDetectionAPIModel> models;
+  private final BlockingQueue<TFLiteObjectDetectionAPIModel> idleModels;
+  private volatile int inputSize;
+  private volatile boolean closed = false;
+
+  private InterpreterPool(final List<TFLiteObjectDetectionAPIModel> models) {
+    this.models = models;
+    this.idleModels = new ArrayBlockingQueue<>(models.size(), false, models);
+    this.inputSize = models.get(0).getInputSize();
+  }
+
+  /**
+   * Memory-maps the model once and creates {@code poolSize} interpreters on it.
+   *
+   * @param poolSize the number of inferences that can run at the same time
+   */
+  public static InterpreterPool create(
+      final AssetManager assetManager,
+      final String modelFilename,
+      final String labelFilename,
+      final int inputSize,
+      final boolean isQuantized,
+      final int poolSize)
+      throws IOException {
+    return create(
+        TFLiteObjectDetectionAPIModel.loadModelFile(assetManager, modelFilename),
+        TFLiteObjectDetectionAPIModel.loadLabels(assetManager, labelFilename),
+        inputSize,
+        isQuantized,
+        poolSize);
+  }
+
+  /**
+   * Like {@link #create(AssetManager, String, String, int, boolean, int)}, but maps the model from
+   * a file in app storage, e.g. a newer model downloaded after installation. Labels still come
+   * from the assets.
+   */
+  public static InterpreterPool create(
+      final File modelFile,
+      final AssetManager assetManager,
+      final String labelFilename,
+      final int inputSize,
+      final boolean isQuantized,
+      final int poolSize)
+      throws IOException {
+    return create(
+        TFLiteObjectDetectionAPIModel.loadModelFile(modelFile),
+        TFLiteObjectDetectionAPIModel.loadLabels(assetManager, labelFilename),
+        inputSize,
+        isQuantized,
+        poolSize);
+  }
+
+  private static InterpreterPool create(
+      final MappedByteBuffer model,
+      final Vector<String> labels,
+      final int inputSize,
+      final boolean isQuantized,
+      final int poolSize) {
+    if (poolSize < 1) {
+      throw new IllegalArgumentException("Pool size must be at least 1: " + poolSize);
+    }
+    final List<TFLiteObjectDetectionAPIModel> models = new ArrayList<>(poolSize);
+    for (int i = 0; i < poolSize; ++i) {
+      models.add(TFLiteObjectDetectionAPIModel.create(model, labels, inputSize, isQuantized));
+    }
+    LOGGER.i("Created pool of %d interpreters", poolSize);
+    return new InterpreterPool(models);
+  }
+
+  public int getPoolSize() {
+    return models.size();
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    final TFLiteObjectDetectionAPIModel model = acquire();
+    try {
+      return model.recognizeImage(bitmap);
+    } finally {
+      idleModels.add(model);
+    }
+  }
+
+  /** Runs the bitmaps as one batch on a single interpreter. */
+  @Override
+  public List<List<Recognition>> recognizeImages(final List<Bitmap> bitmaps) {
+    final TFLiteObjectDetectionAPIModel model = acquire();
+    try {
+      return model.recognizeImages(bitmaps);
+    } finally {
+      idleModels.add(model);
+    }
+  }
+
+  private TFLiteObjectDetectionAPIModel acquire() {
+    try {
+      while (!closed) {
+        final TFLiteObjectDetectionAPIModel model =
+            idleModels.poll(CLOSED_CHECK_MS, TimeUnit.MILLISECONDS);
+        if (model == null) {
+          continue;
+        }
+        if (closed) {
+          // close() is waiting for this interpreter.
+          idleModels.add(model);
+          break;
+        }
+        return model;
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for an interpreter", e);
+    }
+    throw new IllegalStateException("Interpreter pool is closed");
+  }
+
+  /**
+   * Takes every interpreter out of the pool, waiting for running inferences to finish, so that
+   * they can be reconfigured safely.
+   */
+  private List<TFLiteObjectDetectionAPIModel> acquireAll() {
+    final List<TFLiteObjectDetectionAPIModel> all = new ArrayList<>(models.size());
+    for (int i = 0; i < models.size(); ++i) {
+      all.add(acquire());
+    }
+    return all;
+  }
+
+  @Override
+  public synchronized void warmUp() {
+    final List<TFLiteObjectDetectionAPIModel> all = acquireAll();
+    for (final TFLiteObjectDetectionAPIModel model : all) {
+      model.warmUp();
+    }
+    idleModels.addAll(all);
+  }
+
+  @Override
+  public void enableStatLogging(final boolean debug) {}
+
+  @Override
+  public String getStatString() {
+    return "";
+  }
+
+  /**
+   * Waits for running inferences and closes all interpreters. Interpreters are not returned to
+   * the pool, so the pool cannot be used afterwards.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      for (int i = 0; i < models.size(); ++i) {
+        idleModels.take().close();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOGGER.w("Interrupted while closing the interpreter pool");
+    }
+  }
+
+  /**
+   * Distributes the thread budget over the pooled interpreters, so that running all of them at
+   * once uses roughly {@code num_threads} cores in total.
+   */
+  @Override
+  public synchronized void setNumThreads(final int num_threads) {
+    final int perInterpreter = Math.max(1, num_threads / models.size());
+    final List<TFLiteObjectDetectionAPIModel> all = acquireAll();
+    for (final TFLiteObjectDetectionAPIModel model : all) {
+      model.setNumThreads(perInterpreter);
+    }
+    idleModels.addAll(all);
+  }
+
+  @Override
+  public synchronized void setUseNNAPI(final boolean isChecked) {
+    final List<TFLiteObjectDetectionAPIModel> all = acquireAll();
+    for (final TFLiteObjectDetectionAPIModel model : all) {
+      model.setUseNNAPI(isChecked);
+    }
+    idleModels.addAll(all);
+  }
+
+  @Override
+  public synchronized void setUseXNNPACK(final boolean isChecked) {
+    final List<TFLiteObjectDetectionAPIModel> all = acquireAll();
+    for (final TFLiteObjectDetectionAPIModel model : all) {
+      model.setUseXNNPACK(isChecked);
+    }
+    idleModels.addAll(all);
+  }
+
+  @Override
+  public void setLatencyStats(final LatencyStats stats) {
+    for (final TFLiteObjectDetectionAPIModel model : models) {
+      model.setLatencyStats(stats);
+    }
+  }
+
+  @Override
+  public synchronized void setInputSize(final int inputSize) {
+    if (inputSize == this.inputSize) {
+      return;
+    }
+    final List<TFLiteObjectDetectionAPIModel> all = acquireAll();
+    for (final TFLiteObjectDetectionAPIModel model : all) {
+      model.setInputSize(inputSize);
+    }
+    this.inputSize = inputSize;
+    idleModels.addAll(all);
+  }
+
+  @Override
+  public int getInputSize() {
+    return inputSize;
+  }
+}
@@ -0,0 +1,254 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.tflite;
+
+import android.graphics.Bitmap;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import de.tum.hack.BoulderChroma.metrics.LatencyStats;
+
+/**
+ * A reference-counted handle to a classifier owned by {@link ModelManager}. The underlying
+ * classifier can be replaced while the handle is in use; callers keep using the same handle and
+ * never see a closed classifier.
+ *
+ * <p>{@link #close()} releases one reference. The underlying classifier is closed when the last
+ * reference is released.
+ */
+public class ManagedClassifier implements Classifier {
+  private final ModelManager manager;
+  private final String key;
+  // Inferences hold the read lock, so several can run at once; swapping takes the write lock.
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private Classifier delegate;
+  private int references = 0;
+
+  // Settings applied through this handle, replayed on a swapped-in classifier.
+  private Integer numThreads;
+  private Boolean useNNAPI;
+  private Boolean useXNNPACK;
+  private Integer inputSize;
+  private LatencyStats latencyStats;
+  private int settingsVersion = 0;
+
+  ManagedClassifier(final ModelManager manager, final String key, final Classifier delegate) {
+    this.manager = manager;
+    this.key = key;
+    this.delegate = delegate;
+  }
+
+  String getKey() {
+    return key;
+  }
+
+  /** Only called by the manager, which serializes reference changes. */
+  int addReference(final int delta) {
+    references += delta;
+    return references;
+  }
+
+  /**
+   * Replaces the underlying classifier, applying the settings made so far. Waits for running
+   * inferences to finish, then closes the previous classifier.
+   */
+  void swap(final Classifier replacement) {
+    // Prepare the replacement without blocking inference on the current classifier.
+    final int appliedVersion;
+    lock.readLock().lock();
+    try {
+      applySettings(replacement);
+      appliedVersion = settingsVersion;
+    } finally {
+      lock.readLock().unlock();
+    }
+    replacement.warmUp();
+
+    final Classifier previous;
+    lock.writeLock().lock();
+    try {
+      if (settingsVersion != appliedVersion) {
+        applySettings(replacement);
+      }
+      previous = delegate;
+      delegate = replacement;
+    } finally {
+      lock.writeLock().unlock();
+    }
+    previous.close();
+  }
+
+  private void applySettings(final Classifier classifier) {
+    if (numThreads != null) {
+      classifier.setNumThreads(numThreads);
+    }
+    if (useNNAPI != null) {
+      classifier.setUseNNAPI(useNNAPI);
+    }
+    if (useXNNPACK != null) {
+      classifier.setUseXNNPACK(useXNNPACK);
+    }
+    if (inputSize != null) {
+      classifier.setInputSize(inputSize);
+    }
+    classifier.setLatencyStats(latencyStats);
+  }
+
+  /** Closes the underlying classifier; called by the manager once no references are left. */
+  void closeDelegate() {
+    lock.writeLock().lock();
+    try {
+      delegate.close();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    lock.readLock().lock();
+    try {
+      return delegate.recognizeImage(bitmap);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<List<Recognition>> recognizeImages(final List<Bitmap> bitmaps) {
+    lock.readLock().lock();
+    try {
+      return delegate.recognizeImages(bitmaps);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void enableStatLogging(final boolean debug) {
+    lock.readLock().lock();
+    try {
+      delegate.enableStatLogging(debug);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public String getStatString() {
+    lock.readLock().lock();
+    try {
+      return delegate.getStatString();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Releases this reference; see the class comment. */
+  @Override
+  public void close() {
+    manager.release(this);
+  }
+
+  @Override
+  public void setNumThreads(final int num_threads) {
+    lock.writeLock().lock();
+    try {
+      numThreads = num_threads;
+      ++settingsVersion;
+      delegate.setNumThreads(num_threads);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void setUseNNAPI(final boolean isChecked) {
+    lock.writeLock().lock();
+    try {
+      useNNAPI = isChecked;
+      ++settingsVersion;
+      delegate.setUseNNAPI(isChecked);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void setUseXNNPACK(final boolean isChecked) {
+    lock.writeLock().lock();
+    try {
+      useXNNPACK = isChecked;
+      ++settingsVersion;
+      delegate.setUseXNNPACK(isChecked);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void setLatencyStats(final LatencyStats stats) {
+    lock.writeLock().lock();
+    try {
+      latencyStats = stats;
+      ++settingsVersion;
+      delegate.setLatencyStats(stats);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void setInputSize(final int inputSize) {
+    lock.readLock().lock();
+    try {
+      if (delegate.getInputSize() == inputSize) {
+        return;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    lock.writeLock().lock();
+    try {
+      this.inputSize = inputSize;
+      ++settingsVersion;
+      delegate.setInputSize(inputSize);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public int getInputSize() {
+    lock.readLock().lock();
+    try {
+      return delegate.getInputSize();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void warmUp() {
+    lock.readLock().lock();
+    try {
+      delegate.warmUp();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.tflite;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.tum.hack.BoulderChroma.env.Logger;
+
+/**
+ * Process-wide owner of loaded models. Activities acquire a {@link ManagedClassifier} for a model
+ * key and close it when they are done; the native interpreters are freed as soon as the last
+ * reference is closed, and a second acquire of a loaded model reuses it instead of mapping the
+ * file again.
+ */
+public final class ModelManager {
+  private static final Logger LOGGER = new Logger();
+
+  private static final ModelManager INSTANCE = new ModelManager();
+
+  /** Creates the classifier for a model key when it is not loaded yet, or to replace it. */
+  public interface Loader {
+    Classifier load() throws IOException;
+  }
+
+  private final Map<String, ManagedClassifier> models = new HashMap<>();
+  // Serializes swaps without blocking acquire/release while a replacement is loading.
+  private final Object swapLock = new Object();
+
+  private ModelManager() {}
+
+  public static ModelManager getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns a new reference to the model stored under {@code key}, loading it with {@code loader}
+   * if it is not loaded yet. Loading happens on the calling thread.
+   */
+  public ManagedClassifier acquire(final String key, final Loader loader) throws IOException {
+    synchronized (this) {
+      final ManagedClassifier loaded = models.get(key);
+      if (loaded != null) {
+        loaded.addReference(1);
+        LOGGER.i("Reusing loaded model %s", key);
+        return loaded;
+      }
+    }
+
+    // Load outside the lock; if another thread won the race, keep its model.
+    final Classifier classifier = loader.load();
+    synchronized (this) {
+      ManagedClassifier managed = models.get(key);
+      if (managed == null) {
+        managed = new ManagedClassifier(this, key, classifier);
+        models.put(key, managed);
+      } else {
+        classifier.close();
+      }
+      managed.addReference(1);
+      return managed;
+    }
+  }
+
+  void release(final ManagedClassifier managed) {
+    synchronized (this) {
+      if (models.get(managed.getKey()) != managed) {
+        LOGGER.w("Model %s released more often than acquired", managed.getKey());
+        return;
+      }
+      if (managed.addReference(-1) > 0) {
+        return;
+      }
+      models.remove(managed.getKey());
+    }
+    LOGGER.i("Closing model %s", managed.getKey());
+    managed.closeDelegate();
+  }
+
+  /**
+   * Loads a replacement for the model stored under {@code key} and swaps it in. Users of the model
+   * keep their handles; inferences started before the swap finish on the old model, which is then
+   * closed. Does nothing if the model is not loaded.
+   *
+   * @return true if the model was replaced
+   */
+  public boolean swap(final String key, final Loader loader) throws IOException {
+    synchronized (swapLock) {
+      final ManagedClassifier managed;
+      synchronized (this) {
+        managed = models.get(key);
+        if (managed == null) {
+          return false;
+        }
+        // Keep the model alive while the replacement loads.
+        managed.addReference(1);
+      }
+      try {
+        managed.swap(loader.load());
+        LOGGER.i("Swapped in new version of model %s", key);
+        return true;
+      } finally {
+        release(managed);
+      }
+    }
+  }
+}
@@ -18,11 +18,10 @@ package de.tum.hack.BoulderChroma.tflite;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.Point;
-import android.graphics.RectF;
 import android.os.Trace;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -32,6 +31,7 @@ import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,8 +39,8 @@ import java.util.Vector;
 
 import org.tensorflow.lite.Interpreter;
 
-import de.tum.hack.BoulderChroma.env.ImageUtils;
 import de.tum.hack.BoulderChroma.env.Logger;
+import de.tum.hack.BoulderChroma.metrics.LatencyStats;
 
 /**
  * Wrapper for frozen detection models trained using the Tensorflow Object Detection API:
@@ -51,19 +51,29 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
 
     // Only return this many results.
     private static final int NUM_DETECTIONS = 60;
-    // Float model
-    private static final float IMAGE_MEAN = 128.0f;
-    private static final float IMAGE_STD = 128.0f;
+    // The network downsamples its input by this factor, so a 416 input yields a 13x13 grid.
+    private static final int GRID_STRIDE = 32;
+    // Anchor box sizes in grid cells, as used during training.
+    private static final double[] ANCHOR_X = {0.573, 1.87, 3.34, 7.88, 9.77};
+    private static final double[] ANCHOR_Y = {0.677, 2.06, 5.47, 3.53, 9.17};
+    // Values per grid cell: (x, y, w, h, objectness, class scores) for every anchor.
+    private static final int NUM_CHANNELS = 60;
+    // Boxes whose best class probability is not above this are dropped.
+    private static final double DETECTION_THRESHOLD = 0.05;
     // Number of threads in the java app
     private static final int NUM_THREADS = 4;
     private boolean isModelQuantized;
     // Config values.
     private int inputSize;
+    private int batchSize = 1;
+    private int gridSize;
+    private int numBytesPerChannel;
     // Pre-allocated buffers.
-    private Vector<String> labels = new Vector<String>();
+    private Vector<String> labels;
+    private YoloDecoder decoder;
     private int[] intValues;
-    // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
-    // contains the location of detected boxes
+    // outputLocations: array of shape [Batchsize, gridSize, gridSize, NUM_CHANNELS]
+    // contains the raw per-cell predictions of the network
     private float[][][][] outputLocations;
     // outputClasses: array of shape [Batchsize, NUM_DETECTIONS]
     // contains the classes of detected boxes
@@ -77,6 +87,12 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
 
     private ByteBuffer imgData;
 
+    // Where encode, inference and decode times go, if anywhere.
+    private volatile LatencyStats latencyStats;
+
+    // The memory-mapped model, possibly shared with other instances.
+    private MappedByteBuffer tfliteModel;
+    private final Interpreter.Options tfliteOptions = new Interpreter.Options();
     private Interpreter tfLite;
 
     private TFLiteObjectDetectionAPIModel() {
@@ -85,7 +101,7 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     /**
      * Memory-map the model file in Assets.
      */
-    private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
+    static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
             throws IOException {
         AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
         FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
@@ -95,6 +111,16 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
         return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
     }
 
+    /**
+     * Memory-map a model file from app storage. The mapping stays valid after the file is closed.
+     */
+    static MappedByteBuffer loadModelFile(File modelFile) throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(modelFile)) {
+            FileChannel fileChannel = inputStream.getChannel();
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        }
+    }
+
     /**
      * Initializes a native TensorFlow session for classifying images.
      *
@@ -111,8 +137,48 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
             final int inputSize,
             final boolean isQuantized)
             throws IOException {
+        return create(
+                loadModelFile(assetManager, modelFilename),
+                loadLabels(assetManager, labelFilename),
+                inputSize,
+                isQuantized);
+    }
+
+    /**
+     * Initializes an interpreter on an already loaded model. Several instances may share the same
+     * model buffer and labels; each gets its own interpreter and input/output buffers.
+     */
+    static TFLiteObjectDetectionAPIModel create(
+            final MappedByteBuffer model,
+            final Vector<String> labels,
+            final int inputSize,
+            final boolean isQuantized) {
         final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
+        d.labels = labels;
+        d.decoder = new YoloDecoder(ANCHOR_X, ANCHOR_Y, labels, DETECTION_THRESHOLD);
+        d.tfliteModel = model;
+        d.tfliteOptions.setNumThreads(NUM_THREADS);
+
+        try {
+            d.tfLite = new Interpreter(d.tfliteModel, d.tfliteOptions);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        d.isModelQuantized = isQuantized;
+        if (isQuantized) {
+            d.numBytesPerChannel = 1; // Quantized
+        } else {
+            d.numBytesPerChannel = 4; // Floating point
+        }
+
+        d.setInputSize(inputSize);
+        return d;
+    }
 
+    static Vector<String> loadLabels(final AssetManager assetManager, final String labelFilename)
+            throws IOException {
+        final Vector<String> labels = new Vector<String>();
         InputStream labelsInput = null;
         String actualFilename = labelFilename.split("file:///android_asset/")[1];
         labelsInput = assetManager.open(actualFilename);
@@ -121,75 +187,90 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
         String line;
         while ((line = br.readLine()) != null) {
             LOGGER.w(line);
-            d.labels.add(line);
+            labels.add(line);
         }
         br.close();
+        return labels;
+    }
 
-        d.inputSize = inputSize;
-
-        try {
-            d.tfLite = new Interpreter(loadModelFile(assetManager, modelFilename));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    /**
+     * Resizes the input tensor of the interpreter to {@code inputSize} x {@code inputSize} and
+     * reallocates all buffers that depend on it. Does nothing if the size is unchanged, so it is
+     * cheap to call before every inference.
+     */
+    @Override
+    public void setInputSize(final int inputSize) {
+        if (inputSize == this.inputSize) {
+            return;
         }
+        if (inputSize <= 0 || inputSize % GRID_STRIDE != 0) {
+            throw new IllegalArgumentException(
+                    "Input size must be a positive multiple of " + GRID_STRIDE + ": " + inputSize);
+        }
+        LOGGER.i("Resizing model input from %d to %d", this.inputSize, inputSize);
+        resizeInput(inputSize, batchSize);
+    }
+
+    /**
+     * Resizes the input tensor to {@code batchSize} images of {@code inputSize} x {@code inputSize}
+     * and reallocates all buffers that depend on it.
+     */
+    private void resizeInput(final int inputSize, final int batchSize) {
+        this.inputSize = inputSize;
+        this.batchSize = batchSize;
+        tfLite.resizeInput(0, new int[] {batchSize, inputSize, inputSize, 3});
+        gridSize = inputSize / GRID_STRIDE;
 
-        d.isModelQuantized = isQuantized;
         // Pre-allocate buffers.
-        int numBytesPerChannel;
-        if (isQuantized) {
-            numBytesPerChannel = 1; // Quantized
-        } else {
-            numBytesPerChannel = 4; // Floating point
-        }
-        d.imgData = ByteBuffer.allocateDirect(1 * d.inputSize * d.inputSize * 3 * numBytesPerChannel);
-        d.imgData.order(ByteOrder.nativeOrder());
-        d.intValues = new int[d.inputSize * d.inputSize];
-
-        d.tfLite.setNumThreads(NUM_THREADS);
-        d.outputLocations = new float[1][13][13][60];
-        d.outputClasses = new float[1][NUM_DETECTIONS];
-        d.outputScores = new float[1][NUM_DETECTIONS];
-        d.numDetections = new float[1];
-        return d;
+        imgData = ByteBuffer.allocateDirect(
+                batchSize * inputSize * inputSize * 3 * numBytesPerChannel);
+        imgData.order(ByteOrder.nativeOrder());
+        intValues = new int[inputSize * inputSize];
+
+        outputLocations = new float[batchSize][gridSize][gridSize][NUM_CHANNELS];
+        outputClasses = new float[batchSize][NUM_DETECTIONS];
+        outputScores = new float[batchSize][NUM_DETECTIONS];
+        numDetections = new float[batchSize];
+    }
+
+    @Override
+    public int getInputSize() {
+        return inputSize;
     }
 
     @Override
     public List<Recognition> recognizeImage(final Bitmap bitmap) {
+        return recognizeImages(Collections.singletonList(bitmap)).get(0);
+    }
+
+    /**
+     * Runs all bitmaps through the model as one batch. The batch dimension of the input is resized
+     * when the number of bitmaps changes, so callers should keep it stable between calls.
+     */
+    @Override
+    public List<List<Recognition>> recognizeImages(final List<Bitmap> bitmaps) {
         // Log this method so that it can be analyzed with systrace.
         Trace.beginSection("recognizeImage");
 
-        Trace.beginSection("preprocessBitmap");
-        // Preprocess the image data from 0-255 int to normalized float based
-        // on the provided parameters.
-
-
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        if (bitmaps.size() != batchSize) {
+            LOGGER.i("Resizing model batch from %d to %d", batchSize, bitmaps.size());
+            resizeInput(inputSize, bitmaps.size());
+        }
 
+        final LatencyStats stats = latencyStats;
+        Trace.beginSection("preprocessBitmap");
+        long startNanos = System.nanoTime();
         imgData.rewind();
-        for (int i = 0; i < inputSize; ++i) {
-            for (int j = 0; j < inputSize; ++j) {
-                int pixelValue = intValues[i * inputSize + j];
-                if (isModelQuantized) {
-                    // Quantized model
-                    imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-                    imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-                    imgData.put((byte) (pixelValue & 0xFF));
-                } else { // Float model
-                    imgData.putFloat((((pixelValue >> 16) & 0xFF)));// - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((pixelValue >> 8) & 0xFF)));// - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat(((pixelValue & 0xFF)));// - IMAGE_MEAN) / IMAGE_STD);
-                }
-            }
+        for (final Bitmap bitmap : bitmaps) {
+            preprocess(bitmap);
+        }
+        if (stats != null) {
+            stats.recordSince(LatencyStats.Stage.ENCODE, startNanos);
         }
         Trace.endSection(); // preprocessBitmap
 
         // Copy the input data into TensorFlow.
         Trace.beginSection("feed");
-        outputLocations = new float[1][13][13][60];
-        outputClasses = new float[1][NUM_DETECTIONS];
-        outputScores = new float[1][NUM_DETECTIONS];
-        numDetections = new float[1];
-
         Object[] inputArray = {imgData};
         Map<Integer, Object> outputMap = new HashMap<>();
         outputMap.put(0, outputLocations);
@@ -198,125 +279,70 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
         //outputMap.put(3, numDetections);
         Trace.endSection();
 
-
-        ImageUtils.saveBitmap(bitmap);
-
         // Run the inference call.
         Trace.beginSection("run");
+        startNanos = System.nanoTime();
         tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+        if (stats != null) {
+            stats.recordSince(LatencyStats.Stage.INFERENCE, startNanos);
+        }
         Trace.endSection();
 
-        return postProcess();
+        Trace.beginSection("postProcess");
+        startNanos = System.nanoTime();
+        final List<List<Recognition>> results = new ArrayList<>(batchSize);
+        for (int b = 0; b < batchSize; ++b) {
+            results.add(postProcess(b));
+        }
+        if (stats != null) {
+            stats.recordSince(LatencyStats.Stage.DECODE, startNanos);
+        }
+        Trace.endSection();
+        Trace.endSection(); // "recognizeImage"
+        return results;
     }
 
-    private double logistic(double x) {
-        if (x > 0) {
-            return 1.0 / (1.0 + Math.exp(-x));
-        } else {
-            return Math.exp(x) / (1 + Math.exp(x));
+    /** Appends one image to the input buffer. */
+    private void preprocess(final Bitmap bitmap) {
+        bitmap.getPixels(
+                intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        InputEncoder.encode(intValues, inputSize * inputSize, isModelQuantized, imgData);
+    }
+
+    /**
+     * Runs one inference on a blank input, so that tensor allocation, delegate setup and the first
+     * decode happen before the first camera frame arrives.
+     */
+    @Override
+    public void warmUp() {
+        Trace.beginSection("warmUp");
+        imgData.rewind();
+        while (imgData.hasRemaining()) {
+            imgData.put((byte) 0);
         }
+        imgData.rewind();
+        Map<Integer, Object> outputMap = new HashMap<>();
+        outputMap.put(0, outputLocations);
+        tfLite.runForMultipleInputsOutputs(new Object[] {imgData}, outputMap);
+        postProcess(0);
+        Trace.endSection();
     }
 
-    private List<Recognition> postProcess() {
-        // extract bb
-        ArrayList<Double> anchorX = new ArrayList<>();
-        ArrayList<Double> anchorY = new ArrayList<>();
-
-        anchorX.add(0.573);
-        anchorY.add(0.677);
-
-        anchorX.add(1.87);
-        anchorY.add(2.06);
-
-        anchorX.add(3.34);
-        anchorY.add(5.47);
-
-        anchorX.add(7.88);
-        anchorY.add(3.53);
-
-        anchorX.add(9.77);
-        anchorY.add(9.17);
-
-        int numAnchor = anchorX.size();
-
-        int height = 13;
-        int width = 13;
-        int channels = 60;
-
-        int numClass = (channels / numAnchor) - 5;
-
-        // Show the best detections.
-        // after scaling them back to the input size.
-        final ArrayList<Recognition> recognitions = new ArrayList<>(NUM_DETECTIONS);
-
-        int detectionCount = 0;
-
-        double thresh = 0.05;
-
-        double maxMaxProb = 0.0;
-
-        // out loc: 1 x 13 x 13 x 60
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                for (int k = 0; k < numAnchor; k++) {
-                    double x = (logistic(outputLocations[0][i][j][12 * k]) + 1.0 * i) / width;
-                    double y = (logistic(outputLocations[0][i][j][12 * k + 1]) + 1.0 * j) / height;
-
-                    double w = Math.exp(outputLocations[0][i][j][12 * k + 2]) * anchorX.get(k) / width;
-                    double h = Math.exp(outputLocations[0][i][j][12 * k + 3]) * anchorY.get(k) / height;
-
-                    // adjust because (x,y) is center of bounding box
-                    x = x - w/2;
-                    y = y - h/2;
-
-                    double objectness = logistic(outputLocations[0][i][j][12 * k + 4]);
-
-                    double maxval = -Double.MAX_VALUE;
-                    double sumval = 0.0;
-                    for(int c = 0; c < numClass; c++) {
-                        maxval = Math.max(maxval, outputLocations[0][i][j][12 * k + 5 + c]);
-                        sumval += outputLocations[0][i][j][12 * k + 5 + c];
-                    }
-
-                    double maxprob = -Double.MAX_VALUE;
-                    int maxClass = -1;
-                    double[] classProbs = new double[numClass];
-                    for(int c = 0; c < numClass; c++) {
-                        classProbs[c] = Math.exp(outputLocations[0][i][j][12 * k + 5 + c] - maxval);
-                        classProbs[c] = classProbs[c] * objectness / sumval;
-
-                        if(classProbs[c] > maxprob) {
-                            maxprob = classProbs[c];
-                            maxClass = c;
-                        }
-                    }
-                    maxMaxProb = Math.max(maxMaxProb, maxprob);
-                    // neglect if no class probability exceeds threshold
-                    if(maxprob <= thresh) {
-                        continue;
-                    }
-                    // fill in detections
-                    final RectF detection =
-                            new RectF(
-                                    (float) x * inputSize,
-                                    (float) y * inputSize,
-                                    (float) (x + w) * inputSize,
-                                    (float) (y + h) * inputSize);
-
-                    recognitions.add(
-                            new Recognition(
-                                    "" + detectionCount,
-                                    labels.get(maxClass),
-                                    (float) objectness,
-                                    detection));
-                    detectionCount++;
-                }
-            }
+    /** Decodes the boxes of one image of the batch, in input pixel coordinates. */
+    private List<Recognition> postProcess(final int batchIndex) {
+        final List<DetectedBox> boxes = decoder.decode(outputLocations[batchIndex], inputSize);
+        final List<Recognition> recognitions = new ArrayList<>(boxes.size());
+        for (final DetectedBox box : boxes) {
+            recognitions.add(Recognition.of(box));
         }
-        Trace.endSection(); // "recognizeImage"
         return recognitions;
     }
 
+    @Override
+    public void setLatencyStats(final LatencyStats stats) {
+        latencyStats = stats;
+    }
+
     @Override
     public void enableStatLogging(final boolean logStats) {
     }
@@ -326,16 +352,40 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
         return "";
     }
 
+    /** Frees the native interpreter. The instance cannot be used afterwards. */
     @Override
     public void close() {
+        if (tfLite != null) {
+            tfLite.close();
+            tfLite = null;
+        }
+        tfliteModel = null;
+        imgData = null;
     }
 
     public void setNumThreads(int num_threads) {
-        if (tfLite != null) tfLite.setNumThreads(num_threads);
+        tfliteOptions.setNumThreads(num_threads);
+        recreateInterpreter();
     }
 
     @Override
     public void setUseNNAPI(boolean isChecked) {
-        if (tfLite != null) tfLite.setUseNNAPI(isChecked);
+        tfliteOptions.setUseNNAPI(isChecked);
+        recreateInterpreter();
+    }
+
+    @Override
+    public void setUseXNNPACK(boolean isChecked) {
+        tfliteOptions.setUseXNNPACK(isChecked);
+        recreateInterpreter();
+    }
+
+    /** Applies changed options, which only take effect when the interpreter is built. */
+    private void recreateInterpreter() {
+        if (tfLite != null) {
+            tfLite.close();
+            tfLite = new Interpreter(tfliteModel, tfliteOptions);
+            tfLite.resizeInput(0, new int[] {batchSize, inputSize, inputSize, 3});
+        }
     }
 }
@@ -24,21 +24,49 @@ import android.graphics.Paint.Cap;
 import android.graphics.Paint.Join;
 import android.graphics.Paint.Style;
 import android.graphics.RectF;
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.Log;
 import android.util.Pair;
 import android.util.TypedValue;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReference;
 import de.tum.hack.BoulderChroma.env.BorderedText;
 import de.tum.hack.BoulderChroma.env.ImageUtils;
+import de.tum.hack.BoulderChroma.env.LabelAtlas;
 import de.tum.hack.BoulderChroma.env.Logger;
 import de.tum.hack.BoulderChroma.tflite.Classifier;
 
-/** A tracker that handles non-max suppression and matches existing objects to new detections. */
+/**
+ * Draws the tracked objects. Detections are matched to existing objects by a {@link HoldTracker};
+ * between detections the boxes follow the optical flow of the preview frames, and the motion model
+ * fills the time between frames.
+ *
+ * <p>Drawing only reads the latest snapshot published by the tracker and never takes a lock, so
+ * neither the camera and inference threads nor the drawing thread wait. {@link #draw(Canvas)}
+ * extrapolates the latest snapshot with the motion model; {@link #drawInterpolated(Canvas, long)},
+ * for overlays redrawn at display rate, instead moves the boxes from the previous to the latest
+ * snapshot over one update interval.
+ */
 public class MultiBoxTracker {
   private static final float TEXT_SIZE_DIP = 18;
   private static final float MIN_SIZE = 16.0f;
+  // Labels for tracks without a title, by confidence in percent.
+  private static final String[] PERCENT_LABELS = new String[101];
+
+  static {
+    for (int i = 0; i < PERCENT_LABELS.length; ++i) {
+      PERCENT_LABELS[i] = Integer.toString(i);
+    }
+  }
+
+  // Alpha of the boxes outside the highlighted route.
+  private static final int DIMMED_ALPHA = 60;
+
   private static final int[] COLORS = {
     Color.BLACK,
     Color.BLUE,
@@ -48,17 +76,43 @@ public class MultiBoxTracker {
     Color.WHITE,
     Color.YELLOW
   };
-  final List<Pair<Float, RectF>> screenRects = new LinkedList<Pair<Float, RectF>>();
+  private final AtomicReference<List<Pair<Float, RectF>>> screenRects =
+      new AtomicReference<>(Collections.<Pair<Float, RectF>>emptyList());
   private final Logger logger = new Logger();
   private final Queue<Integer> availableColors = new LinkedList<Integer>();
-  private final List<TrackedRecognition> trackedObjects = new LinkedList<TrackedRecognition>();
+  private final HoldTracker holdTracker = new HoldTracker();
+
+  // Only used while drawing on the UI or render thread.
+  private final float[] predictedBox = new float[4];
+  private final float[] previousBox = new float[4];
+  private final RectF trackedPos = new RectF();
+  // Screen boxes of the snapshot being drawn, left, top, right, bottom each.
+  private float[] geometry = new float[4 * 64];
+  private final LabelAtlas labelAtlas;
+  private volatile int highlightedRoute = -1;
+  // Scale from normalized track coordinates to the canvas as last drawn, for hit-testing.
+  private volatile float canvasScaleX = 1;
+  private volatile float canvasScaleY = 1;
+  private FrameConfiguration matrixFrameConfiguration;
+  private int matrixCanvasWidth;
+  private int matrixCanvasHeight;
   private final Paint boxPaint = new Paint();
   private final float textSizePx;
   private final BorderedText borderedText;
-  private Matrix frameToCanvasMatrix;
-  private int frameWidth;
-  private int frameHeight;
-  private int sensorOrientation;
+  private volatile Matrix frameToCanvasMatrix;
+  private volatile FrameConfiguration frameConfiguration = new FrameConfiguration(0, 0, 0);
+
+  private static final class FrameConfiguration {
+    final int width;
+    final int height;
+    final int sensorOrientation;
+
+    FrameConfiguration(final int width, final int height, final int sensorOrientation) {
+      this.width = width;
+      this.height = height;
+      this.sensorOrientation = sensorOrientation;
+    }
+  }
 
   public MultiBoxTracker(final Context context) {
     for (final int color : COLORS) {
@@ -76,16 +130,24 @@ public class MultiBoxTracker {
         TypedValue.applyDimension(
             TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, context.getResources().getDisplayMetrics());
     borderedText = new BorderedText(textSizePx);
+    labelAtlas = new LabelAtlas(textSizePx);
   }
 
-  public synchronized void setFrameConfiguration(
+  public void setFrameConfiguration(
       final int width, final int height, final int sensorOrientation) {
-    frameWidth = width;
-    frameHeight = height;
-    this.sensorOrientation = sensorOrientation;
+    frameConfiguration = new FrameConfiguration(width, height, sensorOrientation);
+    holdTracker.setFrameConfiguration(width, height, sensorOrientation);
   }
 
-  public synchronized void drawDebug(final Canvas canvas) {
+  /**
+   * Moves the tracked boxes by the optical flow between the previous and this preview frame. Call
+   * for every preview frame.
+   */
+  public void trackFlow(final byte[] luminance, final int rowStride, final long timestampMs) {
+    holdTracker.trackFlow(luminance, rowStride, timestampMs);
+  }
+
+  public void drawDebug(final Canvas canvas) {
     final Paint textPaint = new Paint();
     textPaint.setColor(Color.WHITE);
     textPaint.setTextSize(60.0f);
@@ -95,7 +157,7 @@ public class MultiBoxTracker {
     boxPaint.setAlpha(200);
     boxPaint.setStyle(Style.STROKE);
 
-    for (final Pair<Float, RectF> detection : screenRects) {
+    for (final Pair<Float, RectF> detection : screenRects.get()) {
       final RectF rect = detection.second;
       canvas.drawRect(rect, boxPaint);
       canvas.drawText("" + detection.first, rect.left, rect.top, textPaint);
@@ -103,63 +165,180 @@ public class MultiBoxTracker {
     }
   }
 
-  public synchronized void trackResults(final List<Classifier.Recognition> results, final long timestamp) {
-    logger.i("Processing %d results from %d", results.size(), timestamp);
-    processResults(results);
+  /**
+   * @param timestampMs {@link SystemClock#uptimeMillis()} when the frame the results were detected
+   *     on was taken
+   */
+  public void trackResults(final List<Classifier.Recognition> results, final long timestampMs) {
+    logger.i("Processing %d results from %d", results.size(), timestampMs);
+    processResults(results, timestampMs);
+  }
+
+  /**
+   * Returns the fraction of the latest frame that shows parts of the wall the detector has not
+   * searched yet.
+   */
+  public float getUnsearchedFraction() {
+    return holdTracker.getUnsearchedFraction();
+  }
+
+  /** See {@link ObjectTracker#isStable()}. */
+  public boolean isStable() {
+    return holdTracker.isStable();
+  }
+
+  public boolean hasTracks() {
+    return holdTracker.getSnapshot().size() > 0;
+  }
+
+  /** Returns the latest published tracks. See {@link TrackSnapshot#getIndex()} for queries. */
+  public TrackSnapshot getSnapshot() {
+    return holdTracker.getSnapshot();
+  }
+
+  /**
+   * Returns the id of the track drawn at a point of the overlay canvas, or -1 if there is none.
+   * Where boxes are nested, the smallest one wins.
+   */
+  public int getTrackIdAt(final float canvasX, final float canvasY) {
+    final TrackSnapshot tracks = holdTracker.getSnapshot();
+    final int index = tracks.getIndex().findAt(canvasX / canvasScaleX, canvasY / canvasScaleY);
+    return index >= 0 ? tracks.getId(index) : -1;
+  }
+
+  /**
+   * Highlights the route of the hold at a point of the overlay canvas and dims all other holds.
+   * A point outside all holds removes the highlight.
+   */
+  public void highlightRouteAt(final float canvasX, final float canvasY) {
+    final TrackSnapshot tracks = holdTracker.getSnapshot();
+    final int index = tracks.getIndex().findAt(canvasX / canvasScaleX, canvasY / canvasScaleY);
+    highlightedRoute = index >= 0 ? tracks.getRouteId(index) : -1;
   }
 
   public Matrix getFrameToCanvasMatrix() {
     return frameToCanvasMatrix;
   }
 
-  public synchronized void draw(final Canvas canvas) {
-    final boolean rotated = sensorOrientation % 180 == 90;
-    final float multiplier =
-        Math.min(
-            canvas.getHeight() / (float) (rotated ? frameWidth : frameHeight),
-            canvas.getWidth() / (float) (rotated ? frameHeight : frameWidth));
-    frameToCanvasMatrix =
-        ImageUtils.getTransformationMatrix(
-            frameWidth,
-            frameHeight,
-            (int) (multiplier * (rotated ? frameHeight : frameWidth)),
-            (int) (multiplier * (rotated ? frameWidth : frameHeight)),
-            sensorOrientation,
-            false);
-    for (final TrackedRecognition recognition : trackedObjects) {
-      final RectF trackedPos = new RectF(recognition.location);
+  public void draw(final Canvas canvas) {
+    final long now = SystemClock.uptimeMillis();
+    final TrackSnapshot tracks = holdTracker.getSnapshot();
+    prepareGeometry(canvas, tracks.size());
+    for (int i = 0; i < tracks.size(); ++i) {
+      tracks.predict(i, now, predictedBox);
+      setGeometry(i, predictedBox);
+    }
+    drawGeometry(canvas, tracks);
+  }
 
-      float DAVID_COPPERFIELD = 0.8f;
-      trackedPos.top *= canvas.getHeight() * DAVID_COPPERFIELD;
-      trackedPos.bottom *= canvas.getHeight() * DAVID_COPPERFIELD;
-      trackedPos.left *= canvas.getWidth();
-      trackedPos.right *= canvas.getWidth();
+  /**
+   * Draws the tracked objects as of {@code timeMs}, moving each box linearly from its place in the
+   * previous snapshot to its place in the latest one. The boxes lag one update behind, but move
+   * smoothly however rarely the tracks are updated.
+   *
+   * @param timeMs the time the frame will be shown, in the {@link HoldTracker#nowMs()} time base
+   */
+  public void drawInterpolated(final Canvas canvas, final long timeMs) {
+    final HoldTracker.Publication tracks = holdTracker.getPublication();
+    final float progress =
+        Math.max(0, Math.min(1, (float) (timeMs - tracks.publishedAtMs) / tracks.intervalMs));
+    prepareGeometry(canvas, tracks.current.size());
+    for (int i = 0; i < tracks.current.size(); ++i) {
+      tracks.current.getBox(i, predictedBox);
+      final int previous = tracks.previous.indexOfId(tracks.current.getId(i));
+      if (previous >= 0) {
+        tracks.previous.getBox(previous, previousBox);
+        for (int k = 0; k < 4; ++k) {
+          predictedBox[k] = previousBox[k] + progress * (predictedBox[k] - previousBox[k]);
+        }
+      }
+      setGeometry(i, predictedBox);
+    }
+    drawGeometry(canvas, tracks.current);
+  }
 
-      //getFrameToCanvasMatrix().mapRect(trackedPos);
+  private void prepareGeometry(final Canvas canvas, final int size) {
+    updateFrameToCanvasMatrix(canvas.getWidth(), canvas.getHeight());
+    if (geometry.length < 4 * size) {
+      geometry = new float[Math.max(2 * geometry.length, 4 * size)];
+    }
+    float DAVID_COPPERFIELD = 0.8f;
+    canvasScaleX = canvas.getWidth();
+    canvasScaleY = canvas.getHeight() * DAVID_COPPERFIELD;
+  }
 
-      boxPaint.setColor(recognition.color);
+  private void setGeometry(final int i, final float[] box) {
+    geometry[4 * i] = box[0] * canvasScaleX;
+    geometry[4 * i + 1] = box[1] * canvasScaleY;
+    geometry[4 * i + 2] = box[2] * canvasScaleX;
+    geometry[4 * i + 3] = box[3] * canvasScaleY;
+  }
 
-      float cornerSize = Math.min(trackedPos.width(), trackedPos.height()) / 8.0f;
+  /** Draws the boxes prepared in {@link #geometry} with the labels of their tracks. */
+  private void drawGeometry(final Canvas canvas, final TrackSnapshot tracks) {
+    final int highlighted = highlightedRoute;
+    for (int i = 0; i < tracks.size(); ++i) {
+      trackedPos.set(
+          geometry[4 * i], geometry[4 * i + 1], geometry[4 * i + 2], geometry[4 * i + 3]);
+      boxPaint.setColor(tracks.getColor(i));
+      if (highlighted >= 0 && tracks.getRouteId(i) != highlighted) {
+        boxPaint.setAlpha(DIMMED_ALPHA);
+      }
+      final float cornerSize = Math.min(trackedPos.width(), trackedPos.height()) / 8.0f;
       canvas.drawRoundRect(trackedPos, cornerSize, cornerSize, boxPaint);
+    }
+
+    // Labels go on top of all boxes.
+    labelAtlas.beginFrame();
+    for (int i = 0; i < tracks.size(); ++i) {
+      if (highlighted >= 0 && tracks.getRouteId(i) != highlighted) {
+        continue;
+      }
+      final float cornerSize =
+          Math.min(geometry[4 * i + 2] - geometry[4 * i], geometry[4 * i + 3] - geometry[4 * i + 1])
+              / 8.0f;
+      final String label =
+          !TextUtils.isEmpty(tracks.getLabel(i))
+              ? tracks.getLabel(i)
+              : PERCENT_LABELS[Math.round(100 * tracks.getConfidence(i))];
+      labelAtlas.draw(
+          canvas, label, tracks.getColor(i), geometry[4 * i] + cornerSize, geometry[4 * i + 1]);
+    }
+  }
 
-      final String labelString =
-          !TextUtils.isEmpty(recognition.title)
-              //? String.format("%.2f #%06X", (100 * recognition.detectionConfidence), recognition.color)
-              //? String.format("%s %.2f", recognition.title, (100 * recognition.detectionConfidence))
-              ? String.format("%s", recognition.title)
-              : String.format("%.2f", (100 * recognition.detectionConfidence));
-      //            borderedText.drawText(canvas, trackedPos.left + cornerSize, trackedPos.top,
-      // labelString);
-      borderedText.drawText(
-          canvas, trackedPos.left + cornerSize, trackedPos.top, labelString, boxPaint);
+  /** Recomputes the frame to canvas transform, but only if the canvas or the frame changed. */
+  private void updateFrameToCanvasMatrix(final int canvasWidth, final int canvasHeight) {
+    final FrameConfiguration frame = frameConfiguration;
+    if (frameToCanvasMatrix != null
+        && frame == matrixFrameConfiguration
+        && canvasWidth == matrixCanvasWidth
+        && canvasHeight == matrixCanvasHeight) {
+      return;
     }
+    final boolean rotated = frame.sensorOrientation % 180 == 90;
+    final float multiplier =
+        Math.min(
+            canvasHeight / (float) (rotated ? frame.width : frame.height),
+            canvasWidth / (float) (rotated ? frame.height : frame.width));
+    frameToCanvasMatrix =
+        ImageUtils.getTransformationMatrix(
+            frame.width,
+            frame.height,
+            (int) (multiplier * (rotated ? frame.height : frame.width)),
+            (int) (multiplier * (rotated ? frame.width : frame.height)),
+            frame.sensorOrientation,
+            false);
+    matrixFrameConfiguration = frame;
+    matrixCanvasWidth = canvasWidth;
+    matrixCanvasHeight = canvasHeight;
   }
 
-  private void processResults(final List<Classifier.Recognition> results) {
+  private void processResults(
+      final List<Classifier.Recognition> results, final long timestampMs) {
     final List<Pair<Float, Classifier.Recognition>> rectsToTrack = new LinkedList<Pair<Float, Classifier.Recognition>>();
 
-    screenRects.clear();
-    final Matrix rgbFrameToScreen = new Matrix(getFrameToCanvasMatrix());
+    final List<Pair<Float, RectF>> detectionScreenRects = new ArrayList<>(results.size());
+    final Matrix rgbFrameToScreen = getFrameToCanvasMatrix();
 
     for (final Classifier.Recognition result : results) {
       if (result.getLocation() == null) {
@@ -168,36 +347,36 @@ public class MultiBoxTracker {
       final RectF detectionFrameRect = new RectF(result.getLocation());
 
       final RectF detectionScreenRect = new RectF();
-      rgbFrameToScreen.mapRect(detectionScreenRect, detectionFrameRect);
+      if (rgbFrameToScreen != null) {
+        rgbFrameToScreen.mapRect(detectionScreenRect, detectionFrameRect);
+      }
 
-      logger.v("Result! Frame: " + result.getLocation() + " mapped to screen:" + detectionScreenRect);
+      if (logger.isLoggable(Log.VERBOSE)) {
+        logger.v("Result! Frame: %s mapped to screen: %s", detectionFrameRect, detectionScreenRect);
+      }
 
-      screenRects.add(new Pair<Float, RectF>(result.getConfidence(), detectionScreenRect));
+      detectionScreenRects.add(new Pair<Float, RectF>(result.getConfidence(), detectionScreenRect));
 
       rectsToTrack.add(new Pair<Float, Classifier.Recognition>(result.getConfidence(), result));
     }
 
-    trackedObjects.clear();
-    if (rectsToTrack.isEmpty()) {
-      logger.v("Nothing to track, aborting.");
-      return;
-    }
+    screenRects.set(Collections.unmodifiableList(detectionScreenRects));
 
+    final List<Detection> detections = new ArrayList<>(rectsToTrack.size());
     for (final Pair<Float, Classifier.Recognition> potential : rectsToTrack) {
-      final TrackedRecognition trackedRecognition = new TrackedRecognition();
-      trackedRecognition.detectionConfidence = potential.first;
-      trackedRecognition.location = new RectF(potential.second.getLocation());
-      trackedRecognition.title = potential.second.getTitle();
-      //trackedRecognition.color = potential.second.getColor();
-      trackedRecognition.color = COLORS[Integer.parseInt(potential.second.getId())];
-      trackedObjects.add(trackedRecognition);
+      final RectF location = potential.second.getLocation();
+      // Prefer the color measured on the device over the one implied by the label.
+      final int color = potential.second.getColor();
+      detections.add(
+          new Detection(
+              location.left,
+              location.top,
+              location.right,
+              location.bottom,
+              potential.second.getTitle(),
+              color != 0 ? color : COLORS[Integer.parseInt(potential.second.getId())],
+              potential.first));
     }
-  }
-
-  private static class TrackedRecognition {
-    RectF location;
-    float detectionConfidence;
-    int color;
-    String title;
+    holdTracker.trackDetections(detections, timestampMs);
   }
 }
@@ -0,0 +1,229 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.benchmarks;
+
+import de.tum.hack.BoulderChroma.env.YuvConverter;
+import de.tum.hack.BoulderChroma.tflite.DetectedBox;
+import de.tum.hack.BoulderChroma.tflite.TileLayout;
+import de.tum.hack.BoulderChroma.tracking.Detection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Synthetic inputs shaped like the ones the app sees: 640x480 preview frames, the 13x13x60 output
+ * of the YOLO model at 416 pixels and walls with 50 to 300 holds. Every fixture is drawn from a
+ * fixed seed, so all runs measure the same data.
+ */
+final class Fixtures {
+  static final int FRAME_WIDTH = 640;
+  static final int FRAME_HEIGHT = 480;
+  static final int INPUT_SIZE = 416;
+  static final int GRID_SIZE = 13;
+
+  // As in TFLiteObjectDetectionAPIModel and assets/labels.txt.
+  static final double[] ANCHOR_X = {0.573, 1.87, 3.34, 7.88, 9.77};
+  static final double[] ANCHOR_Y = {0.677, 2.06, 5.47, 3.53, 9.17};
+  static final double DETECTION_THRESHOLD = 0.05;
+  static final List<String> LABELS =
+      Collections.unmodifiableList(
+          Arrays.asList("black", "blue", "green", "orange", "red", "white", "yellow"));
+  static final int[] COLORS = {
+    0xff000000, 0xff0000ff, 0xff00ff00, 0xffffa500, 0xffff0000, 0xffffffff, 0xffffff00
+  };
+
+  private static final long SEED = 0x5eed;
+  // Values per anchor: x, y, w, h, objectness and one score per label.
+  private static final int CHANNELS_PER_ANCHOR = 5 + 7;
+
+  private Fixtures() {}
+
+  static Random random() {
+    return new Random(SEED);
+  }
+
+  /** ARGB pixels of a wall: a gray gradient with colored discs for holds. */
+  static int[] wallPixels(final int width, final int height) {
+    final Random random = random();
+    final int[] pixels = new int[width * height];
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        final int gray = 96 + (x + y) * 64 / (width + height) + random.nextInt(16);
+        pixels[y * width + x] = 0xff000000 | gray << 16 | gray << 8 | gray;
+      }
+    }
+    for (int hold = 0; hold < 150; ++hold) {
+      final int cx = random.nextInt(width);
+      final int cy = random.nextInt(height);
+      final int radius = 4 + random.nextInt(16);
+      final int color = COLORS[random.nextInt(COLORS.length)];
+      for (int y = Math.max(0, cy - radius); y < Math.min(height, cy + radius); ++y) {
+        for (int x = Math.max(0, cx - radius); x < Math.min(width, cx + radius); ++x) {
+          if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= radius * radius) {
+            pixels[y * width + x] = color;
+          }
+        }
+      }
+    }
+    return pixels;
+  }
+
+  /** A 640x480 preview frame in NV21, the format of the legacy camera API. */
+  static byte[] nv21Frame() {
+    final byte[] frame = new byte[YuvConverter.getYUVByteSize(FRAME_WIDTH, FRAME_HEIGHT)];
+    YuvConverter.convertARGB8888ToYUV420SP(
+        wallPixels(FRAME_WIDTH, FRAME_HEIGHT), FRAME_WIDTH, FRAME_HEIGHT, frame);
+    return frame;
+  }
+
+  /**
+   * Model output of shape [13][13][60] in which exactly {@code boxes} anchors score above the
+   * detection threshold.
+   */
+  static float[][][] modelOutput(final int boxes) {
+    final Random random = random();
+    final int anchors = ANCHOR_X.length;
+    final List<Integer> slots = new ArrayList<>();
+    for (int slot = 0; slot < GRID_SIZE * GRID_SIZE * anchors; ++slot) {
+      slots.add(slot);
+    }
+    Collections.shuffle(slots, random);
+    final boolean[] detected = new boolean[slots.size()];
+    for (int i = 0; i < boxes; ++i) {
+      detected[slots.get(i)] = true;
+    }
+
+    final float[][][] output = new float[GRID_SIZE][GRID_SIZE][CHANNELS_PER_ANCHOR * anchors];
+    for (int i = 0; i < GRID_SIZE; ++i) {
+      for (int j = 0; j < GRID_SIZE; ++j) {
+        final float[] cell = output[i][j];
+        for (int k = 0; k < anchors; ++k) {
+          final int offset = CHANNELS_PER_ANCHOR * k;
+          final boolean hit = detected[(i * GRID_SIZE + j) * anchors + k];
+          cell[offset] = (float) random.nextGaussian();
+          cell[offset + 1] = (float) random.nextGaussian();
+          cell[offset + 2] = random.nextFloat() * 2 - 1;
+          cell[offset + 3] = random.nextFloat() * 2 - 1;
+          cell[offset + 4] = hit ? 4 : -6;
+          // Positive scores keep the decoder's normalization away from zero.
+          for (int c = 5; c < CHANNELS_PER_ANCHOR; ++c) {
+            cell[offset + c] = 0.1f + random.nextFloat() * 0.4f;
+          }
+          if (hit) {
+            cell[offset + 5 + random.nextInt(LABELS.size())] = 3;
+          }
+        }
+      }
+    }
+    return output;
+  }
+
+  /** Holds of a wall in frame pixels, as the tracker gets them. */
+  static List<Detection> detections(final int count) {
+    final Random random = random();
+    final List<Detection> detections = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      final float size = 8 + random.nextFloat() * 32;
+      final float left = random.nextFloat() * (FRAME_WIDTH - size);
+      final float top = random.nextFloat() * (FRAME_HEIGHT - size);
+      final int label = random.nextInt(LABELS.size());
+      detections.add(
+          new Detection(
+              left,
+              top,
+              left + size,
+              top + size,
+              LABELS.get(label),
+              COLORS[label],
+              0.3f + random.nextFloat() * 0.7f));
+    }
+    return detections;
+  }
+
+  /**
+   * Detections of the tiles of {@code layout} in tile input pixels, {@code count} in total. Holds
+   * in the overlap of tiles are detected by each of them, as on the device.
+   */
+  static List<List<DetectedBox>> tileDetections(final TileLayout layout, final int count) {
+    final List<List<DetectedBox>> perTile = new ArrayList<>();
+    for (int tile = 0; tile < layout.getTileCount(); ++tile) {
+      perTile.add(new ArrayList<DetectedBox>());
+    }
+    final float scale = INPUT_SIZE / layout.side;
+    final List<Detection> holds = detections(count);
+    final Random random = random();
+    int added = 0;
+    for (int i = 0; added < count; ++i) {
+      final Detection hold = holds.get(i % holds.size());
+      final float jitterX = random.nextFloat() * 8 - 4;
+      final float jitterY = random.nextFloat() * 8 - 4;
+      final float left = hold.left + jitterX;
+      final float top = hold.top + jitterY;
+      final float size = hold.right - hold.left;
+      for (int tile = 0; tile < layout.getTileCount() && added < count; ++tile) {
+        final float tileLeft = layout.getLeft(tile);
+        final float tileTop = layout.getTop(tile);
+        if (left < tileLeft
+            || top < tileTop
+            || left + size > tileLeft + layout.side
+            || top + size > tileTop + layout.side) {
+          continue;
+        }
+        // Each tile sees the hold with a slightly different box and confidence.
+        final float offset = random.nextFloat() * 2;
+        perTile
+            .get(tile)
+            .add(
+                new DetectedBox(
+                    Integer.toString(LABELS.indexOf(hold.label)),
+                    hold.label,
+                    Math.min(1, hold.confidence + random.nextFloat() * 0.1f),
+                    (left - tileLeft + offset) * scale,
+                    (top - tileTop + offset) * scale,
+                    (left - tileLeft + size) * scale,
+                    (top - tileTop + size) * scale));
+        ++added;
+      }
+    }
+    return perTile;
+  }
+
+  /** A detection server response with {@code count} predictions, with tag ids as bare numbers. */
+  static String serverResponse(final int count) {
+    final StringBuilder json = new StringBuilder("[");
+    for (final Detection hold : detections(count)) {
+      if (json.length() > 1) {
+        json.append(',');
+      }
+      json.append(
+          String.format(
+              Locale.US,
+              "{\"probability\":%.8f,\"tagId\":%d,\"tagName\":\"%s\",\"boundingBox\":"
+                  + "{\"left\":%.8f,\"top\":%.8f,\"width\":%.8f,\"height\":%.8f}}",
+              hold.confidence,
+              LABELS.indexOf(hold.label),
+              hold.label,
+              hold.left / FRAME_WIDTH,
+              hold.top / FRAME_HEIGHT,
+              (hold.right - hold.left) / FRAME_WIDTH,
+              (hold.bottom - hold.top) / FRAME_HEIGHT));
+    }
+    return json.append(']').toString();
+  }
+}
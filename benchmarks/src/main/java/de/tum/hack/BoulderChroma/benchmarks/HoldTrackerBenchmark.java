@@ -0,0 +1,91 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.benchmarks;
+
+import de.tum.hack.BoulderChroma.tracking.Detection;
+import de.tum.hack.BoulderChroma.tracking.HoldTracker;
+import de.tum.hack.BoulderChroma.tracking.TrackSnapshot;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching a frame's detections with the tracks, the work MultiBoxTracker.processResults hands to
+ * the HoldTracker after mapping the boxes to the screen. The frames alternate between two slightly
+ * shifted views of the same holds, so every call updates existing tracks as in steady state.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HoldTrackerBenchmark {
+  private static final long FRAME_INTERVAL_MS = 100;
+
+  @Param({"50", "300"})
+  public int boxes;
+
+  private final List<List<Detection>> frames = new ArrayList<>();
+  private HoldTracker tracker;
+  private long timestampMs;
+
+  @Setup
+  public void setUpFrames() {
+    final List<Detection> holds = Fixtures.detections(boxes);
+    final List<Detection> shifted = new ArrayList<>(holds.size());
+    for (final Detection hold : holds) {
+      shifted.add(
+          new Detection(
+              hold.left + 2,
+              hold.top + 1,
+              hold.right + 2,
+              hold.bottom + 1,
+              hold.label,
+              hold.color,
+              hold.confidence));
+    }
+    frames.add(holds);
+    frames.add(shifted);
+  }
+
+  @Setup(Level.Iteration)
+  public void setUpTracker() {
+    tracker = new HoldTracker();
+    tracker.setFrameConfiguration(Fixtures.FRAME_WIDTH, Fixtures.FRAME_HEIGHT, 90);
+    timestampMs = 0;
+    tracker.trackDetections(frames.get(0), timestampMs);
+  }
+
+  @Benchmark
+  public TrackSnapshot trackDetections() {
+    timestampMs += FRAME_INTERVAL_MS;
+    tracker.trackDetections(frames.get((int) (timestampMs / FRAME_INTERVAL_MS) & 1), timestampMs);
+    return tracker.getSnapshot();
+  }
+}
@@ -0,0 +1,62 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.benchmarks;
+
+import de.tum.hack.BoulderChroma.tflite.InputEncoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Writing the pixels of a 416x416 model input into the direct buffer passed to TensorFlow Lite. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InputEncoderBenchmark {
+  @Param({"true", "false"})
+  public boolean quantized;
+
+  private int[] pixels;
+  private ByteBuffer input;
+
+  @Setup
+  public void setUp() {
+    final int size = Fixtures.INPUT_SIZE;
+    pixels = Fixtures.wallPixels(size, size);
+    input = ByteBuffer.allocateDirect(size * size * 3 * (quantized ? 1 : 4));
+    input.order(ByteOrder.nativeOrder());
+  }
+
+  @Benchmark
+  public ByteBuffer encode() {
+    input.rewind();
+    InputEncoder.encode(pixels, pixels.length, quantized, input);
+    return input;
+  }
+}
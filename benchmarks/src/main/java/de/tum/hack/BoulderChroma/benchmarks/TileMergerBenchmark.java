@@ -0,0 +1,65 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.benchmarks;
+
+import de.tum.hack.BoulderChroma.tflite.DetectedBox;
+import de.tum.hack.BoulderChroma.tflite.TileLayout;
+import de.tum.hack.BoulderChroma.tflite.TileMerger;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Suppression of duplicate boxes from overlapping tiles, on a 2x3 layout over a 640x480 frame with
+ * {@code boxes} detections in total.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TileMergerBenchmark {
+  // As DetectorActivity.MINIMUM_CONFIDENCE_TF_OD_API.
+  private static final float MINIMUM_CONFIDENCE = 0.2f;
+
+  @Param({"50", "300"})
+  public int boxes;
+
+  private TileLayout layout;
+  private List<List<DetectedBox>> perTile;
+
+  @Setup
+  public void setUp() {
+    layout = TileLayout.create(Fixtures.FRAME_WIDTH, Fixtures.FRAME_HEIGHT, 2, 3, 0.2f);
+    perTile = Fixtures.tileDetections(layout, boxes);
+  }
+
+  @Benchmark
+  public List<DetectedBox> merge() {
+    return TileMerger.merge(perTile, layout, Fixtures.INPUT_SIZE, MINIMUM_CONFIDENCE);
+  }
+}
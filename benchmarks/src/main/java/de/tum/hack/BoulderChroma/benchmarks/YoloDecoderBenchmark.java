@@ -0,0 +1,60 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.benchmarks;
+
+import de.tum.hack.BoulderChroma.tflite.DetectedBox;
+import de.tum.hack.BoulderChroma.tflite.YoloDecoder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Decoding the 13x13x60 model output into boxes, the post-processing of every inference. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class YoloDecoderBenchmark {
+  @Param({"50", "300"})
+  public int boxes;
+
+  private YoloDecoder decoder;
+  private float[][][] output;
+
+  @Setup
+  public void setUp() {
+    decoder =
+        new YoloDecoder(
+            Fixtures.ANCHOR_X, Fixtures.ANCHOR_Y, Fixtures.LABELS, Fixtures.DETECTION_THRESHOLD);
+    output = Fixtures.modelOutput(boxes);
+  }
+
+  @Benchmark
+  public List<DetectedBox> decode() {
+    return decoder.decode(output, Fixtures.INPUT_SIZE);
+  }
+}
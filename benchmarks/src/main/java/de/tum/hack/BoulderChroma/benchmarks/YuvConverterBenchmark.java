@@ -0,0 +1,77 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.benchmarks;
+
+import de.tum.hack.BoulderChroma.env.YuvConverter;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of a 640x480 preview frame to ARGB, from NV21 as delivered by the legacy camera API
+ * and from the YUV_420_888 planes of camera2, whose chroma planes interleave with a pixel stride
+ * of 2 on most devices.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class YuvConverterBenchmark {
+  private static final int WIDTH = Fixtures.FRAME_WIDTH;
+  private static final int HEIGHT = Fixtures.FRAME_HEIGHT;
+
+  private byte[] nv21;
+  private byte[] yPlane;
+  private byte[] uPlane;
+  private byte[] vPlane;
+  private int[] argb;
+
+  @Setup
+  public void setUp() {
+    nv21 = Fixtures.nv21Frame();
+    final int frameSize = WIDTH * HEIGHT;
+    yPlane = Arrays.copyOfRange(nv21, 0, frameSize);
+    // NV21 stores V before U; as camera2 planes both views overlap by all but one byte.
+    vPlane = Arrays.copyOfRange(nv21, frameSize, nv21.length - 1);
+    uPlane = Arrays.copyOfRange(nv21, frameSize + 1, nv21.length);
+    argb = new int[frameSize];
+  }
+
+  @Benchmark
+  public int[] convertYUV420SPToARGB8888() {
+    YuvConverter.convertYUV420SPToARGB8888(nv21, WIDTH, HEIGHT, argb);
+    return argb;
+  }
+
+  @Benchmark
+  public int[] convertYUV420ToARGB8888() {
+    YuvConverter.convertYUV420ToARGB8888(
+        yPlane, uPlane, vPlane, WIDTH, HEIGHT, WIDTH, WIDTH, 2, argb);
+    return argb;
+  }
+}
@@ -0,0 +1,158 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.color;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the dominant {@link HoldPalette} color inside a box. Every RGB value is mapped to its
+ * nearest palette color in CIELAB once, when the classifier is created, so classifying a box only
+ * costs a table lookup per sampled pixel and a majority vote.
+ *
+ * <p>Not thread-safe; use one instance per thread.
+ */
+public class HoldColorClassifier {
+  // Bits per channel of the lookup table; 5 bits give 32^3 entries.
+  private static final int BITS = 5;
+  private static final int LEVELS = 1 << BITS;
+  private static final int SHIFT = 8 - BITS;
+
+  // Shading on the wall changes lightness far more than hue, so lightness counts less.
+  private static final float LIGHTNESS_WEIGHT = 0.5f;
+  // Only the center of the box is sampled; its border mostly shows the wall.
+  private static final float INNER_FRACTION = 0.6f;
+  private static final int SAMPLES_PER_SIDE = 8;
+
+  private final byte[] lut = new byte[LEVELS * LEVELS * LEVELS];
+  private final int[] votes = new int[HoldPalette.size()];
+
+  public HoldColorClassifier() {
+    final float[][][] references = new float[HoldPalette.size()][][];
+    for (int i = 0; i < references.length; ++i) {
+      final int[] colors = HoldPalette.getReferenceColors(i);
+      references[i] = new float[colors.length][3];
+      for (int j = 0; j < colors.length; ++j) {
+        toLab(colors[j], references[i][j]);
+      }
+    }
+
+    final float[] lab = new float[3];
+    final int half = 1 << (SHIFT - 1);
+    for (int r = 0; r < LEVELS; ++r) {
+      for (int g = 0; g < LEVELS; ++g) {
+        for (int b = 0; b < LEVELS; ++b) {
+          // Classify the center of each cell.
+          final int rgb =
+              ((r << SHIFT) + half) << 16 | ((g << SHIFT) + half) << 8 | ((b << SHIFT) + half);
+          toLab(rgb, lab);
+          lut[(r << (2 * BITS)) | (g << BITS) | b] = (byte) nearest(references, lab);
+        }
+      }
+    }
+  }
+
+  /** Returns the palette index of a single ARGB pixel. */
+  public int classifyPixel(final int argb) {
+    return lut[((argb >> (16 + SHIFT)) & (LEVELS - 1)) << (2 * BITS)
+        | ((argb >> (8 + SHIFT)) & (LEVELS - 1)) << BITS
+        | ((argb >> SHIFT) & (LEVELS - 1))];
+  }
+
+  /**
+   * Returns the palette index of the most frequent color in the center of a box, or -1 if the box
+   * lies outside the image.
+   *
+   * @param pixels ARGB pixels of the image, row by row
+   */
+  public int classify(
+      final int[] pixels,
+      final int width,
+      final int height,
+      final float left,
+      final float top,
+      final float right,
+      final float bottom) {
+    final float insetX = (right - left) * (1 - INNER_FRACTION) / 2;
+    final float insetY = (bottom - top) * (1 - INNER_FRACTION) / 2;
+    final float x0 = Math.max(0, left + insetX);
+    final float y0 = Math.max(0, top + insetY);
+    final float x1 = Math.min(width, right - insetX);
+    final float y1 = Math.min(height, bottom - insetY);
+    if (x1 <= x0 || y1 <= y0) {
+      return -1;
+    }
+
+    Arrays.fill(votes, 0);
+    final float stepX = (x1 - x0) / SAMPLES_PER_SIDE;
+    final float stepY = (y1 - y0) / SAMPLES_PER_SIDE;
+    for (int i = 0; i < SAMPLES_PER_SIDE; ++i) {
+      final int row = (int) (y0 + (i + 0.5f) * stepY) * width;
+      for (int j = 0; j < SAMPLES_PER_SIDE; ++j) {
+        ++votes[classifyPixel(pixels[row + (int) (x0 + (j + 0.5f) * stepX)])];
+      }
+    }
+
+    int best = 0;
+    for (int i = 1; i < votes.length; ++i) {
+      if (votes[i] > votes[best]) {
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  private static int nearest(final float[][][] references, final float[] lab) {
+    int best = 0;
+    float bestDistance = Float.MAX_VALUE;
+    for (int i = 0; i < references.length; ++i) {
+      for (final float[] reference : references[i]) {
+        final float dl = (lab[0] - reference[0]) * LIGHTNESS_WEIGHT;
+        final float da = lab[1] - reference[1];
+        final float db = lab[2] - reference[2];
+        final float distance = dl * dl + da * da + db * db;
+        if (distance < bestDistance) {
+          bestDistance = distance;
+          best = i;
+        }
+      }
+    }
+    return best;
+  }
+
+  /** Converts an sRGB color to CIELAB with a D65 white point. */
+  static void toLab(final int rgb, final float[] lab) {
+    final double r = linearize((rgb >> 16) & 0xff);
+    final double g = linearize((rgb >> 8) & 0xff);
+    final double b = linearize(rgb & 0xff);
+
+    final double fx = labF((0.4124 * r + 0.3576 * g + 0.1805 * b) / 0.95047);
+    final double fy = labF(0.2126 * r + 0.7152 * g + 0.0722 * b);
+    final double fz = labF((0.0193 * r + 0.1192 * g + 0.9505 * b) / 1.08883);
+
+    lab[0] = (float) (116 * fy - 16);
+    lab[1] = (float) (500 * (fx - fy));
+    lab[2] = (float) (200 * (fy - fz));
+  }
+
+  private static double linearize(final int channel) {
+    final double c = channel / 255.0;
+    return c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+  }
+
+  private static double labF(final double t) {
+    return t > 216.0 / 24389 ? Math.cbrt(t) : (24389.0 / 27 * t + 16) / 116;
+  }
+}
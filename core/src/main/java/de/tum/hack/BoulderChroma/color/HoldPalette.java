@@ -0,0 +1,81 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.color;
+
+/**
+ * The hold colors of the gym, indexed in the same order as the detector labels. Every color has a
+ * display color for the overlay and one or more reference colors, which are what holds of that
+ * color look like on camera under the gym lighting.
+ */
+public final class HoldPalette {
+  private static final String[] NAMES = {
+    "black", "blue", "green", "orange", "red", "white", "yellow"
+  };
+
+  // ARGB, the same colors the tracker uses for boxes.
+  private static final int[] DISPLAY_COLORS = {
+    0xFF000000, 0xFF0000FF, 0xFF00FF00, 0xFFFFA500, 0xFFFF0000, 0xFFFFFFFF, 0xFFFFFF00
+  };
+
+  // RGB, sampled from photos of the wall (the same values the server matches against).
+  private static final int[][] REFERENCE_COLORS = {
+    {0x4f4744},
+    {0x718bbe, 0x31364a},
+    {0x9abf94, 0x395c44},
+    {0xf2bfa4},
+    {0xdf9288},
+    {0xd8d1c9},
+    {0xffe9a6}
+  };
+
+  private HoldPalette() {}
+
+  public static int size() {
+    return NAMES.length;
+  }
+
+  public static String getName(final int index) {
+    return NAMES[index];
+  }
+
+  public static int getDisplayColor(final int index) {
+    return DISPLAY_COLORS[index];
+  }
+
+  /** Returns the palette index of a color name, or -1 if it is not a hold color. */
+  public static int indexOf(final String name) {
+    for (int i = 0; i < NAMES.length; ++i) {
+      if (NAMES[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the palette index of a display color, or -1 if it is not one. */
+  public static int indexOfDisplayColor(final int color) {
+    for (int i = 0; i < DISPLAY_COLORS.length; ++i) {
+      if (DISPLAY_COLORS[i] == color) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  static int[] getReferenceColors(final int index) {
+    return REFERENCE_COLORS[index];
+  }
+}
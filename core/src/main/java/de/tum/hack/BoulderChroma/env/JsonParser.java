@@ -0,0 +1,200 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.env;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small JSON parser for the responses of the detection server, so that they can be read without
+ * {@code android.util.JsonReader}. Objects become {@link Map}s, arrays {@link List}s, numbers
+ * {@link Double}s, and {@code null} stays null.
+ */
+public final class JsonParser {
+  private final Reader reader;
+  // The next character, or -1 at the end of the input.
+  private int next;
+
+  private JsonParser(final Reader reader) throws IOException {
+    this.reader = reader;
+    next = reader.read();
+  }
+
+  /** Reads one JSON value from the reader. Trailing input is not checked. */
+  public static Object parse(final Reader reader) throws IOException {
+    return new JsonParser(reader).readValue();
+  }
+
+  private Object readValue() throws IOException {
+    skipWhitespace();
+    switch (next) {
+      case '{':
+        return readObject();
+      case '[':
+        return readArray();
+      case '"':
+        return readString();
+      case 't':
+        expect("true");
+        return Boolean.TRUE;
+      case 'f':
+        expect("false");
+        return Boolean.FALSE;
+      case 'n':
+        expect("null");
+        return null;
+      default:
+        return readNumber();
+    }
+  }
+
+  private Map<String, Object> readObject() throws IOException {
+    final Map<String, Object> object = new LinkedHashMap<>();
+    advance();
+    skipWhitespace();
+    if (next == '}') {
+      advance();
+      return object;
+    }
+    while (true) {
+      skipWhitespace();
+      final String name = readString();
+      skipWhitespace();
+      consume(':');
+      object.put(name, readValue());
+      skipWhitespace();
+      if (next == '}') {
+        advance();
+        return object;
+      }
+      consume(',');
+    }
+  }
+
+  private List<Object> readArray() throws IOException {
+    final List<Object> array = new ArrayList<>();
+    advance();
+    skipWhitespace();
+    if (next == ']') {
+      advance();
+      return array;
+    }
+    while (true) {
+      array.add(readValue());
+      skipWhitespace();
+      if (next == ']') {
+        advance();
+        return array;
+      }
+      consume(',');
+    }
+  }
+
+  private String readString() throws IOException {
+    consume('"');
+    final StringBuilder builder = new StringBuilder();
+    while (next != '"') {
+      if (next < 0) {
+        throw new IOException("Unterminated string");
+      }
+      if (next == '\\') {
+        advance();
+        switch (next) {
+          case 'b':
+            builder.append('\b');
+            break;
+          case 'f':
+            builder.append('\f');
+            break;
+          case 'n':
+            builder.append('\n');
+            break;
+          case 'r':
+            builder.append('\r');
+            break;
+          case 't':
+            builder.append('\t');
+            break;
+          case 'u':
+            int code = 0;
+            for (int i = 0; i < 4; ++i) {
+              advance();
+              final int digit = Character.digit(next, 16);
+              if (digit < 0) {
+                throw new IOException("Invalid unicode escape");
+              }
+              code = code * 16 + digit;
+            }
+            builder.append((char) code);
+            break;
+          default:
+            // Covers the quote, the backslash and the slash.
+            builder.append((char) next);
+            break;
+        }
+      } else {
+        builder.append((char) next);
+      }
+      advance();
+    }
+    advance();
+    return builder.toString();
+  }
+
+  private Double readNumber() throws IOException {
+    final StringBuilder builder = new StringBuilder();
+    while (next == '-' || next == '+' || next == '.' || next == 'e' || next == 'E'
+        || (next >= '0' && next <= '9')) {
+      builder.append((char) next);
+      advance();
+    }
+    if (builder.length() == 0) {
+      throw new IOException("Unexpected character: " + (next < 0 ? "end of input" : (char) next));
+    }
+    try {
+      return Double.valueOf(builder.toString());
+    } catch (final NumberFormatException e) {
+      throw new IOException("Invalid number: " + builder, e);
+    }
+  }
+
+  private void expect(final String literal) throws IOException {
+    for (int i = 0; i < literal.length(); ++i) {
+      consume(literal.charAt(i));
+    }
+  }
+
+  private void consume(final char expected) throws IOException {
+    if (next != expected) {
+      final String actual = next < 0 ? "end of input" : "'" + (char) next + "'";
+      throw new IOException("Expected '" + expected + "' but got " + actual);
+    }
+    advance();
+  }
+
+  private void skipWhitespace() throws IOException {
+    while (next == ' ' || next == '\t' || next == '\n' || next == '\r') {
+      advance();
+    }
+  }
+
+  private void advance() throws IOException {
+    next = reader.read();
+  }
+}
@@ -0,0 +1,59 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.governor;
+
+/** The condition of the device the governor reacts to, as read at one moment. */
+public final class DeviceState {
+  // Thermal status levels, with the values of PowerManager.THERMAL_STATUS_*.
+  public static final int THERMAL_NONE = 0;
+  public static final int THERMAL_LIGHT = 1;
+  public static final int THERMAL_MODERATE = 2;
+  public static final int THERMAL_SEVERE = 3;
+  public static final int THERMAL_CRITICAL = 4;
+  public static final int THERMAL_EMERGENCY = 5;
+  public static final int THERMAL_SHUTDOWN = 6;
+
+  /** A device that is cool and plugged in, for when nothing can be read. */
+  public static final DeviceState UNKNOWN = new DeviceState(THERMAL_NONE, -1, true, false);
+
+  public final int thermalStatus;
+  /** Remaining battery charge in percent, or -1 if unknown. */
+  public final int batteryPercent;
+  public final boolean charging;
+  public final boolean powerSave;
+
+  public DeviceState(
+      final int thermalStatus,
+      final int batteryPercent,
+      final boolean charging,
+      final boolean powerSave) {
+    this.thermalStatus = thermalStatus;
+    this.batteryPercent = batteryPercent;
+    this.charging = charging;
+    this.powerSave = powerSave;
+  }
+
+  @Override
+  public String toString() {
+    return "thermal "
+        + thermalStatus
+        + ", battery "
+        + batteryPercent
+        + "%"
+        + (charging ? " charging" : "")
+        + (powerSave ? ", power save" : "");
+  }
+}
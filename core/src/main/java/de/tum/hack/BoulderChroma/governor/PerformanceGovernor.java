@@ -0,0 +1,238 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.governor;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Chooses a {@link PerformanceProfile} from the thermal status, the battery and the measured
+ * detection latency, so that a throttling phone degrades step by step instead of stuttering.
+ *
+ * <p>Each signal asks for a minimum step on the ladder: the thermal status and a low, discharging
+ * battery map to fixed steps, and a latency that stays over budget for a while asks for one step
+ * more than the current one. The governor follows the highest request. It moves down the ladder
+ * as soon as a request comes in, at most once per {@link #DEGRADE_DWELL_MS}, but climbs back only
+ * one step at a time, only after every request has been lower for {@link #RECOVER_DWELL_MS} and
+ * only if the latency predicted for the better profile fits the budget.
+ *
+ * <p>Time and device state are passed in, so the governor can be driven by simulated signals.
+ */
+public class PerformanceGovernor {
+  /** Shortest time between two steps down the ladder. */
+  public static final long DEGRADE_DWELL_MS = 2000;
+  /** How long all signals must allow a better profile before the governor steps up. */
+  public static final long RECOVER_DWELL_MS = 30000;
+
+  // Weight of the newest sample in the moving average of the detection latency.
+  private static final float SMOOTHING = 0.2f;
+  // How long the latency must stay over budget before it asks for a cheaper profile.
+  private static final long LATENCY_SUSTAIN_MS = 5000;
+  // The latency allows a better profile again once it stays below this fraction of the budget.
+  private static final float LATENCY_RECOVER_FRACTION = 0.5f;
+  // Step up only if the latency predicted for the better profile stays below this fraction of the
+  // budget, so that the governor does not step right back down.
+  private static final float UPGRADE_HEADROOM = 0.7f;
+  // Below these charges, a discharging battery asks for the first and second step down.
+  private static final int LOW_BATTERY_PERCENT = 30;
+  private static final int CRITICAL_BATTERY_PERCENT = 15;
+
+  /** The signal that holds the governor at its current step. */
+  public enum Reason {
+    NONE,
+    THERMAL,
+    BATTERY,
+    LATENCY,
+    /** All signals allow a better profile, which the governor is waiting to climb to. */
+    RECOVERY
+  }
+
+  private final List<PerformanceProfile> ladder;
+  private final long latencyBudgetMs;
+
+  private int step = 0;
+  private Reason reason = Reason.NONE;
+  private long lastChangeMs = Long.MIN_VALUE / 2;
+  private long recoverSinceMs = -1;
+
+  private float averageLatencyMs = -1;
+  private int latencyStep = 0;
+  private long overBudgetSinceMs = -1;
+  private long underBudgetSinceMs = -1;
+
+  /**
+   * @param ladder the profiles from the best detection to the lowest cost
+   * @param latencyBudgetMs the detection latency the governor tries to stay under
+   */
+  public PerformanceGovernor(final List<PerformanceProfile> ladder, final long latencyBudgetMs) {
+    if (ladder.isEmpty()) {
+      throw new IllegalArgumentException("No profiles");
+    }
+    this.ladder = ladder;
+    this.latencyBudgetMs = latencyBudgetMs;
+  }
+
+  public synchronized PerformanceProfile getProfile() {
+    return ladder.get(step);
+  }
+
+  public synchronized Reason getReason() {
+    return reason;
+  }
+
+  /** Returns the profile and what holds it there, e.g. "saver (thermal)". */
+  public synchronized String describe() {
+    final String name = ladder.get(step).name;
+    if (reason == Reason.NONE) {
+      return name;
+    }
+    return name + " (" + reason.name().toLowerCase(Locale.ROOT) + ")";
+  }
+
+  /** Records the latency of one detection. */
+  public synchronized void onDetectionLatency(final long latencyMs) {
+    averageLatencyMs =
+        averageLatencyMs < 0
+            ? latencyMs
+            : averageLatencyMs + SMOOTHING * (latencyMs - averageLatencyMs);
+  }
+
+  /**
+   * Takes in the current device state and moves along the ladder if due. Call regularly, about
+   * once a second.
+   *
+   * @return true if the profile changed as a result
+   */
+  public synchronized boolean update(final long nowMs, final DeviceState state) {
+    updateLatencyStep(nowMs);
+
+    final int thermalStep = clamp(getThermalStep(state.thermalStatus));
+    final int batteryStep = clamp(getBatteryStep(state));
+    int target = thermalStep;
+    Reason targetReason = thermalStep > 0 ? Reason.THERMAL : Reason.NONE;
+    if (batteryStep > target) {
+      target = batteryStep;
+      targetReason = Reason.BATTERY;
+    }
+    if (latencyStep > target) {
+      target = latencyStep;
+      targetReason = Reason.LATENCY;
+    }
+    if (target < step && !fitsBudget(step - 1)) {
+      target = step;
+      targetReason = Reason.LATENCY;
+    }
+
+    if (target > step) {
+      recoverSinceMs = -1;
+      if (nowMs - lastChangeMs < DEGRADE_DWELL_MS) {
+        return false;
+      }
+      return changeStep(target, targetReason, nowMs);
+    }
+    if (target < step) {
+      reason = Reason.RECOVERY;
+      if (recoverSinceMs < 0) {
+        recoverSinceMs = nowMs;
+      }
+      if (nowMs - recoverSinceMs < RECOVER_DWELL_MS) {
+        return false;
+      }
+      // Climb one step and wait again, to see how the device copes with it.
+      recoverSinceMs = -1;
+      return changeStep(step - 1, step - 1 > target ? Reason.RECOVERY : targetReason, nowMs);
+    }
+    recoverSinceMs = -1;
+    reason = targetReason;
+    return false;
+  }
+
+  private boolean changeStep(final int newStep, final Reason newReason, final long nowMs) {
+    step = newStep;
+    reason = newReason;
+    lastChangeMs = nowMs;
+    // Judge the new profile by its own latency.
+    averageLatencyMs = -1;
+    overBudgetSinceMs = -1;
+    underBudgetSinceMs = -1;
+    return true;
+  }
+
+  /**
+   * Returns whether the latency measured with the current profile is expected to fit the budget
+   * with the profile at {@code newStep}. Inference cost grows with the number of input pixels.
+   */
+  private boolean fitsBudget(final int newStep) {
+    if (averageLatencyMs < 0) {
+      return true;
+    }
+    final float scale = (float) ladder.get(newStep).maxInputSize / ladder.get(step).maxInputSize;
+    return averageLatencyMs * scale * scale < latencyBudgetMs * UPGRADE_HEADROOM;
+  }
+
+  private void updateLatencyStep(final long nowMs) {
+    if (averageLatencyMs < 0) {
+      return;
+    }
+    if (averageLatencyMs > latencyBudgetMs) {
+      underBudgetSinceMs = -1;
+      if (overBudgetSinceMs < 0) {
+        overBudgetSinceMs = nowMs;
+      } else if (nowMs - overBudgetSinceMs >= LATENCY_SUSTAIN_MS) {
+        latencyStep = clamp(step + 1);
+        overBudgetSinceMs = -1;
+      }
+    } else if (averageLatencyMs < latencyBudgetMs * LATENCY_RECOVER_FRACTION) {
+      overBudgetSinceMs = -1;
+      if (underBudgetSinceMs < 0) {
+        underBudgetSinceMs = nowMs;
+      } else if (nowMs - underBudgetSinceMs >= LATENCY_SUSTAIN_MS && latencyStep > 0) {
+        latencyStep = Math.min(latencyStep, step) - 1;
+        underBudgetSinceMs = -1;
+      }
+    } else {
+      overBudgetSinceMs = -1;
+      underBudgetSinceMs = -1;
+    }
+  }
+
+  private static int getThermalStep(final int thermalStatus) {
+    if (thermalStatus >= DeviceState.THERMAL_CRITICAL) {
+      return 3;
+    } else if (thermalStatus >= DeviceState.THERMAL_SEVERE) {
+      return 2;
+    } else if (thermalStatus >= DeviceState.THERMAL_MODERATE) {
+      return 1;
+    }
+    return 0;
+  }
+
+  private static int getBatteryStep(final DeviceState state) {
+    if (state.charging || state.batteryPercent < 0) {
+      return state.powerSave ? 1 : 0;
+    }
+    if (state.batteryPercent <= CRITICAL_BATTERY_PERCENT) {
+      return 2;
+    } else if (state.batteryPercent <= LOW_BATTERY_PERCENT || state.powerSave) {
+      return 1;
+    }
+    return 0;
+  }
+
+  private int clamp(final int step) {
+    return Math.max(0, Math.min(step, ladder.size() - 1));
+  }
+}
@@ -0,0 +1,76 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.governor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A bundle of the settings that trade detection quality for power and heat. The profiles of
+ * {@link #LADDER} go from the best detection to the lowest cost, and every step lowers the cost of
+ * each stage: fewer camera pixels to convert, a smaller model input, fewer detections, fewer
+ * inference threads and smaller uploads.
+ */
+public final class PerformanceProfile {
+  public static final PerformanceProfile FULL =
+      new PerformanceProfile("full", 640, 480, 512, 0, 4, 95);
+  public static final PerformanceProfile BALANCED =
+      new PerformanceProfile("balanced", 640, 480, 416, 250, 2, 85);
+  public static final PerformanceProfile SAVER =
+      new PerformanceProfile("saver", 320, 240, 320, 500, 2, 75);
+  public static final PerformanceProfile MINIMAL =
+      new PerformanceProfile("minimal", 320, 240, 256, 1000, 1, 60);
+
+  /** The profiles from the best detection to the lowest cost. */
+  public static final List<PerformanceProfile> LADDER =
+      Collections.unmodifiableList(Arrays.asList(FULL, BALANCED, SAVER, MINIMAL));
+
+  public final String name;
+  /** Preview size requested from the camera. Takes effect when the camera is opened next. */
+  public final int previewWidth;
+  public final int previewHeight;
+  /** Largest model input tier the input size controller may choose. */
+  public final int maxInputSize;
+  /** Shortest time between two detections, however unstable the scene. */
+  public final long minDetectionIntervalMs;
+  /** Most inference threads; fewer are used if calibration or the user chose fewer. */
+  public final int maxThreads;
+  /** JPEG quality of the crops uploaded to the detection server. */
+  public final int jpegQuality;
+
+  public PerformanceProfile(
+      final String name,
+      final int previewWidth,
+      final int previewHeight,
+      final int maxInputSize,
+      final long minDetectionIntervalMs,
+      final int maxThreads,
+      final int jpegQuality) {
+    this.name = name;
+    this.previewWidth = previewWidth;
+    this.previewHeight = previewHeight;
+    this.maxInputSize = maxInputSize;
+    this.minDetectionIntervalMs = minDetectionIntervalMs;
+    this.maxThreads = maxThreads;
+    this.jpegQuality = jpegQuality;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,101 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts what became of every camera frame, so that it shows where throughput is lost. Each frame
+ * the camera delivers ends in one of the camera fates; each frame that was processed, in one of
+ * the detection fates as well.
+ */
+public final class FrameLedger {
+  /** What became of a frame. */
+  public enum Fate {
+    /** The camera delivered it while the previous frame was still being processed. */
+    CAMERA_BUSY("camera busy", true),
+    /** Reading it from the camera failed. */
+    CAMERA_ERROR("camera error", true),
+    /** It was tracked, and possibly sent to detection. */
+    PROCESSED("processed", true),
+    /** No detection was due; only the tracker saw it. */
+    NOT_DUE("not due", false),
+    /** All frames of the detection pipeline were taken. */
+    PIPELINE_BUSY("pipeline busy", false),
+    /** It waited in the pipeline and was pushed out by a newer frame. */
+    SUPERSEDED("superseded", false),
+    /** Detection failed. */
+    DETECTION_ERROR("detect error", false),
+    /** Its detections were handed to the tracker. */
+    RESULT_APPLIED("applied", false),
+    /** Its detections arrived after those of a newer frame and were discarded. */
+    RESULT_STALE("stale", false);
+
+    public final String label;
+    /** Whether this is a camera fate rather than a detection fate. */
+    public final boolean camera;
+
+    Fate(final String label, final boolean camera) {
+      this.label = label;
+      this.camera = camera;
+    }
+  }
+
+  private static final Fate[] FATES = Fate.values();
+
+  private final AtomicLongArray counts = new AtomicLongArray(FATES.length);
+  // Counts and time of the previous call to formatRates, which must come from one thread.
+  private final long[] previousCounts = new long[FATES.length];
+  private long previousTimeMs = -1;
+
+  public void record(final Fate fate) {
+    counts.incrementAndGet(fate.ordinal());
+  }
+
+  public long getCount(final Fate fate) {
+    return counts.get(fate.ordinal());
+  }
+
+  /**
+   * Returns the rate of every fate in frames per second since the previous call and its total, one
+   * per line, the camera fates first. The first call reports the rates since {@code startMs}.
+   *
+   * @param nowMs the current time, in the time base of {@code startMs}
+   * @param startMs when counting started, used by the first call
+   */
+  public String formatRates(final long nowMs, final long startMs) {
+    final long sinceMs = previousTimeMs >= 0 ? previousTimeMs : startMs;
+    final double seconds = Math.max(1, nowMs - sinceMs) / 1000.0;
+    final StringBuilder builder = new StringBuilder();
+    for (final Fate fate : FATES) {
+      final long count = counts.get(fate.ordinal());
+      if (builder.length() > 0) {
+        builder.append('\n');
+      }
+      // Detection fates are indented, they split up the processed frames.
+      builder.append(
+          String.format(
+              Locale.ROOT,
+              "%-16s %6.1f/s %8d",
+              (fate.camera ? "" : "  ") + fate.label,
+              (count - previousCounts[fate.ordinal()]) / seconds,
+              count));
+      previousCounts[fate.ordinal()] = count;
+    }
+    previousTimeMs = nowMs;
+    return builder.toString();
+  }
+}
@@ -0,0 +1,87 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.metrics;
+
+/**
+ * Trace sections for system traces, so that the core code can be traced without depending on
+ * Android. Besides the usual sections, which must begin and end on the same thread, frames get
+ * asynchronous sections keyed by their id: these may begin on one thread and end on another, so
+ * the way of one camera frame through the pipeline threads shows up as one flow.
+ *
+ * <p>Nothing is traced until a backend is set, which should happen once at startup.
+ */
+public final class FrameTrace {
+  /** Writes the sections to the system trace. */
+  public interface Backend {
+    /** Returns whether a trace is being recorded. */
+    boolean isEnabled();
+
+    void beginSection(String name);
+
+    void endSection();
+
+    void beginAsyncSection(String name, int cookie);
+
+    void endAsyncSection(String name, int cookie);
+  }
+
+  private static volatile Backend backend;
+
+  private FrameTrace() {}
+
+  public static void setBackend(final Backend traceBackend) {
+    backend = traceBackend;
+  }
+
+  /** Returns whether a trace is being recorded, e.g. to skip building section names. */
+  public static boolean isEnabled() {
+    final Backend current = backend;
+    return current != null && current.isEnabled();
+  }
+
+  /** Begins a section on the current thread. Every call must be matched by {@link #endSection}. */
+  public static void beginSection(final String name) {
+    final Backend current = backend;
+    if (current != null) {
+      current.beginSection(name);
+    }
+  }
+
+  public static void endSection() {
+    final Backend current = backend;
+    if (current != null) {
+      current.endSection();
+    }
+  }
+
+  /**
+   * Begins the section {@code name} of a frame. It may be ended by {@link #endFrame} on any thread,
+   * with the same name and frame id.
+   */
+  public static void beginFrame(final String name, final long frameId) {
+    final Backend current = backend;
+    // Checked first, writing an asynchronous section may be costly even when nothing records.
+    if (current != null && current.isEnabled()) {
+      current.beginAsyncSection(name, (int) frameId);
+    }
+  }
+
+  public static void endFrame(final String name, final long frameId) {
+    final Backend current = backend;
+    if (current != null && current.isEnabled()) {
+      current.endAsyncSection(name, (int) frameId);
+    }
+  }
+}
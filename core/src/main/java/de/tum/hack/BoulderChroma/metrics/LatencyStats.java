@@ -0,0 +1,129 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.metrics;
+
+import java.util.Locale;
+
+/**
+ * Latency histograms of the stages a camera frame passes through, from the YUV conversion to the
+ * overlay that is drawn. Durations accumulate from creation on.
+ */
+public final class LatencyStats {
+  /** The stages that are timed. */
+  public enum Stage {
+    /** Conversion of the camera frame from YUV to ARGB. */
+    YUV("yuv"),
+    /** Drawing the frame into the crop or tiles the detector takes. */
+    PREPROCESS("preprocess"),
+    /** Writing the input tensor, or compressing the JPEG for the server. */
+    ENCODE("encode"),
+    /** The interpreter run, or the round trip to the server. */
+    INFERENCE("inference"),
+    /** Turning the model output or the server response into boxes. */
+    DECODE("decode"),
+    /** Flow tracking of every frame and matching of every detection with the tracks. */
+    TRACKING("tracking"),
+    /** Drawing the tracked boxes onto the overlay. */
+    DRAW("draw");
+
+    public final String key;
+
+    Stage(final String key) {
+      this.key = key;
+    }
+  }
+
+  private static final Stage[] STAGES = Stage.values();
+  private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+  private static final String[] PERCENTILE_KEYS = {"p50", "p90", "p99"};
+
+  private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+
+  public LatencyStats() {
+    for (int i = 0; i < histograms.length; ++i) {
+      histograms[i] = new LatencyHistogram();
+    }
+  }
+
+  public LatencyHistogram get(final Stage stage) {
+    return histograms[stage.ordinal()];
+  }
+
+  /** Records the time from {@code startNanos}, a {@link System#nanoTime()} value, until now. */
+  public void recordSince(final Stage stage, final long startNanos) {
+    histograms[stage.ordinal()].recordSince(startNanos);
+  }
+
+  /**
+   * Returns one line per stage that has recorded anything, with its percentiles and maximum in
+   * milliseconds.
+   */
+  public String format() {
+    final StringBuilder builder = new StringBuilder();
+    builder.append(
+        String.format(Locale.ROOT, "%-10s %6s %6s %6s %6s", "ms", "p50", "p90", "p99", "max"));
+    for (final Stage stage : STAGES) {
+      final LatencyHistogram.Snapshot snapshot = get(stage).snapshot();
+      if (snapshot.getCount() == 0) {
+        continue;
+      }
+      builder.append('\n').append(String.format(Locale.ROOT, "%-10s", stage.key));
+      for (final double percentile : PERCENTILES) {
+        builder.append(
+            String.format(
+                Locale.ROOT, " %6.1f", snapshot.getPercentileMicros(percentile) / 1000.0));
+      }
+      builder.append(String.format(Locale.ROOT, " %6.1f", snapshot.getMaxMicros() / 1000.0));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Returns all histograms as one line of JSON. Besides the percentiles, it holds the count of
+   * every nonempty bucket as [upper bound in us, count] pairs, so that snapshots taken at different
+   * times can be subtracted from each other.
+   */
+  public String toJson(final long timestampMs) {
+    final StringBuilder json = new StringBuilder();
+    json.append("{\"timestampMs\":").append(timestampMs).append(",\"stages\":{");
+    for (int i = 0; i < STAGES.length; ++i) {
+      final LatencyHistogram.Snapshot snapshot = get(STAGES[i]).snapshot();
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append('"').append(STAGES[i].key).append("\":{\"count\":").append(snapshot.getCount());
+      for (int p = 0; p < PERCENTILES.length; ++p) {
+        json.append(",\"").append(PERCENTILE_KEYS[p]).append("Us\":");
+        json.append(snapshot.getPercentileMicros(PERCENTILES[p]));
+      }
+      json.append(",\"maxUs\":").append(snapshot.getMaxMicros()).append(",\"buckets\":[");
+      boolean first = true;
+      for (int b = 0; b < snapshot.getBucketCount(); ++b) {
+        final long count = snapshot.getCountInBucket(b);
+        if (count == 0) {
+          continue;
+        }
+        if (!first) {
+          json.append(',');
+        }
+        first = false;
+        json.append('[').append(snapshot.getBucketUpperBoundMicros(b)).append(',');
+        json.append(count).append(']');
+      }
+      json.append("]}");
+    }
+    return json.append("}}").toString();
+  }
+}
@@ -0,0 +1,84 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.pipeline;
+
+import java.util.ArrayDeque;
+
+/**
+ * A bounded queue in front of a stage. When it is full, a new item pushes out the oldest one, so
+ * that a slow stage always picks up the freshest work and never falls behind the camera. Items
+ * pushed out, or left over when the queue is closed, are recycled.
+ */
+final class LatestWinsQueue<T> {
+  private final ArrayDeque<T> items;
+  private final int capacity;
+  private final Recycler<T> recycler;
+  private boolean closed = false;
+  private int dropped = 0;
+
+  LatestWinsQueue(final int capacity, final Recycler<T> recycler) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive.");
+    }
+    this.items = new ArrayDeque<>(capacity);
+    this.capacity = capacity;
+    this.recycler = recycler;
+  }
+
+  void offer(final T item) {
+    final T evicted;
+    synchronized (this) {
+      if (closed) {
+        evicted = item;
+      } else {
+        evicted = items.size() == capacity ? items.poll() : null;
+        items.add(item);
+        notify();
+      }
+      if (evicted != null) {
+        ++dropped;
+      }
+    }
+    if (evicted != null) {
+      recycler.recycle(evicted);
+    }
+  }
+
+  /** Waits for the next item; returns null once the queue is closed. */
+  synchronized T take() throws InterruptedException {
+    while (items.isEmpty() && !closed) {
+      wait();
+    }
+    return closed ? null : items.poll();
+  }
+
+  void close() {
+    final ArrayDeque<T> remaining;
+    synchronized (this) {
+      closed = true;
+      remaining = new ArrayDeque<>(items);
+      items.clear();
+      notifyAll();
+    }
+    for (final T item : remaining) {
+      recycler.recycle(item);
+    }
+  }
+
+  /** Returns how many items were pushed out so far. */
+  synchronized int getDropped() {
+    return dropped;
+  }
+}
@@ -0,0 +1,199 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs items through a fixed sequence of stages. Every stage has its own threads and a bounded
+ * {@link LatestWinsQueue} in front, so stages work on different items at the same time, e.g. one
+ * frame is converted while the previous one is in inference, and a slow stage drops stale items
+ * instead of building up a backlog.
+ *
+ * <p>An item is owned by exactly one party at a time: the submitter until {@link #submit}, then
+ * the queue or the stage working on it. Items leave the pipeline through the {@link Recycler},
+ * whether they passed the last stage, were dropped by a stage or pushed out of a queue. A stage
+ * that throws a {@link RuntimeException} drops the item, reports it to the {@link ErrorHandler}
+ * and carries on with the next one.
+ *
+ * <pre>{@code
+ * Pipeline<Frame> pipeline =
+ *     new Pipeline<>(pool::release)
+ *         .addStage("convert", convert, 1, 1)
+ *         .addStage("infer", infer, 2, 1)
+ *         .start();
+ * }</pre>
+ */
+public final class Pipeline<T> {
+  // Longest time close() waits for the stages to finish their items, about a slow inference.
+  private static final long CLOSE_TIMEOUT_MS = 5000;
+
+  private final Recycler<T> recycler;
+  private final List<String> names = new ArrayList<>();
+  private final List<Stage<T>> stages = new ArrayList<>();
+  private final List<Integer> parallelisms = new ArrayList<>();
+  private final List<LatestWinsQueue<T>> queues = new ArrayList<>();
+  private final List<ExecutorService> executors = new ArrayList<>();
+  private ErrorHandler<T> errorHandler =
+      new ErrorHandler<T>() {
+        @Override
+        public void onError(final String stage, final T item, final RuntimeException e) {
+          e.printStackTrace();
+        }
+      };
+  private boolean started = false;
+
+  public Pipeline(final Recycler<T> recycler) {
+    this.recycler = recycler;
+  }
+
+  /**
+   * Appends a stage. Only allowed before {@link #start()}.
+   *
+   * @param parallelism number of threads working on items of this stage at the same time
+   * @param queueCapacity number of items that may wait for the stage before the oldest is dropped
+   */
+  public Pipeline<T> addStage(
+      final String name, final Stage<T> stage, final int parallelism, final int queueCapacity) {
+    if (started) {
+      throw new IllegalStateException("Pipeline already started.");
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive.");
+    }
+    names.add(name);
+    stages.add(stage);
+    parallelisms.add(parallelism);
+    queues.add(new LatestWinsQueue<>(queueCapacity, recycler));
+    return this;
+  }
+
+  /**
+   * Sets what is told about items a stage threw on; by default the stack trace is printed. Only
+   * allowed before {@link #start()}.
+   */
+  public Pipeline<T> setErrorHandler(final ErrorHandler<T> errorHandler) {
+    if (started) {
+      throw new IllegalStateException("Pipeline already started.");
+    }
+    this.errorHandler = errorHandler;
+    return this;
+  }
+
+  /** Starts the threads of all stages. */
+  public synchronized Pipeline<T> start() {
+    if (started) {
+      throw new IllegalStateException("Pipeline already started.");
+    }
+    started = true;
+    for (int i = 0; i < stages.size(); ++i) {
+      final int parallelism = parallelisms.get(i);
+      final ExecutorService executor =
+          Executors.newFixedThreadPool(parallelism, threadFactory(names.get(i)));
+      for (int k = 0; k < parallelism; ++k) {
+        executor.execute(worker(i));
+      }
+      executors.add(executor);
+    }
+    return this;
+  }
+
+  private static ThreadFactory threadFactory(final String name) {
+    return new ThreadFactory() {
+      private int count = 0;
+
+      @Override
+      public synchronized Thread newThread(final Runnable runnable) {
+        return new Thread(runnable, "pipeline-" + name + "-" + count++);
+      }
+    };
+  }
+
+  private Runnable worker(final int index) {
+    final LatestWinsQueue<T> queue = queues.get(index);
+    final String name = names.get(index);
+    final Stage<T> stage = stages.get(index);
+    final LatestWinsQueue<T> next = index + 1 < queues.size() ? queues.get(index + 1) : null;
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+          T item;
+          while ((item = queue.take()) != null) {
+            boolean passed = false;
+            try {
+              passed = stage.process(item);
+            } catch (final RuntimeException e) {
+              // A failure on one item must not end the stage; its thread would not come back.
+              errorHandler.onError(name, item, e);
+            } finally {
+              if (passed && next != null) {
+                next.offer(item);
+              } else {
+                recycler.recycle(item);
+              }
+            }
+          }
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+  }
+
+  /** Hands an item to the first stage. After {@link #close()}, it is recycled right away. */
+  public void submit(final T item) {
+    queues.get(0).offer(item);
+  }
+
+  /** Returns how many items were pushed out of the queue in front of a stage so far. */
+  public int getDropped(final int stage) {
+    return queues.get(stage).getDropped();
+  }
+
+  /**
+   * Stops taking new items and recycles the waiting ones. Stages finish the item they are working
+   * on, and this waits until their threads have ended, so that what the stages use can be released
+   * afterwards.
+   *
+   * @return whether all threads ended within {@link #CLOSE_TIMEOUT_MS}
+   */
+  public synchronized boolean close() {
+    for (final LatestWinsQueue<T> queue : queues) {
+      queue.close();
+    }
+    for (final ExecutorService executor : executors) {
+      executor.shutdown();
+    }
+    final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MS);
+    try {
+      for (final ExecutorService executor : executors) {
+        if (!executor.awaitTermination(
+            deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+          return false;
+        }
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    return true;
+  }
+}
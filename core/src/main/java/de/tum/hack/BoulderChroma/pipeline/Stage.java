@@ -0,0 +1,25 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.pipeline;
+
+/** One step of a {@link Pipeline}. */
+public interface Stage<T> {
+  /**
+   * Works on an item the stage owns until it returns. Called on the threads of the stage only.
+   *
+   * @return true to hand the item to the next stage, false to drop it
+   */
+  boolean process(T item);
+}
@@ -0,0 +1,39 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.replay;
+
+/** A camera frame in NV21 layout, as delivered by the preview of the app. */
+public final class Frame {
+  /** Where the frame came from, e.g. its file name. */
+  public final String name;
+  public final long timestampMs;
+  public final int width;
+  public final int height;
+  /** The full-resolution Y plane followed by the interleaved V and U planes at half resolution. */
+  public final byte[] nv21;
+
+  public Frame(
+      final String name,
+      final long timestampMs,
+      final int width,
+      final int height,
+      final byte[] nv21) {
+    this.name = name;
+    this.timestampMs = timestampMs;
+    this.width = width;
+    this.height = height;
+    this.nv21 = nv21;
+  }
+}
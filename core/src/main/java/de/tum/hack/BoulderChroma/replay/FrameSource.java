@@ -0,0 +1,27 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.replay;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A sequence of camera frames, such as the live preview or a recording. Lets the detection and
+ * tracking code run on frames that do not come from a camera.
+ */
+public interface FrameSource extends Closeable {
+  /** Returns the next frame, or null once there are no more. */
+  Frame next() throws IOException;
+}
@@ -0,0 +1,47 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tflite;
+
+/**
+ * A box found by a detector, in the coordinates of the image it was found in. The plain Java
+ * counterpart of {@code Classifier.Recognition}.
+ */
+public final class DetectedBox {
+  /** Identifier of the class, e.g. the label index of the model. */
+  public final String id;
+  public final String title;
+  public final float confidence;
+  public final float left;
+  public final float top;
+  public final float right;
+  public final float bottom;
+
+  public DetectedBox(
+      final String id,
+      final String title,
+      final float confidence,
+      final float left,
+      final float top,
+      final float right,
+      final float bottom) {
+    this.id = id;
+    this.title = title;
+    this.confidence = confidence;
+    this.left = left;
+    this.top = top;
+    this.right = right;
+    this.bottom = bottom;
+  }
+}
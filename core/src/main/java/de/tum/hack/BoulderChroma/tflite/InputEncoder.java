@@ -0,0 +1,42 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tflite;
+
+import java.nio.ByteBuffer;
+
+/** Writes ARGB pixels into the input tensor of the detection model. */
+public final class InputEncoder {
+  private InputEncoder() {}
+
+  /**
+   * Appends {@code count} pixels to {@code out} as RGB, one byte per channel for quantized models
+   * and one float per channel, unnormalized, for float models.
+   */
+  public static void encode(
+      final int[] pixels, final int count, final boolean quantized, final ByteBuffer out) {
+    for (int i = 0; i < count; ++i) {
+      final int pixelValue = pixels[i];
+      if (quantized) {
+        out.put((byte) ((pixelValue >> 16) & 0xFF));
+        out.put((byte) ((pixelValue >> 8) & 0xFF));
+        out.put((byte) (pixelValue & 0xFF));
+      } else {
+        out.putFloat((pixelValue >> 16) & 0xFF);
+        out.putFloat((pixelValue >> 8) & 0xFF);
+        out.putFloat(pixelValue & 0xFF);
+      }
+    }
+  }
+}
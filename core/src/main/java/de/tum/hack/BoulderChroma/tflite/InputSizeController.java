@@ -0,0 +1,120 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.tflite;
+
+/**
+ * Chooses the model input resolution from a fixed set of tiers based on recent frame latency.
+ *
+ * <p>Latency is smoothed with an exponential moving average. The controller steps down one tier
+ * when the average exceeds the budget, and steps up again only when the larger input is expected
+ * to fit comfortably, so that it does not oscillate between two tiers.
+ */
+public class InputSizeController {
+  /** Input resolutions supported by the model, smallest first. All are multiples of 32. */
+  public static final int[] DEFAULT_TIERS = {256, 320, 416, 512};
+
+  // Weight of the newest sample in the moving average.
+  private static final float SMOOTHING = 0.2f;
+  // Step up only if the predicted latency stays below this fraction of the budget.
+  private static final float UPGRADE_HEADROOM = 0.7f;
+  // Number of frames to wait after a tier change before judging the new tier.
+  private static final int SETTLE_FRAMES = 8;
+
+  private final int[] tiers;
+  private final long budgetMs;
+  private int tier;
+  private int maxTier;
+  private float averageMs = -1;
+  private int framesSinceChange = 0;
+
+  /**
+   * @param tiers available input sizes, in ascending order
+   * @param initialSize the tier to start with; must be one of {@code tiers}
+   * @param budgetMs the per-frame latency the controller tries to stay under
+   */
+  public InputSizeController(final int[] tiers, final int initialSize, final long budgetMs) {
+    this.tiers = tiers.clone();
+    this.budgetMs = budgetMs;
+    this.tier = indexOf(initialSize);
+    this.maxTier = this.tiers.length - 1;
+  }
+
+  private int indexOf(final int size) {
+    for (int i = 0; i < tiers.length; ++i) {
+      if (tiers[i] == size) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Unknown input size tier: " + size);
+  }
+
+  public synchronized int getInputSize() {
+    return tiers[tier];
+  }
+
+  /**
+   * Limits the controller to the tiers up to {@code maxSize}, stepping down right away if the
+   * current tier is larger.
+   */
+  public synchronized void setMaxInputSize(final int maxSize) {
+    int newMaxTier = 0;
+    while (newMaxTier < tiers.length - 1 && tiers[newMaxTier + 1] <= maxSize) {
+      ++newMaxTier;
+    }
+    maxTier = newMaxTier;
+    if (tier > maxTier) {
+      changeTier(maxTier);
+    }
+  }
+
+  public synchronized float getAverageLatencyMs() {
+    return averageMs;
+  }
+
+  /**
+   * Records the end-to-end latency of one processed frame.
+   *
+   * @return true if the input size changed as a result
+   */
+  public synchronized boolean onFrameProcessed(final long latencyMs) {
+    averageMs = averageMs < 0 ? latencyMs : averageMs + SMOOTHING * (latencyMs - averageMs);
+    if (++framesSinceChange < SETTLE_FRAMES) {
+      return false;
+    }
+
+    if (averageMs > budgetMs && tier > 0) {
+      return changeTier(tier - 1);
+    }
+
+    if (tier < maxTier) {
+      // Inference cost grows with the number of input pixels.
+      final float scale = (float) tiers[tier + 1] / tiers[tier];
+      if (averageMs * scale * scale < budgetMs * UPGRADE_HEADROOM) {
+        return changeTier(tier + 1);
+      }
+    }
+    return false;
+  }
+
+  private boolean changeTier(final int newTier) {
+    // Rescale the average so the next decision starts from a sensible estimate.
+    final float scale = (float) tiers[newTier] / tiers[tier];
+    averageMs *= scale * scale;
+    tier = newTier;
+    framesSinceChange = 0;
+    return true;
+  }
+}
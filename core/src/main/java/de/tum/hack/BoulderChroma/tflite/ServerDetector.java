@@ -0,0 +1,148 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tflite;
+
+import de.tum.hack.BoulderChroma.env.JsonParser;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client of the detection server. The server takes a JPEG image and answers with the holds found
+ * in it, with boxes relative to the image size (0..1).
+ */
+public class ServerDetector {
+  /** The address of the detection server used by the app. */
+  public static final String DEFAULT_URL = "http://131.159.226.43:5000/";
+
+  private final String url;
+
+  public ServerDetector(final String url) {
+    this.url = url;
+  }
+
+  /** Uploads the image and returns the detections of the server. Blocks until it answers. */
+  public List<DetectedBox> detect(final byte[] jpeg) throws IOException {
+    return parse(new InputStreamReader(new ByteArrayInputStream(upload(jpeg)), "UTF-8"));
+  }
+
+  /**
+   * Uploads the image and returns the body of the response, to be read with {@link #parse}. Blocks
+   * until the server has answered.
+   */
+  public byte[] upload(final byte[] jpeg) throws IOException {
+    // multipart file
+    final HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
+    try {
+      con.setRequestMethod("POST");
+      con.setUseCaches(false);
+      con.setDoOutput(true);
+      con.setRequestProperty("Content-Size", "" + jpeg.length);
+      final String boundary = "===" + System.currentTimeMillis() + "===";
+      con.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+
+      final OutputStream out = con.getOutputStream();
+      final OutputStreamWriter writer = new OutputStreamWriter(out, "UTF-8");
+      writer.append("--" + boundary + "\r\n");
+      writer.append("Content-Disposition: form-data; name=\"file\"; filename=\"image.jpg\"\r\n");
+      writer.append(
+          "Content-Type: " + URLConnection.guessContentTypeFromName("image.jpg") + "\r\n");
+      writer.append("Content-Transfer-Encoding: binary\r\n\r\n");
+      writer.flush();
+
+      out.write(jpeg);
+      out.flush();
+
+      writer.append("\r\n");
+      writer.append("\r\n");
+      writer.append("--" + boundary + "--\r\n");
+      writer.close();
+
+      final int code = con.getResponseCode();
+      if (code < 200 || code >= 300) {
+        throw new IOException("Image upload failed with return code " + code);
+      }
+
+      final ByteArrayOutputStream response = new ByteArrayOutputStream();
+      try (InputStream in = con.getInputStream()) {
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+          response.write(buffer, 0, read);
+        }
+      }
+      return response.toByteArray();
+    } finally {
+      con.disconnect();
+    }
+  }
+
+  /** Parses a server response: an array of objects with tag, probability and bounding box. */
+  public static List<DetectedBox> parse(final Reader reader) throws IOException {
+    final Object response = JsonParser.parse(reader);
+    if (!(response instanceof List)) {
+      throw new IOException("Expected an array of detections");
+    }
+    final List<DetectedBox> boxes = new ArrayList<>();
+    for (final Object item : (List<?>) response) {
+      final Map<?, ?> prediction = (Map<?, ?>) item;
+      final Map<?, ?> boundingBox = (Map<?, ?>) prediction.get("boundingBox");
+      final float left = getFloat(boundingBox, "left");
+      final float top = getFloat(boundingBox, "top");
+      boxes.add(
+          new DetectedBox(
+              getString(prediction, "tagId"),
+              getString(prediction, "tagName"),
+              getFloat(prediction, "probability"),
+              left,
+              top,
+              left + getFloat(boundingBox, "width"),
+              top + getFloat(boundingBox, "height")));
+    }
+    return boxes;
+  }
+
+  /**
+   * Reads a string field. The server sends the tag id as a bare integer, which the parser reads as
+   * a number; integral numbers are turned into their decimal form, strings pass through unchanged.
+   */
+  private static String getString(final Map<?, ?> object, final String name) {
+    final Object value = object.get(name);
+    if (value instanceof Number) {
+      final Number number = (Number) value;
+      final double asDouble = number.doubleValue();
+      return asDouble == Math.rint(asDouble)
+          ? String.valueOf(number.intValue())
+          : String.valueOf(asDouble);
+    }
+    return value != null ? value.toString() : null;
+  }
+
+  private static float getFloat(final Map<?, ?> object, final String name) {
+    final Object value = object != null ? object.get(name) : null;
+    return value instanceof Number ? ((Number) value).floatValue() : 0.0f;
+  }
+}
@@ -0,0 +1,122 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.tflite;
+
+/**
+ * Square, overlapping tiles covering a frame, for running the detector at a higher effective
+ * resolution. Tiles are spread evenly so that the first and last tile of each row and column
+ * touch the frame border. If the frame is narrower than a tile, the tiles are centered and extend
+ * beyond the frame.
+ */
+public final class TileLayout {
+  public final int cols;
+  public final int rows;
+  public final float overlap;
+  /** Side length of every tile in frame pixels. */
+  public final float side;
+
+  private final float frameWidth;
+  private final float frameHeight;
+  private final float[] lefts;
+  private final float[] tops;
+
+  private TileLayout(
+      final float frameWidth,
+      final float frameHeight,
+      final int cols,
+      final int rows,
+      final float overlap) {
+    this.frameWidth = frameWidth;
+    this.frameHeight = frameHeight;
+    this.cols = cols;
+    this.rows = rows;
+    this.overlap = overlap;
+    this.side = Math.max(frameWidth / cols, frameHeight / rows) * (1 + overlap);
+    this.lefts = positions(frameWidth, cols, side);
+    this.tops = positions(frameHeight, rows, side);
+  }
+
+  /**
+   * Creates a layout with {@code shortTiles} tiles along the shorter side of the frame and {@code
+   * longTiles} along the longer one.
+   *
+   * @param overlap how much larger than the plain grid cell each tile is, e.g. 0.2 for 20%
+   */
+  public static TileLayout create(
+      final float frameWidth,
+      final float frameHeight,
+      final int shortTiles,
+      final int longTiles,
+      final float overlap) {
+    final boolean portrait = frameHeight > frameWidth;
+    return new TileLayout(
+        frameWidth,
+        frameHeight,
+        portrait ? shortTiles : longTiles,
+        portrait ? longTiles : shortTiles,
+        overlap);
+  }
+
+  private static float[] positions(final float length, final int count, final float side) {
+    final float[] positions = new float[count];
+    for (int i = 0; i < count; ++i) {
+      positions[i] = count == 1 ? (length - side) / 2 : i * (length - side) / (count - 1);
+    }
+    return positions;
+  }
+
+  public int getTileCount() {
+    return cols * rows;
+  }
+
+  /** Tiles are numbered row by row. */
+  public float getLeft(final int tile) {
+    return lefts[tile % cols];
+  }
+
+  public float getTop(final int tile) {
+    return tops[tile / cols];
+  }
+
+  public float getFrameWidth() {
+    return frameWidth;
+  }
+
+  public float getFrameHeight() {
+    return frameHeight;
+  }
+
+  /**
+   * Returns whether a box in frame coordinates touches an edge of the tile that lies inside the
+   * frame, i.e. whether the object may have been cut off by the tile border.
+   */
+  public boolean touchesInnerEdge(
+      final int tile,
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final float tolerance) {
+    final float tileLeft = getLeft(tile);
+    final float tileTop = getTop(tile);
+    final float tileRight = tileLeft + side;
+    final float tileBottom = tileTop + side;
+    return (tileLeft > 0 && left - tileLeft < tolerance)
+        || (tileTop > 0 && top - tileTop < tolerance)
+        || (tileRight < frameWidth && tileRight - right < tolerance)
+        || (tileBottom < frameHeight && tileBottom - bottom < tolerance);
+  }
+}
@@ -0,0 +1,173 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.tflite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Combines the detections of all tiles of a frame into one list. Duplicates from overlapping tiles
+ * are suppressed, and parts of one hold that was cut by a tile seam are joined into one box.
+ */
+public final class TileMerger {
+  // Boxes of the same color overlapping more than this are the same hold seen twice.
+  private static final float DUPLICATE_IOU = 0.5f;
+  // A box cut by a seam is joined with a box it overlaps by this fraction of the smaller one.
+  private static final float SEAM_OVERLAP = 0.3f;
+  // How close to a tile edge, as a fraction of the tile side, a box counts as cut off.
+  private static final float SEAM_TOLERANCE = 0.02f;
+
+  private TileMerger() {}
+
+  private static class Candidate {
+    final DetectedBox detection;
+    float left;
+    float top;
+    float right;
+    float bottom;
+    boolean cut;
+
+    Candidate(
+        final DetectedBox detection,
+        final float left,
+        final float top,
+        final float right,
+        final float bottom,
+        final boolean cut) {
+      this.detection = detection;
+      this.left = left;
+      this.top = top;
+      this.right = right;
+      this.bottom = bottom;
+      this.cut = cut;
+    }
+
+    float area() {
+      return (right - left) * (bottom - top);
+    }
+  }
+
+  /**
+   * @param perTile detections of each tile in tile input pixels, as returned by the detector for
+   *     the tiles of {@code layout}
+   * @param inputSize the model input size the tiles were scaled to
+   * @return the merged detections, with locations relative to the frame size (0..1)
+   */
+  public static List<DetectedBox> merge(
+      final List<List<DetectedBox>> perTile,
+      final TileLayout layout,
+      final int inputSize,
+      final float minimumConfidence) {
+    final float scale = layout.side / inputSize;
+    final float tolerance = layout.side * SEAM_TOLERANCE;
+
+    final List<Candidate> candidates = new ArrayList<>();
+    for (int tile = 0; tile < perTile.size(); ++tile) {
+      final float offsetX = layout.getLeft(tile);
+      final float offsetY = layout.getTop(tile);
+      for (final DetectedBox detection : perTile.get(tile)) {
+        if (detection.confidence < minimumConfidence) {
+          continue;
+        }
+        final float left = detection.left * scale + offsetX;
+        final float top = detection.top * scale + offsetY;
+        final float right = detection.right * scale + offsetX;
+        final float bottom = detection.bottom * scale + offsetY;
+        final boolean cut = layout.touchesInnerEdge(tile, left, top, right, bottom, tolerance);
+        candidates.add(new Candidate(detection, left, top, right, bottom, cut));
+      }
+    }
+
+    Collections.sort(
+        candidates,
+        new Comparator<Candidate>() {
+          @Override
+          public int compare(final Candidate a, final Candidate b) {
+            return Float.compare(b.detection.confidence, a.detection.confidence);
+          }
+        });
+
+    final List<Candidate> kept = new ArrayList<>();
+    for (final Candidate candidate : candidates) {
+      if (!absorb(kept, candidate)) {
+        kept.add(candidate);
+      }
+    }
+
+    final float frameWidth = layout.getFrameWidth();
+    final float frameHeight = layout.getFrameHeight();
+    final List<DetectedBox> merged = new ArrayList<>(kept.size());
+    for (final Candidate candidate : kept) {
+      float left = candidate.left;
+      float top = candidate.top;
+      float right = candidate.right;
+      float bottom = candidate.bottom;
+      // Clip to the frame, unless the box lies entirely outside of it.
+      if (left < frameWidth && 0 < right && top < frameHeight && 0 < bottom) {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, frameWidth);
+        bottom = Math.min(bottom, frameHeight);
+      }
+      merged.add(
+          new DetectedBox(
+              candidate.detection.id,
+              candidate.detection.title,
+              candidate.detection.confidence,
+              left / frameWidth,
+              top / frameHeight,
+              right / frameWidth,
+              bottom / frameHeight));
+    }
+    return merged;
+  }
+
+  /** Returns true if the candidate duplicates, or is joined into, an already kept box. */
+  private static boolean absorb(final List<Candidate> kept, final Candidate candidate) {
+    final float area = candidate.area();
+    for (final Candidate other : kept) {
+      if (!other.detection.title.equals(candidate.detection.title)) {
+        continue;
+      }
+      final float intersection = intersectionArea(candidate, other);
+      if (intersection <= 0) {
+        continue;
+      }
+      final float otherArea = other.area();
+      if (intersection / (area + otherArea - intersection) > DUPLICATE_IOU) {
+        return true;
+      }
+      if ((candidate.cut || other.cut)
+          && intersection / Math.min(area, otherArea) > SEAM_OVERLAP) {
+        other.left = Math.min(other.left, candidate.left);
+        other.top = Math.min(other.top, candidate.top);
+        other.right = Math.max(other.right, candidate.right);
+        other.bottom = Math.max(other.bottom, candidate.bottom);
+        other.cut |= candidate.cut;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static float intersectionArea(final Candidate a, final Candidate b) {
+    final float width = Math.min(a.right, b.right) - Math.max(a.left, b.left);
+    final float height = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top);
+    return width > 0 && height > 0 ? width * height : 0;
+  }
+}
@@ -0,0 +1,90 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.tflite;
+
+/**
+ * Chooses how many tiles to split a frame into, and how much they overlap, so that one batched
+ * inference over all tiles fits into the time budget. The cost of a single tile is learned from
+ * the measured latency of previous batches.
+ */
+public class TilePlanner {
+  // Tiles along the short and the long side of the frame, in order of increasing cost.
+  private static final int[][] GRIDS = {{1, 1}, {1, 2}, {2, 2}, {2, 3}, {3, 3}, {3, 4}};
+  private static final float MIN_OVERLAP = 0.1f;
+  private static final float MAX_OVERLAP = 0.25f;
+  // Weight of the newest sample in the moving average.
+  private static final float SMOOTHING = 0.2f;
+  // Use a larger grid only if it is predicted to stay below this fraction of the budget.
+  private static final float UPGRADE_HEADROOM = 0.8f;
+
+  private final long budgetMs;
+  private int grid = 0;
+  private float tileCostMs = -1;
+
+  public TilePlanner(final long budgetMs) {
+    this.budgetMs = budgetMs;
+  }
+
+  public synchronized int getShortTiles() {
+    return GRIDS[grid][0];
+  }
+
+  public synchronized int getLongTiles() {
+    return GRIDS[grid][1];
+  }
+
+  public synchronized int getTileCount() {
+    return tileCount(grid);
+  }
+
+  private static int tileCount(final int grid) {
+    return GRIDS[grid][0] * GRIDS[grid][1];
+  }
+
+  /**
+   * Spends the part of the budget the current grid leaves unused on overlap, which makes it less
+   * likely that holds are cut in half by a tile seam.
+   */
+  public synchronized float getOverlap() {
+    if (tileCostMs < 0) {
+      return MIN_OVERLAP;
+    }
+    final float load = tileCount(grid) * tileCostMs / budgetMs;
+    final float slack = Math.max(0, Math.min(1, 1 - load));
+    return MIN_OVERLAP + (MAX_OVERLAP - MIN_OVERLAP) * slack;
+  }
+
+  /**
+   * Records the latency of one batched inference over {@code tiles} tiles.
+   *
+   * @return true if the grid changed as a result
+   */
+  public synchronized boolean onFrameProcessed(final int tiles, final long latencyMs) {
+    final float sample = (float) latencyMs / tiles;
+    tileCostMs = tileCostMs < 0 ? sample : tileCostMs + SMOOTHING * (sample - tileCostMs);
+
+    if (grid > 0 && tileCount(grid) * tileCostMs > budgetMs) {
+      --grid;
+      return true;
+    }
+    if (grid < GRIDS.length - 1
+        && tileCount(grid + 1) * tileCostMs < budgetMs * UPGRADE_HEADROOM) {
+      ++grid;
+      return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,126 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tflite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the raw grid output of the YOLO-style detection model into boxes. Every grid cell holds,
+ * for each anchor, the box offsets, the objectness and one score per class.
+ */
+public final class YoloDecoder {
+  // Values per anchor before the class scores: x, y, w, h and objectness.
+  private static final int BOX_VALUES = 5;
+
+  private final double[] anchorX;
+  private final double[] anchorY;
+  private final List<String> labels;
+  private final double threshold;
+
+  /**
+   * @param anchorX anchor box widths in grid cells, as used during training
+   * @param anchorY anchor box heights in grid cells
+   * @param threshold boxes whose best class probability is not above this are dropped
+   */
+  public YoloDecoder(
+      final double[] anchorX,
+      final double[] anchorY,
+      final List<String> labels,
+      final double threshold) {
+    this.anchorX = anchorX;
+    this.anchorY = anchorY;
+    this.labels = labels;
+    this.threshold = threshold;
+  }
+
+  private static double logistic(final double x) {
+    if (x > 0) {
+      return 1.0 / (1.0 + Math.exp(-x));
+    } else {
+      return Math.exp(x) / (1 + Math.exp(x));
+    }
+  }
+
+  /**
+   * Decodes the output of one image of the batch.
+   *
+   * @param output the model output of shape [gridSize][gridSize][channels]
+   * @param inputSize the side of the model input in pixels
+   * @return the boxes in input pixel coordinates
+   */
+  public List<DetectedBox> decode(final float[][][] output, final int inputSize) {
+    final int numAnchor = anchorX.length;
+    final int width = output.length;
+    final int height = output[0].length;
+    final int channelsPerAnchor = output[0][0].length / numAnchor;
+    final int numClass = channelsPerAnchor - BOX_VALUES;
+
+    final List<DetectedBox> boxes = new ArrayList<>();
+    final double[] classProbs = new double[numClass];
+    for (int i = 0; i < width; i++) {
+      for (int j = 0; j < height; j++) {
+        final float[] cell = output[i][j];
+        for (int k = 0; k < numAnchor; k++) {
+          final int offset = channelsPerAnchor * k;
+          double x = (logistic(cell[offset]) + 1.0 * i) / width;
+          double y = (logistic(cell[offset + 1]) + 1.0 * j) / height;
+
+          final double w = Math.exp(cell[offset + 2]) * anchorX[k] / width;
+          final double h = Math.exp(cell[offset + 3]) * anchorY[k] / height;
+
+          // adjust because (x,y) is center of bounding box
+          x = x - w / 2;
+          y = y - h / 2;
+
+          final double objectness = logistic(cell[offset + 4]);
+
+          double maxval = -Double.MAX_VALUE;
+          double sumval = 0.0;
+          for (int c = 0; c < numClass; c++) {
+            maxval = Math.max(maxval, cell[offset + BOX_VALUES + c]);
+            sumval += cell[offset + BOX_VALUES + c];
+          }
+
+          double maxprob = -Double.MAX_VALUE;
+          int maxClass = -1;
+          for (int c = 0; c < numClass; c++) {
+            classProbs[c] = Math.exp(cell[offset + BOX_VALUES + c] - maxval);
+            classProbs[c] = classProbs[c] * objectness / sumval;
+
+            if (classProbs[c] > maxprob) {
+              maxprob = classProbs[c];
+              maxClass = c;
+            }
+          }
+          // neglect if no class probability exceeds threshold
+          if (maxprob <= threshold) {
+            continue;
+          }
+          boxes.add(
+              new DetectedBox(
+                  "" + maxClass,
+                  labels.get(maxClass),
+                  (float) objectness,
+                  (float) x * inputSize,
+                  (float) y * inputSize,
+                  (float) (x + w) * inputSize,
+                  (float) (y + h) * inputSize));
+        }
+      }
+    }
+    return boxes;
+  }
+}
@@ -0,0 +1,43 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tracking;
+
+/** A single detection passed to the {@link ObjectTracker}, in normalized frame coordinates. */
+public final class Detection {
+  public final float left;
+  public final float top;
+  public final float right;
+  public final float bottom;
+  public final String label;
+  public final int color;
+  public final float confidence;
+
+  public Detection(
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final String label,
+      final int color,
+      final float confidence) {
+    this.left = left;
+    this.top = top;
+    this.right = right;
+    this.bottom = bottom;
+    this.label = label;
+    this.color = color;
+    this.confidence = confidence;
+  }
+}
@@ -0,0 +1,72 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tracking;
+
+/**
+ * Decides when the next full detection is due. While the tracker reports stable scenes the
+ * interval between detections grows, and the first surprise makes detection run on every frame
+ * again. A minimum interval, if set, applies to every detection, requested ones included.
+ */
+public class DetectionScheduler {
+  private static final long FIRST_BACKOFF_MS = 100;
+  private static final float BACKOFF_FACTOR = 2;
+
+  private final long maxIntervalMs;
+  private long intervalMs = 0;
+  private long minIntervalMs = 0;
+  private boolean requested = false;
+  private long lastDetectionMs = Long.MIN_VALUE / 2;
+
+  public DetectionScheduler(final long maxIntervalMs) {
+    this.maxIntervalMs = maxIntervalMs;
+  }
+
+  public synchronized boolean isDetectionDue(final long nowMs) {
+    final long elapsedMs = nowMs - lastDetectionMs;
+    if (elapsedMs < minIntervalMs) {
+      return false;
+    }
+    return requested || elapsedMs >= intervalMs;
+  }
+
+  /**
+   * Asks for a detection before the backed-off interval is over, e.g. because parts of the wall
+   * that were never searched came into view. Holds until the next detection.
+   */
+  public synchronized void requestDetection() {
+    requested = true;
+  }
+
+  /** Sets the shortest interval between detections, also while the scene is unstable. */
+  public synchronized void setMinIntervalMs(final long minIntervalMs) {
+    this.minIntervalMs = minIntervalMs;
+  }
+
+  /** Records a detection started at {@code timestampMs} and whether it left the tracker stable. */
+  public synchronized void onDetection(final long timestampMs, final boolean stable) {
+    lastDetectionMs = timestampMs;
+    requested = false;
+    if (!stable) {
+      intervalMs = 0;
+    } else {
+      intervalMs =
+          Math.min(maxIntervalMs, Math.max(FIRST_BACKOFF_MS, (long) (intervalMs * BACKOFF_FACTOR)));
+    }
+  }
+
+  public synchronized long getIntervalMs() {
+    return intervalMs;
+  }
+}
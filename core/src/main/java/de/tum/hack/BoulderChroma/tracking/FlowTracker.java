@@ -0,0 +1,271 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tracking;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Moves tracked boxes at preview rate with sparse optical flow on the luminance plane. Points on a
+ * grid inside each box are tracked from frame to frame; the box follows the median shift and the
+ * median change of spread of its points. A grid over the whole frame measures the camera motion,
+ * which moves boxes without enough trackable points and re-projects detections made on an older
+ * frame.
+ *
+ * <p>Boxes are normalized to the frame rotated to screen orientation, the luminance plane is in
+ * sensor orientation.
+ */
+class FlowTracker {
+  private static final int BOX_GRID = 3;
+  // Dense enough for the wall map to fit a homography to the frame motion.
+  private static final int FRAME_GRID = 8;
+  // Only the inner part of a box is sampled; the border mostly shows the wall around the hold.
+  private static final float BOX_INNER_FRACTION = 0.6f;
+  private static final int MIN_POINTS = 3;
+  // Bounds for the scale change between two frames.
+  private static final float MAX_SCALE_CHANGE = 0.1f;
+
+  private final OpticalFlow opticalFlow = new OpticalFlow();
+  private final MotionHistory motionHistory = new MotionHistory();
+  // Affine transforms between normalized rotated coordinates and luminance pixels, as 3x3 arrays.
+  private final float[] normalizedToFrame = new float[9];
+  private final float[] frameToNormalized = new float[9];
+  private final int frameWidth;
+  private final int frameHeight;
+
+  private final float[] points = new float[2 * FRAME_GRID * FRAME_GRID];
+  private final float[] framePoints = new float[points.length];
+  private final float[] movedPoints = new float[points.length];
+  private final boolean[] found = new boolean[FRAME_GRID * FRAME_GRID];
+  private final float[] shifts = new float[FRAME_GRID * FRAME_GRID];
+  private final float[] motion = new float[3];
+  // Normalized frame grid points found in the latest frame, and where they were in the previous.
+  private final float[] matchesFrom = new float[points.length];
+  private final float[] matchesTo = new float[points.length];
+  private int matchCount = 0;
+  private final float[] box = new float[4];
+  private final float[] point = new float[2];
+
+  FlowTracker(final int frameWidth, final int frameHeight, final int sensorOrientation) {
+    this.frameWidth = frameWidth;
+    this.frameHeight = frameHeight;
+    final boolean transpose = sensorOrientation % 180 != 0;
+    final int rotatedWidth = transpose ? frameHeight : frameWidth;
+    final int rotatedHeight = transpose ? frameWidth : frameHeight;
+
+    // Rotation around the frame center, like ImageUtils.getTransformationMatrix() in the app.
+    final double radians = Math.toRadians(sensorOrientation);
+    final float cos = Math.round(Math.cos(radians));
+    final float sin = Math.round(Math.sin(radians));
+    final float[] frameToRotated = {
+      cos,
+      -sin,
+      rotatedWidth / 2f - cos * frameWidth / 2f + sin * frameHeight / 2f,
+      sin,
+      cos,
+      rotatedHeight / 2f - sin * frameWidth / 2f - cos * frameHeight / 2f,
+      0,
+      0,
+      1
+    };
+    Homography.invert(frameToRotated, normalizedToFrame);
+    final float[] scale = {rotatedWidth, 0, 0, 0, rotatedHeight, 0, 0, 0, 1};
+    Homography.multiply(normalizedToFrame, scale, normalizedToFrame);
+    Homography.invert(normalizedToFrame, frameToNormalized);
+  }
+
+  /** Adds a new frame and moves the tracks by the flow from the previous frame. */
+  void update(
+      final byte[] luminance,
+      final int rowStride,
+      final long timestampMs,
+      final List<Track> tracks) {
+    opticalFlow.addFrame(luminance, frameWidth, frameHeight, rowStride);
+    matchCount = 0;
+    if (!opticalFlow.canTrack()) {
+      motionHistory.clear();
+      return;
+    }
+
+    final float step = 1f / (FRAME_GRID + 1);
+    for (int y = 0; y < FRAME_GRID; ++y) {
+      for (int x = 0; x < FRAME_GRID; ++x) {
+        points[2 * (y * FRAME_GRID + x)] = (x + 1) * step;
+        points[2 * (y * FRAME_GRID + x) + 1] = (y + 1) * step;
+      }
+    }
+    final boolean cameraFound = estimate(FRAME_GRID * FRAME_GRID);
+    if (cameraFound) {
+      for (int i = 0; i < FRAME_GRID * FRAME_GRID; ++i) {
+        if (found[i]) {
+          matchesFrom[2 * matchCount] = points[2 * i];
+          matchesFrom[2 * matchCount + 1] = points[2 * i + 1];
+          matchesTo[2 * matchCount] = movedPoints[2 * i];
+          matchesTo[2 * matchCount + 1] = movedPoints[2 * i + 1];
+          ++matchCount;
+        }
+      }
+    } else {
+      // Nothing to hold on to, e.g. the lens is covered; assume the camera did not move.
+      motion[0] = 0;
+      motion[1] = 0;
+      motion[2] = 1;
+    }
+    motionHistory.add(timestampMs, motion[0], motion[1], motion[2]);
+    final float cameraDx = motion[0];
+    final float cameraDy = motion[1];
+    final float cameraScale = motion[2];
+
+    for (final Track track : tracks) {
+      track.predict(track.anchorMs, box);
+      final float width = (box[2] - box[0]) * BOX_INNER_FRACTION;
+      final float height = (box[3] - box[1]) * BOX_INNER_FRACTION;
+      final float left = (box[0] + box[2] - width) / 2;
+      final float top = (box[1] + box[3] - height) / 2;
+      for (int y = 0; y < BOX_GRID; ++y) {
+        for (int x = 0; x < BOX_GRID; ++x) {
+          points[2 * (y * BOX_GRID + x)] = left + width * (x + 0.5f) / BOX_GRID;
+          points[2 * (y * BOX_GRID + x) + 1] = top + height * (y + 0.5f) / BOX_GRID;
+        }
+      }
+      if (estimate(BOX_GRID * BOX_GRID)) {
+        track.shift(motion[0], motion[1], motion[2], timestampMs);
+      } else {
+        // Scale around the frame center like the camera motion does.
+        final float centerX = (box[0] + box[2]) / 2;
+        final float centerY = (box[1] + box[3]) / 2;
+        track.shift(
+            (cameraScale - 1) * (centerX - 0.5f) + cameraDx,
+            (cameraScale - 1) * (centerY - 0.5f) + cameraDy,
+            cameraScale,
+            timestampMs);
+      }
+    }
+  }
+
+  /**
+   * Tracks the first {@code count} normalized points and stores the median shift and scale in
+   * {@link #motion}.
+   *
+   * @return false if too few points could be tracked
+   */
+  private boolean estimate(final int count) {
+    mapPoints(normalizedToFrame, points, framePoints, count);
+    opticalFlow.track(framePoints, count, movedPoints, found);
+    mapPoints(frameToNormalized, movedPoints, movedPoints, count);
+
+    int valid = 0;
+    float oldCenterX = 0;
+    float oldCenterY = 0;
+    float newCenterX = 0;
+    float newCenterY = 0;
+    for (int i = 0; i < count; ++i) {
+      if (found[i]) {
+        ++valid;
+        oldCenterX += points[2 * i];
+        oldCenterY += points[2 * i + 1];
+        newCenterX += movedPoints[2 * i];
+        newCenterY += movedPoints[2 * i + 1];
+      }
+    }
+    if (valid < MIN_POINTS) {
+      return false;
+    }
+    oldCenterX /= valid;
+    oldCenterY /= valid;
+    newCenterX /= valid;
+    newCenterY /= valid;
+
+    motion[0] = median(count, 0);
+    motion[1] = median(count, 1);
+
+    int ratios = 0;
+    for (int i = 0; i < count; ++i) {
+      if (found[i]) {
+        final float oldDistance =
+            (float) Math.hypot(points[2 * i] - oldCenterX, points[2 * i + 1] - oldCenterY);
+        final float newDistance =
+            (float) Math.hypot(
+                movedPoints[2 * i] - newCenterX, movedPoints[2 * i + 1] - newCenterY);
+        if (oldDistance > 1e-4f) {
+          shifts[ratios++] = newDistance / oldDistance;
+        }
+      }
+    }
+    final float scale = ratios > 0 ? median(shifts, ratios) : 1;
+    motion[2] = Math.max(1 - MAX_SCALE_CHANGE, Math.min(1 + MAX_SCALE_CHANGE, scale));
+    return true;
+  }
+
+  private void mapPoints(final float[] h, final float[] src, final float[] dst, final int count) {
+    for (int i = 0; i < count; ++i) {
+      Homography.map(h, src[2 * i], src[2 * i + 1], point);
+      dst[2 * i] = point[0];
+      dst[2 * i + 1] = point[1];
+    }
+  }
+
+  /** Median shift of the found points along one axis. */
+  private float median(final int count, final int axis) {
+    int n = 0;
+    for (int i = 0; i < count; ++i) {
+      if (found[i]) {
+        shifts[n++] = movedPoints[2 * i + axis] - points[2 * i + axis];
+      }
+    }
+    return median(shifts, n);
+  }
+
+  private static float median(final float[] values, final int n) {
+    Arrays.sort(values, 0, n);
+    return n % 2 == 1 ? values[n / 2] : (values[n / 2 - 1] + values[n / 2]) / 2;
+  }
+
+  /** Returns the number of frame grid points tracked into the latest frame. */
+  int getMatchCount() {
+    return matchCount;
+  }
+
+  /** Normalized positions in the previous frame of the latest matches, interleaved x and y. */
+  float[] getMatchesFrom() {
+    return matchesFrom;
+  }
+
+  /** Normalized positions in the latest frame of the latest matches. */
+  float[] getMatchesTo() {
+    return matchesTo;
+  }
+
+  /** Returns the time of the frame the latest flow was measured on, or -1 if there is none. */
+  long getLatestTimeMs() {
+    return motionHistory.isEmpty() ? -1 : motionHistory.getLatestTimeMs();
+  }
+
+  /** Moves a box detected on the frame taken at {@code timestampMs} into the latest frame. */
+  Detection reproject(final Detection detection, final long timestampMs) {
+    final float[] topLeft = {detection.left, detection.top};
+    final float[] bottomRight = {detection.right, detection.bottom};
+    motionHistory.project(timestampMs, topLeft);
+    motionHistory.project(timestampMs, bottomRight);
+    return new Detection(
+        topLeft[0],
+        topLeft[1],
+        bottomRight[0],
+        bottomRight[1],
+        detection.label,
+        detection.color,
+        detection.confidence);
+  }
+}
@@ -0,0 +1,175 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tracking;
+
+import de.tum.hack.BoulderChroma.metrics.FrameTrace;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps track of the holds in view: moves them with the optical flow of every preview frame,
+ * matches them to detections, remembers them in a {@link WallMap} and groups them into routes.
+ *
+ * <p>Updates from the camera and inference threads are serialized and publish an immutable
+ * {@link TrackSnapshot}, together with the one before, which readers take without locking.
+ * Boxes are normalized to the frame rotated to screen orientation.
+ */
+public class HoldTracker {
+  // Preview frames between projections of the wall map into the tracks.
+  private static final int RESTORE_INTERVAL_FRAMES = 10;
+  // Bounds for the time over which boxes move from one snapshot to the next when interpolating.
+  private static final long MIN_INTERVAL_MS = 16;
+  private static final long MAX_INTERVAL_MS = 200;
+
+  private final ObjectTracker objectTracker = new ObjectTracker();
+  private final RouteGrouper routeGrouper = new RouteGrouper();
+  private final WallMap wallMap = new WallMap();
+  private FlowTracker flowTracker;
+  private int framesSinceRestore = 0;
+  private final AtomicReference<Publication> published =
+      new AtomicReference<>(
+          new Publication(TrackSnapshot.EMPTY, TrackSnapshot.EMPTY, 0, MIN_INTERVAL_MS));
+
+  /** The latest snapshot together with the one before, for interpolating between them. */
+  public static final class Publication {
+    public final TrackSnapshot current;
+    public final TrackSnapshot previous;
+    /** When {@link #current} was published, in the {@link #nowMs()} time base. */
+    public final long publishedAtMs;
+    /** The time since the previous publication, within bounds for interpolation. */
+    public final long intervalMs;
+
+    Publication(
+        final TrackSnapshot current,
+        final TrackSnapshot previous,
+        final long publishedAtMs,
+        final long intervalMs) {
+      this.current = current;
+      this.previous = previous;
+      this.publishedAtMs = publishedAtMs;
+      this.intervalMs = intervalMs;
+    }
+  }
+
+  /**
+   * Returns the monotonic time snapshots are stamped with. On Android this is the time base of
+   * {@code SystemClock.uptimeMillis()} and of the vsync timestamps.
+   */
+  public static long nowMs() {
+    return System.nanoTime() / 1000000;
+  }
+
+  /** Sets the size of the luminance planes and the rotation from sensor to screen orientation. */
+  public synchronized void setFrameConfiguration(
+      final int width, final int height, final int sensorOrientation) {
+    flowTracker = new FlowTracker(width, height, sensorOrientation);
+    wallMap.clear();
+  }
+
+  /**
+   * Moves the tracked boxes by the optical flow between the previous and this preview frame. Call
+   * for every preview frame.
+   */
+  public synchronized void trackFlow(
+      final byte[] luminance, final int rowStride, final long timestampMs) {
+    FrameTrace.beginSection("trackFlow");
+    try {
+      if (flowTracker == null) {
+        return;
+      }
+      flowTracker.update(luminance, rowStride, timestampMs, objectTracker.getTracks());
+      wallMap.onFrameMotion(
+          flowTracker.getMatchesFrom(), flowTracker.getMatchesTo(), flowTracker.getMatchCount());
+      // Bring back holds that were seen before and scrolled into view again, without inference.
+      if (++framesSinceRestore >= RESTORE_INTERVAL_FRAMES) {
+        framesSinceRestore = 0;
+        objectTracker.restore(wallMap.project(), timestampMs);
+      }
+      publishSnapshot();
+    } finally {
+      FrameTrace.endSection();
+    }
+  }
+
+  /**
+   * Matches the detections made on the frame taken at {@code timestampMs} with the tracks.
+   * Detections of a slow detector are stale by the time they arrive; they are moved by the flow
+   * measured since to where the camera looks at now.
+   */
+  public synchronized void trackDetections(
+      final List<Detection> detections, final long timestampMs) {
+    FrameTrace.beginSection("trackDetections");
+    try {
+      final long latestFlowMs = flowTracker != null ? flowTracker.getLatestTimeMs() : -1;
+      final boolean reproject = latestFlowMs > timestampMs;
+
+      final List<Detection> current;
+      if (reproject) {
+        current = new ArrayList<>(detections.size());
+        for (final Detection detection : detections) {
+          current.add(flowTracker.reproject(detection, timestampMs));
+        }
+      } else {
+        current = detections;
+      }
+      objectTracker.update(current, reproject ? latestFlowMs : timestampMs);
+      if (reproject || latestFlowMs == timestampMs) {
+        // The wall map is in step with the latest flow frame.
+        wallMap.addDetections(current);
+      }
+      publishSnapshot();
+    } finally {
+      FrameTrace.endSection();
+    }
+  }
+
+  /**
+   * Returns the fraction of the latest frame that shows parts of the wall the detector has not
+   * searched yet.
+   */
+  public synchronized float getUnsearchedFraction() {
+    return wallMap.getUnsearchedFraction();
+  }
+
+  /** See {@link ObjectTracker#isStable()}. */
+  public synchronized boolean isStable() {
+    return objectTracker.isStable();
+  }
+
+  /** Publishes the current tracks with their routes; called with the lock held. */
+  private void publishSnapshot() {
+    final TrackSnapshot tracks = TrackSnapshot.of(objectTracker.getTracks());
+    final int[] routes = routeGrouper.update(tracks);
+    if (tracks.size() > 0) {
+      tracks.setRouteIds(routes);
+    }
+    final Publication last = published.get();
+    final long now = nowMs();
+    final long intervalMs =
+        Math.max(MIN_INTERVAL_MS, Math.min(MAX_INTERVAL_MS, now - last.publishedAtMs));
+    published.set(new Publication(tracks, last.current, now, intervalMs));
+  }
+
+  /** Returns the latest published tracks. See {@link TrackSnapshot#getIndex()} for queries. */
+  public TrackSnapshot getSnapshot() {
+    return published.get().current;
+  }
+
+  /** Returns the latest published tracks with the ones published before. */
+  public Publication getPublication() {
+    return published.get();
+  }
+}
@@ -0,0 +1,221 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tracking;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Helpers for 3x3 homographies stored row by row in a {@code float[9]}, with the last element
+ * fixed to 1 when fitting.
+ */
+final class Homography {
+  private static final int RANSAC_ITERATIONS = 64;
+
+  private Homography() {}
+
+  static void setIdentity(final float[] h) {
+    for (int i = 0; i < 9; ++i) {
+      h[i] = i % 4 == 0 ? 1 : 0;
+    }
+  }
+
+  /**
+   * Maps a point.
+   *
+   * @return false if the point maps to infinity or behind the camera
+   */
+  static boolean map(final float[] h, final float x, final float y, final float[] out) {
+    final float w = h[6] * x + h[7] * y + h[8];
+    if (w <= 1e-6f) {
+      return false;
+    }
+    out[0] = (h[0] * x + h[1] * y + h[2]) / w;
+    out[1] = (h[3] * x + h[4] * y + h[5]) / w;
+    return true;
+  }
+
+  /** Sets {@code out} to {@code a * b}; {@code out} may be one of the inputs. */
+  static void multiply(final float[] a, final float[] b, final float[] out) {
+    final float[] result = new float[9];
+    for (int row = 0; row < 3; ++row) {
+      for (int col = 0; col < 3; ++col) {
+        result[3 * row + col] =
+            a[3 * row] * b[col] + a[3 * row + 1] * b[3 + col] + a[3 * row + 2] * b[6 + col];
+      }
+    }
+    System.arraycopy(result, 0, out, 0, 9);
+  }
+
+  /** Inverts {@code h} into {@code out}; returns false if it is singular. */
+  static boolean invert(final float[] h, final float[] out) {
+    final float c0 = h[4] * h[8] - h[5] * h[7];
+    final float c1 = h[5] * h[6] - h[3] * h[8];
+    final float c2 = h[3] * h[7] - h[4] * h[6];
+    final float det = h[0] * c0 + h[1] * c1 + h[2] * c2;
+    if (Math.abs(det) < 1e-12f) {
+      return false;
+    }
+    final float[] result = {
+      c0 / det,
+      (h[2] * h[7] - h[1] * h[8]) / det,
+      (h[1] * h[5] - h[2] * h[4]) / det,
+      c1 / det,
+      (h[0] * h[8] - h[2] * h[6]) / det,
+      (h[2] * h[3] - h[0] * h[5]) / det,
+      c2 / det,
+      (h[1] * h[6] - h[0] * h[7]) / det,
+      (h[0] * h[4] - h[1] * h[3]) / det
+    };
+    System.arraycopy(result, 0, out, 0, 9);
+    return true;
+  }
+
+  /**
+   * Fits the homography mapping {@code src} to {@code dst} by least squares over the points whose
+   * {@code use} flag is set (all points if {@code use} is null).
+   *
+   * @param src x and y of each point, interleaved
+   * @return false if there are fewer than four points or they are degenerate
+   */
+  static boolean fit(
+      final float[] src, final float[] dst, final int count, final boolean[] use, final float[] h) {
+    // Normal equations of the direct linear transform with h[8] = 1.
+    final double[][] a = new double[8][9];
+    int used = 0;
+    final double[] row = new double[9];
+    for (int i = 0; i < count; ++i) {
+      if (use != null && !use[i]) {
+        continue;
+      }
+      ++used;
+      final double x = src[2 * i];
+      final double y = src[2 * i + 1];
+      final double u = dst[2 * i];
+      final double v = dst[2 * i + 1];
+      for (int r = 0; r < 2; ++r) {
+        if (r == 0) {
+          setRow(row, x, y, 1, 0, 0, 0, -u * x, -u * y, u);
+        } else {
+          setRow(row, 0, 0, 0, x, y, 1, -v * x, -v * y, v);
+        }
+        for (int j = 0; j < 8; ++j) {
+          for (int k = 0; k < 9; ++k) {
+            a[j][k] += row[j] * row[k];
+          }
+        }
+      }
+    }
+    if (used < 4 || !solve(a)) {
+      return false;
+    }
+    for (int j = 0; j < 8; ++j) {
+      h[j] = (float) a[j][8];
+    }
+    h[8] = 1;
+    return true;
+  }
+
+  private static void setRow(final double[] row, final double... values) {
+    System.arraycopy(values, 0, row, 0, 9);
+  }
+
+  /** Solves the 8x8 system in the first eight columns, leaving the solution in column 8. */
+  private static boolean solve(final double[][] a) {
+    for (int col = 0; col < 8; ++col) {
+      int pivot = col;
+      for (int r = col + 1; r < 8; ++r) {
+        if (Math.abs(a[r][col]) > Math.abs(a[pivot][col])) {
+          pivot = r;
+        }
+      }
+      if (Math.abs(a[pivot][col]) < 1e-12) {
+        return false;
+      }
+      final double[] swap = a[col];
+      a[col] = a[pivot];
+      a[pivot] = swap;
+      for (int r = 0; r < 8; ++r) {
+        if (r == col) {
+          continue;
+        }
+        final double factor = a[r][col] / a[col][col];
+        for (int k = col; k < 9; ++k) {
+          a[r][k] -= factor * a[col][k];
+        }
+      }
+    }
+    for (int r = 0; r < 8; ++r) {
+      a[r][8] /= a[r][r];
+    }
+    return true;
+  }
+
+  /**
+   * Estimates the homography mapping {@code src} to {@code dst} robustly: fits minimal samples of
+   * four points, keeps the one most points agree with to within {@code threshold}, and refits it
+   * to those inliers.
+   *
+   * @param inliers receives which points agree with the result
+   * @return the number of inliers, 0 if no homography could be fit
+   */
+  static int ransac(
+      final float[] src,
+      final float[] dst,
+      final int count,
+      final float threshold,
+      final Random random,
+      final float[] h,
+      final boolean[] inliers) {
+    if (count < 4) {
+      return 0;
+    }
+    final boolean[] sample = new boolean[count];
+    final boolean[] candidateInliers = new boolean[count];
+    final float[] candidate = new float[9];
+    final float[] mapped = new float[2];
+    int best = 0;
+    for (int iteration = 0; iteration < RANSAC_ITERATIONS; ++iteration) {
+      Arrays.fill(sample, false);
+      for (int picked = 0; picked < 4; ) {
+        final int i = random.nextInt(count);
+        if (!sample[i]) {
+          sample[i] = true;
+          ++picked;
+        }
+      }
+      if (!fit(src, dst, count, sample, candidate)) {
+        continue;
+      }
+      int agreeing = 0;
+      for (int i = 0; i < count; ++i) {
+        candidateInliers[i] =
+            map(candidate, src[2 * i], src[2 * i + 1], mapped)
+                && Math.hypot(mapped[0] - dst[2 * i], mapped[1] - dst[2 * i + 1]) < threshold;
+        if (candidateInliers[i]) {
+          ++agreeing;
+        }
+      }
+      if (agreeing > best) {
+        best = agreeing;
+        System.arraycopy(candidateInliers, 0, inliers, 0, count);
+      }
+    }
+    if (best < 4 || !fit(src, dst, count, inliers, h)) {
+      return 0;
+    }
+    return best;
+  }
+}
@@ -0,0 +1,82 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tracking;
+
+/**
+ * The camera motion of the last frames, accumulated into one translation and scale per frame, so
+ * that boxes detected on an older frame can be moved to where they are in the latest frame.
+ * Coordinates are normalized to the frame; scaling is around the frame center.
+ */
+class MotionHistory {
+  private static final int CAPACITY = 64;
+
+  private final long[] timestamps = new long[CAPACITY];
+  // Maps the coordinates of the first frame to each frame: x' = scale * x + t.
+  private final float[] scales = new float[CAPACITY];
+  private final float[] translationsX = new float[CAPACITY];
+  private final float[] translationsY = new float[CAPACITY];
+  private int count = 0;
+  private int latest = -1;
+
+  /** Adds the motion from the previous frame to the frame taken at {@code timestampMs}. */
+  void add(final long timestampMs, final float dx, final float dy, final float scale) {
+    final int next = (latest + 1) % CAPACITY;
+    if (count == 0) {
+      scales[next] = 1;
+      translationsX[next] = 0;
+      translationsY[next] = 0;
+    } else {
+      scales[next] = scale * scales[latest];
+      translationsX[next] = scale * (translationsX[latest] - 0.5f) + 0.5f + dx;
+      translationsY[next] = scale * (translationsY[latest] - 0.5f) + 0.5f + dy;
+    }
+    timestamps[next] = timestampMs;
+    latest = next;
+    count = Math.min(CAPACITY, count + 1);
+  }
+
+  boolean isEmpty() {
+    return count == 0;
+  }
+
+  long getLatestTimeMs() {
+    return timestamps[latest];
+  }
+
+  void clear() {
+    count = 0;
+    latest = -1;
+  }
+
+  /**
+   * Maps a point of the frame taken at {@code timestampMs} to the latest frame. Frames older than
+   * the history are treated like the oldest frame in it.
+   *
+   * @param xy the point, overwritten with the result
+   */
+  void project(final long timestampMs, final float[] xy) {
+    int from = latest;
+    for (int i = 1; i < count; ++i) {
+      final int index = (latest - i + CAPACITY) % CAPACITY;
+      if (timestamps[from] <= timestampMs) {
+        break;
+      }
+      from = index;
+    }
+    final float scale = scales[latest] / scales[from];
+    xy[0] = scale * (xy[0] - translationsX[from]) + translationsX[latest];
+    xy[1] = scale * (xy[1] - translationsY[from]) + translationsY[latest];
+  }
+}
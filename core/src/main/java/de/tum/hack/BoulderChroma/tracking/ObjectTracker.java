@@ -0,0 +1,220 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tracking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Follows objects across detections. Each detection is assigned to the track whose predicted box
+ * overlaps it most, greedily by decreasing IoU and only above {@link #MIN_IOU}. Matched tracks
+ * correct their position and velocity with an alpha-beta filter, unmatched detections start new
+ * tracks, and tracks that are missed too often are dropped.
+ *
+ * <p>Not thread-safe.
+ */
+public class ObjectTracker {
+  // Gate for associating a detection with a track.
+  private static final float MIN_IOU = 0.2f;
+  // Filter gains for the position and the velocity.
+  private static final float ALPHA = 0.6f;
+  private static final float BETA = 0.2f;
+  // Weight of a new detection in the smoothed box size.
+  private static final float SIZE_SMOOTHING = 0.5f;
+  private static final int MAX_MISSES = 3;
+  private static final long MAX_AGE_MS = 2000;
+  // Mean residual, relative to the box size, under which an update counts as stable.
+  private static final float STABLE_RESIDUAL = 0.1f;
+
+  private final List<Track> tracks = new ArrayList<>();
+  private int nextId = 0;
+  private boolean stable = false;
+
+  private static class Match {
+    final Track track;
+    final Detection detection;
+    final float iou;
+
+    Match(final Track track, final Detection detection, final float iou) {
+      this.track = track;
+      this.detection = detection;
+      this.iou = iou;
+    }
+  }
+
+  /** Associates the detections of the frame taken at {@code timestampMs} with the tracks. */
+  public void update(final List<Detection> detections, final long timestampMs) {
+    final List<Match> candidates = new ArrayList<>();
+    for (final Track track : tracks) {
+      final float x = track.predictCenterX(timestampMs);
+      final float y = track.predictCenterY(timestampMs);
+      for (final Detection detection : detections) {
+        final float iou =
+            iou(
+                x - track.width / 2,
+                y - track.height / 2,
+                x + track.width / 2,
+                y + track.height / 2,
+                detection);
+        if (iou >= MIN_IOU) {
+          candidates.add(new Match(track, detection, iou));
+        }
+      }
+    }
+    Collections.sort(
+        candidates,
+        new Comparator<Match>() {
+          @Override
+          public int compare(final Match a, final Match b) {
+            return Float.compare(b.iou, a.iou);
+          }
+        });
+
+    final List<Track> matchedTracks = new ArrayList<>();
+    final List<Detection> matchedDetections = new ArrayList<>();
+    float residualSum = 0;
+    for (final Match match : candidates) {
+      if (containsIdentical(matchedTracks, match.track)
+          || containsIdentical(matchedDetections, match.detection)) {
+        continue;
+      }
+      matchedTracks.add(match.track);
+      matchedDetections.add(match.detection);
+      residualSum += correct(match.track, match.detection, timestampMs);
+    }
+
+    boolean changed = false;
+    for (final Iterator<Track> it = tracks.iterator(); it.hasNext(); ) {
+      final Track track = it.next();
+      if (containsIdentical(matchedTracks, track)) {
+        continue;
+      }
+      changed = true;
+      ++track.misses;
+      if (track.misses > MAX_MISSES || timestampMs - track.updatedAtMs > MAX_AGE_MS) {
+        it.remove();
+      }
+    }
+    for (final Detection detection : detections) {
+      if (!containsIdentical(matchedDetections, detection)) {
+        changed = true;
+        tracks.add(new Track(nextId++, detection, timestampMs));
+      }
+    }
+
+    stable =
+        !changed
+            && !matchedTracks.isEmpty()
+            && residualSum / matchedTracks.size() < STABLE_RESIDUAL;
+  }
+
+  /**
+   * Starts tracks for the detections that overlap no track, without touching the existing tracks.
+   * For boxes that were not measured on this frame, e.g. holds remembered from earlier frames.
+   */
+  public void restore(final List<Detection> detections, final long timestampMs) {
+    for (final Detection detection : detections) {
+      boolean known = false;
+      for (final Track track : tracks) {
+        final float x = track.predictCenterX(timestampMs);
+        final float y = track.predictCenterY(timestampMs);
+        if (iou(
+                x - track.width / 2,
+                y - track.height / 2,
+                x + track.width / 2,
+                y + track.height / 2,
+                detection)
+            >= MIN_IOU) {
+          known = true;
+          break;
+        }
+      }
+      if (!known) {
+        tracks.add(new Track(nextId++, detection, timestampMs));
+      }
+    }
+  }
+
+  /** Returns the residual of the prediction, relative to the box size. */
+  private static float correct(
+      final Track track, final Detection detection, final long timestampMs) {
+    final float predictedX = track.predictCenterX(timestampMs);
+    final float predictedY = track.predictCenterY(timestampMs);
+    final float residualX = (detection.left + detection.right) / 2 - predictedX;
+    final float residualY = (detection.top + detection.bottom) / 2 - predictedY;
+    final long dt = timestampMs - track.updatedAtMs;
+
+    track.centerX = predictedX + ALPHA * residualX;
+    track.centerY = predictedY + ALPHA * residualY;
+    if (dt > 0) {
+      track.velocityX += BETA * residualX / dt;
+      track.velocityY += BETA * residualY / dt;
+    }
+    track.width += SIZE_SMOOTHING * (detection.right - detection.left - track.width);
+    track.height += SIZE_SMOOTHING * (detection.bottom - detection.top - track.height);
+    track.updatedAtMs = timestampMs;
+    track.anchorMs = timestampMs;
+    track.confidence = detection.confidence;
+    track.setLabel(detection);
+    ++track.hits;
+    track.misses = 0;
+
+    final float size = Math.max(track.width, track.height);
+    return size > 0 ? (float) Math.hypot(residualX, residualY) / size : 0;
+  }
+
+  private static <T> boolean containsIdentical(final List<T> list, final T item) {
+    for (final T element : list) {
+      if (element == item) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static float iou(
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final Detection detection) {
+    final float width = Math.min(right, detection.right) - Math.max(left, detection.left);
+    final float height = Math.min(bottom, detection.bottom) - Math.max(top, detection.top);
+    if (width <= 0 || height <= 0) {
+      return 0;
+    }
+    final float intersection = width * height;
+    final float union =
+        (right - left) * (bottom - top)
+            + (detection.right - detection.left) * (detection.bottom - detection.top)
+            - intersection;
+    return intersection / union;
+  }
+
+  public List<Track> getTracks() {
+    return tracks;
+  }
+
+  /**
+   * Returns whether the last update confirmed every track without surprises: no track was born or
+   * missed, and every prediction was close to its detection.
+   */
+  public boolean isStable() {
+    return stable;
+  }
+}
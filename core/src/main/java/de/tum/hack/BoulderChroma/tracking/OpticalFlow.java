@@ -0,0 +1,223 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tracking;
+
+/**
+ * Pyramidal Lucas-Kanade optical flow for a sparse set of points on the luminance plane of camera
+ * frames. The pyramid starts at half the frame resolution; points are given and returned in full
+ * resolution frame pixels.
+ *
+ * <p>The template window of each point is taken at the nearest pixel, so only the current frame
+ * needs bilinear sampling. Not thread-safe.
+ */
+public class OpticalFlow {
+  private static final int LEVELS = 3;
+  private static final int WINDOW_RADIUS = 3;
+  private static final int MAX_ITERATIONS = 6;
+  // Stop iterating once an update moves the point less than this, in level pixels.
+  private static final float CONVERGED = 0.03f;
+  // Points on surfaces without texture in both directions cannot be tracked reliably.
+  private static final float MIN_EIGENVALUE = 1e-3f;
+  // Mean absolute intensity difference in the final window above which a point counts as lost.
+  private static final float MAX_ERROR = 12;
+
+  private static final class Pyramid {
+    final float[][] levels = new float[LEVELS][];
+    final int[] widths = new int[LEVELS];
+    final int[] heights = new int[LEVELS];
+  }
+
+  private Pyramid previous = new Pyramid();
+  private Pyramid current = new Pyramid();
+  private boolean hasPrevious = false;
+  private boolean hasCurrent = false;
+
+  /**
+   * Builds the pyramid of a new frame. The frame added before becomes the one points are tracked
+   * from.
+   */
+  public void addFrame(
+      final byte[] luminance, final int width, final int height, final int rowStride) {
+    final Pyramid swap = previous;
+    previous = current;
+    current = swap;
+    final boolean hadFrame = hasCurrent;
+    hasCurrent = true;
+
+    for (int level = 0; level < LEVELS; ++level) {
+      final int levelWidth = (level == 0 ? width : current.widths[level - 1]) / 2;
+      final int levelHeight = (level == 0 ? height : current.heights[level - 1]) / 2;
+      if (current.levels[level] == null
+          || current.widths[level] != levelWidth
+          || current.heights[level] != levelHeight) {
+        current.levels[level] = new float[levelWidth * levelHeight];
+        current.widths[level] = levelWidth;
+        current.heights[level] = levelHeight;
+      }
+      final float[] dst = current.levels[level];
+      if (level == 0) {
+        for (int y = 0; y < levelHeight; ++y) {
+          int src = 2 * y * rowStride;
+          int out = y * levelWidth;
+          for (int x = 0; x < levelWidth; ++x, src += 2) {
+            dst[out++] =
+                ((luminance[src] & 0xff)
+                        + (luminance[src + 1] & 0xff)
+                        + (luminance[src + rowStride] & 0xff)
+                        + (luminance[src + rowStride + 1] & 0xff))
+                    * 0.25f;
+          }
+        }
+      } else {
+        final float[] src = current.levels[level - 1];
+        final int srcWidth = current.widths[level - 1];
+        for (int y = 0; y < levelHeight; ++y) {
+          int in = 2 * y * srcWidth;
+          int out = y * levelWidth;
+          for (int x = 0; x < levelWidth; ++x, in += 2) {
+            dst[out++] =
+                (src[in] + src[in + 1] + src[in + srcWidth] + src[in + srcWidth + 1]) * 0.25f;
+          }
+        }
+      }
+    }
+    // After a size change the previous frame cannot be compared with this one.
+    hasPrevious =
+        hadFrame
+            && previous.widths[0] == current.widths[0]
+            && previous.heights[0] == current.heights[0];
+  }
+
+  /** Returns whether two frames of the same size have been added, so points can be tracked. */
+  public boolean canTrack() {
+    return hasPrevious;
+  }
+
+  /**
+   * Tracks points from the previous to the current frame.
+   *
+   * @param points x and y of each point in the previous frame, interleaved
+   * @param count number of points
+   * @param out receives the positions in the current frame, interleaved like {@code points}
+   * @param found receives whether each point was tracked; {@code out} is undefined otherwise
+   */
+  public void track(
+      final float[] points, final int count, final float[] out, final boolean[] found) {
+    for (int i = 0; i < count; ++i) {
+      found[i] = trackPoint(points[2 * i], points[2 * i + 1], out, 2 * i);
+    }
+  }
+
+  private boolean trackPoint(final float x, final float y, final float[] out, final int offset) {
+    float flowX = 0;
+    float flowY = 0;
+    for (int level = LEVELS - 1; level >= 0; --level) {
+      final float scale = 1f / (2 << level);
+      final int width = previous.widths[level];
+      final int height = previous.heights[level];
+      final int px = Math.round(x * scale);
+      final int py = Math.round(y * scale);
+      if (px < WINDOW_RADIUS + 1
+          || py < WINDOW_RADIUS + 1
+          || px >= width - WINDOW_RADIUS - 1
+          || py >= height - WINDOW_RADIUS - 1) {
+        return false;
+      }
+      final float[] prev = previous.levels[level];
+      final float[] next = current.levels[level];
+      float gxx = 0;
+      float gxy = 0;
+      float gyy = 0;
+      for (int wy = -WINDOW_RADIUS; wy <= WINDOW_RADIUS; ++wy) {
+        int index = (py + wy) * width + px - WINDOW_RADIUS;
+        for (int wx = -WINDOW_RADIUS; wx <= WINDOW_RADIUS; ++wx, ++index) {
+          final float ix = (prev[index + 1] - prev[index - 1]) * 0.5f;
+          final float iy = (prev[index + width] - prev[index - width]) * 0.5f;
+          gxx += ix * ix;
+          gxy += ix * iy;
+          gyy += iy * iy;
+        }
+      }
+      final float area = (2 * WINDOW_RADIUS + 1) * (2 * WINDOW_RADIUS + 1);
+      final float det = gxx * gyy - gxy * gxy;
+      final float minEigenvalue =
+          (gxx + gyy - (float) Math.sqrt((gxx - gyy) * (gxx - gyy) + 4 * gxy * gxy)) / 2;
+      if (minEigenvalue / area < MIN_EIGENVALUE || det == 0) {
+        return false;
+      }
+
+      // Flow of the coarser level, in this level's pixels, as the starting guess.
+      float vx = flowX * 2;
+      float vy = flowY * 2;
+      float error = 0;
+      for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration) {
+        // The flow is the displacement of the template window, which sits at the rounded position.
+        final float baseX = px + vx;
+        final float baseY = py + vy;
+        if (baseX < WINDOW_RADIUS + 1
+            || baseY < WINDOW_RADIUS + 1
+            || baseX >= width - WINDOW_RADIUS - 2
+            || baseY >= height - WINDOW_RADIUS - 2) {
+          return false;
+        }
+        final int bx = (int) baseX;
+        final int by = (int) baseY;
+        final float fx = baseX - bx;
+        final float fy = baseY - by;
+        final float w00 = (1 - fx) * (1 - fy);
+        final float w01 = fx * (1 - fy);
+        final float w10 = (1 - fx) * fy;
+        final float w11 = fx * fy;
+
+        float bx2 = 0;
+        float by2 = 0;
+        error = 0;
+        for (int wy = -WINDOW_RADIUS; wy <= WINDOW_RADIUS; ++wy) {
+          int index = (py + wy) * width + px - WINDOW_RADIUS;
+          int nextIndex = (by + wy) * width + bx - WINDOW_RADIUS;
+          for (int wx = -WINDOW_RADIUS; wx <= WINDOW_RADIUS; ++wx, ++index, ++nextIndex) {
+            final float sampled =
+                w00 * next[nextIndex]
+                    + w01 * next[nextIndex + 1]
+                    + w10 * next[nextIndex + width]
+                    + w11 * next[nextIndex + width + 1];
+            final float diff = prev[index] - sampled;
+            final float ix = (prev[index + 1] - prev[index - 1]) * 0.5f;
+            final float iy = (prev[index + width] - prev[index - width]) * 0.5f;
+            bx2 += diff * ix;
+            by2 += diff * iy;
+            error += Math.abs(diff);
+          }
+        }
+        final float stepX = (gyy * bx2 - gxy * by2) / det;
+        final float stepY = (gxx * by2 - gxy * bx2) / det;
+        vx += stepX;
+        vy += stepY;
+        if (stepX * stepX + stepY * stepY < CONVERGED * CONVERGED) {
+          break;
+        }
+      }
+      if (level == 0 && error / area > MAX_ERROR) {
+        return false;
+      }
+      flowX = vx;
+      flowY = vy;
+    }
+    // The point moves with its template window. Level 0 is half the frame resolution.
+    out[offset] = x + flowX * 2;
+    out[offset + 1] = y + flowY * 2;
+    return true;
+  }
+}
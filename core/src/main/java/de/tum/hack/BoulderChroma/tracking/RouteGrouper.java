@@ -0,0 +1,265 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tracking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups tracked holds into routes: holds with the same label that are close to each other belong
+ * to the same route, and so do holds connected through a chain of such neighbors. Holds without a
+ * label are never grouped.
+ *
+ * <p>Routes are kept in a union-find forest and updated incrementally. A new hold, or one that
+ * moved, is only compared with its neighbors, found through the {@link TrackIndex} of the
+ * snapshot. Each hold remembers the holds it was linked with; only when a hold disappears, changes
+ * its label or moves too far from one of them is its route split up and linked again, since
+ * union-find cannot undo a union. The id of a route is the smallest track id in it, so it stays
+ * the same while the route grows.
+ *
+ * <p>Not thread-safe.
+ */
+public class RouteGrouper {
+  // Holds closer than this many times their mean size are linked.
+  private static final float LINK_GAP = 2.5f;
+
+  private static final class Hold {
+    final int id;
+    String label;
+    float left;
+    float top;
+    float right;
+    float bottom;
+    Hold parent = this;
+    int generation;
+    // The holds this one was linked with directly; all of them are in the same route.
+    final List<Hold> links = new ArrayList<>(2);
+
+    Hold(final int id) {
+      this.id = id;
+    }
+  }
+
+  private final Map<Integer, Hold> holds = new HashMap<>();
+  private int generation = 0;
+  private int[] candidates = new int[16];
+  // Scratch of update() and regroup(), kept between calls since update() runs on every frame.
+  private final float[] box = new float[4];
+  private final List<Hold> added = new ArrayList<>();
+  private final List<Hold> moved = new ArrayList<>();
+  private final List<Hold> dirtyRoots = new ArrayList<>();
+  private final List<Hold> members = new ArrayList<>();
+  private final List<Hold> kept = new ArrayList<>();
+  private Hold[] bySnapshotIndex = new Hold[16];
+  // The largest mean size of a hold in the snapshot, bounds the reach of a link.
+  private float maxMeanSize;
+
+  /**
+   * Brings the routes up to date with a snapshot.
+   *
+   * @return the route id of each track of the snapshot, by snapshot index
+   */
+  public int[] update(final TrackSnapshot snapshot) {
+    ++generation;
+    if (bySnapshotIndex.length < snapshot.size()) {
+      bySnapshotIndex = new Hold[Math.max(2 * bySnapshotIndex.length, snapshot.size())];
+    }
+    maxMeanSize = 0;
+    for (int i = 0; i < snapshot.size(); ++i) {
+      Hold hold = holds.get(snapshot.getId(i));
+      final String label = snapshot.getLabel(i);
+      snapshot.getBox(i, box);
+      if (hold == null) {
+        hold = new Hold(snapshot.getId(i));
+        holds.put(hold.id, hold);
+        added.add(hold);
+      } else if (!equal(hold.label, label)) {
+        dirtyRoots.add(find(hold));
+        added.add(hold);
+      } else if (hold.left != box[0]
+          || hold.top != box[1]
+          || hold.right != box[2]
+          || hold.bottom != box[3]) {
+        moved.add(hold);
+      }
+      hold.label = label;
+      hold.left = box[0];
+      hold.top = box[1];
+      hold.right = box[2];
+      hold.bottom = box[3];
+      hold.generation = generation;
+      maxMeanSize = Math.max(maxMeanSize, meanSize(hold));
+      bySnapshotIndex[i] = hold;
+    }
+    for (final Hold hold : holds.values()) {
+      if (hold.generation != generation) {
+        dirtyRoots.add(find(hold));
+      }
+    }
+    // A hold that moved away from a hold it was linked with may have split its route.
+    for (int i = 0; i < moved.size(); ++i) {
+      final Hold hold = moved.get(i);
+      for (int k = 0; k < hold.links.size(); ++k) {
+        final Hold other = hold.links.get(k);
+        if (other.generation == generation && !linked(hold, other)) {
+          dirtyRoots.add(find(hold));
+          break;
+        }
+      }
+    }
+
+    if (!dirtyRoots.isEmpty()) {
+      regroup();
+    }
+    // New and relabeled holds, and holds that moved closer to others, join their neighbors.
+    for (int i = 0; i < added.size(); ++i) {
+      link(added.get(i), snapshot);
+    }
+    for (int i = 0; i < moved.size(); ++i) {
+      link(moved.get(i), snapshot);
+    }
+
+    final int[] routes = new int[snapshot.size()];
+    for (int i = 0; i < routes.length; ++i) {
+      routes[i] = find(bySnapshotIndex[i]).id;
+      bySnapshotIndex[i] = null;
+    }
+    added.clear();
+    moved.clear();
+    dirtyRoots.clear();
+    return routes;
+  }
+
+  /**
+   * Splits the routes with the given roots into single holds, drops the holds that are gone, and
+   * links the remaining ones again among themselves. Holds in {@code added} are linked later.
+   */
+  private void regroup() {
+    for (final Hold hold : holds.values()) {
+      if (containsIdentical(dirtyRoots, find(hold))) {
+        members.add(hold);
+      }
+    }
+    for (int i = 0; i < members.size(); ++i) {
+      final Hold hold = members.get(i);
+      hold.parent = hold;
+      hold.links.clear();
+    }
+    for (int i = 0; i < members.size(); ++i) {
+      final Hold hold = members.get(i);
+      if (hold.generation != generation) {
+        holds.remove(hold.id);
+      } else if (!containsIdentical(added, hold)) {
+        kept.add(hold);
+      }
+    }
+    for (int i = 0; i < kept.size(); ++i) {
+      for (int j = i + 1; j < kept.size(); ++j) {
+        if (linked(kept.get(i), kept.get(j))) {
+          connect(kept.get(i), kept.get(j));
+        }
+      }
+    }
+    members.clear();
+    kept.clear();
+  }
+
+  private void link(final Hold hold, final TrackSnapshot snapshot) {
+    // Bigger neighbors reach further, see linked().
+    final float reach = LINK_GAP * (meanSize(hold) + maxMeanSize) / 2;
+    if (candidates.length < snapshot.size()) {
+      candidates = new int[snapshot.size()];
+    }
+    final int count =
+        snapshot
+            .getIndex()
+            .query(
+                hold.left - reach,
+                hold.top - reach,
+                hold.right + reach,
+                hold.bottom + reach,
+                candidates);
+    for (int k = 0; k < count; ++k) {
+      final Hold other = bySnapshotIndex[candidates[k]];
+      if (other != hold && !containsIdentical(hold.links, other) && linked(hold, other)) {
+        connect(hold, other);
+      }
+    }
+  }
+
+  private static boolean linked(final Hold a, final Hold b) {
+    if (a.label == null || !a.label.equals(b.label)) {
+      return false;
+    }
+    final float dx = Math.max(0, Math.max(a.left - b.right, b.left - a.right));
+    final float dy = Math.max(0, Math.max(a.top - b.bottom, b.top - a.bottom));
+    final float reach = LINK_GAP * (meanSize(a) + meanSize(b)) / 2;
+    return dx * dx + dy * dy <= reach * reach;
+  }
+
+  private static float meanSize(final Hold hold) {
+    return (hold.right - hold.left + hold.bottom - hold.top) / 2;
+  }
+
+  private static Hold find(final Hold hold) {
+    Hold root = hold;
+    while (root.parent != root) {
+      root = root.parent;
+    }
+    // Path compression.
+    Hold node = hold;
+    while (node.parent != root) {
+      final Hold next = node.parent;
+      node.parent = root;
+      node = next;
+    }
+    return root;
+  }
+
+  private static void connect(final Hold a, final Hold b) {
+    a.links.add(b);
+    b.links.add(a);
+    union(a, b);
+  }
+
+  private static void union(final Hold a, final Hold b) {
+    final Hold rootA = find(a);
+    final Hold rootB = find(b);
+    if (rootA == rootB) {
+      return;
+    }
+    // Keep the smallest id as root, so route ids stay stable as routes grow.
+    if (rootA.id < rootB.id) {
+      rootB.parent = rootA;
+    } else {
+      rootA.parent = rootB;
+    }
+  }
+
+  private static boolean equal(final String a, final String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  private static <T> boolean containsIdentical(final List<T> list, final T item) {
+    for (final T element : list) {
+      if (element == item) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,174 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tracking;
+
+import de.tum.hack.BoulderChroma.color.HoldPalette;
+
+/**
+ * One object followed by the {@link ObjectTracker}. The box center moves with constant velocity
+ * between detections; the size is smoothed but does not move on its own. Optical flow can move the
+ * box between detections, in which case the velocity only extrapolates past the last flow update.
+ *
+ * <p>The hold color shown for a track is the winner of a vote over all its detections, in which
+ * older votes decay, so that a single misclassified frame does not change it.
+ */
+public final class Track {
+  // Longest time the motion model extrapolates past the last detection.
+  private static final long MAX_PREDICTION_MS = 500;
+  // Factor applied to all votes before each new one.
+  private static final float VOTE_DECAY = 0.8f;
+  // The vote is settled once at least SETTLED_VOTES detections voted and the winner has this share
+  // of the total. The share does not depend on the confidence level, only on how much agreed.
+  private static final float SETTLED_SHARE = 0.8f;
+  private static final int SETTLED_VOTES = 3;
+
+  private final int id;
+  String label;
+  int color;
+  float confidence;
+
+  float centerX;
+  float centerY;
+  float width;
+  float height;
+  // Normalized frame units per millisecond.
+  float velocityX;
+  float velocityY;
+  // Time of the last detection.
+  long updatedAtMs;
+  // Time the center and size correspond to.
+  long anchorMs;
+
+  int hits = 1;
+  int misses = 0;
+
+  // Decayed confidence-weighted votes per palette color.
+  private final float[] votes = new float[HoldPalette.size()];
+  private float voteTotal = 0;
+  private int voteCount = 0;
+  private int winner = -1;
+
+  Track(final int id, final Detection detection, final long timestampMs) {
+    this.id = id;
+    this.confidence = detection.confidence;
+    setLabel(detection);
+    this.centerX = (detection.left + detection.right) / 2;
+    this.centerY = (detection.top + detection.bottom) / 2;
+    this.width = detection.right - detection.left;
+    this.height = detection.bottom - detection.top;
+    this.updatedAtMs = timestampMs;
+    this.anchorMs = timestampMs;
+  }
+
+  /** Stays the same for the lifetime of the track. */
+  public int getId() {
+    return id;
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  public int getColor() {
+    return color;
+  }
+
+  public float getConfidence() {
+    return confidence;
+  }
+
+  /**
+   * Adds the color of a detection to the vote and updates the label and color to the winner.
+   * Detections of colors outside the palette are shown as they are.
+   */
+  void setLabel(final Detection detection) {
+    // A color measured on the device takes precedence over the one implied by the label.
+    int vote = HoldPalette.indexOfDisplayColor(detection.color);
+    if (vote < 0 && detection.label != null) {
+      vote = HoldPalette.indexOf(detection.label);
+    }
+    if (vote < 0) {
+      label = detection.label;
+      color = detection.color;
+      return;
+    }
+
+    voteTotal = 0;
+    for (int i = 0; i < votes.length; ++i) {
+      votes[i] *= VOTE_DECAY;
+      voteTotal += votes[i];
+    }
+    votes[vote] += detection.confidence;
+    voteTotal += detection.confidence;
+    ++voteCount;
+    if (winner < 0 || votes[vote] > votes[winner]) {
+      winner = vote;
+    }
+    label = HoldPalette.getName(winner);
+    color = HoldPalette.getDisplayColor(winner);
+  }
+
+  /**
+   * Returns whether the vote is settled, i.e. enough detections agreed that classifying the color
+   * of this track again would not change it.
+   */
+  public boolean isSettled() {
+    return winner >= 0
+        && voteCount >= SETTLED_VOTES
+        && votes[winner] >= SETTLED_SHARE * voteTotal;
+  }
+
+  /** Returns whether the track was matched to more than one detection. */
+  public boolean isConfirmed() {
+    return hits > 1;
+  }
+
+  float predictCenterX(final long timestampMs) {
+    return centerX + velocityX * predictionTime(timestampMs);
+  }
+
+  float predictCenterY(final long timestampMs) {
+    return centerY + velocityY * predictionTime(timestampMs);
+  }
+
+  private long predictionTime(final long timestampMs) {
+    return predictionTime(anchorMs, timestampMs);
+  }
+
+  static long predictionTime(final long anchorMs, final long timestampMs) {
+    return Math.max(0, Math.min(MAX_PREDICTION_MS, timestampMs - anchorMs));
+  }
+
+  /**
+   * Writes the box predicted for {@code timestampMs} into {@code out} as left, top, right, bottom.
+   */
+  public void predict(final long timestampMs, final float[] out) {
+    final float x = predictCenterX(timestampMs);
+    final float y = predictCenterY(timestampMs);
+    out[0] = x - width / 2;
+    out[1] = y - height / 2;
+    out[2] = x + width / 2;
+    out[3] = y + height / 2;
+  }
+
+  /** Moves the box by the flow measured up to the frame taken at {@code timestampMs}. */
+  void shift(final float dx, final float dy, final float scale, final long timestampMs) {
+    centerX += dx;
+    centerY += dy;
+    width *= scale;
+    height *= scale;
+    anchorMs = timestampMs;
+  }
+}
@@ -0,0 +1,235 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tracking;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the boxes of a {@link TrackSnapshot}, for finding boxes by point, by
+ * rectangle and by distance without scanning all of them. The grid has about one cell per box and
+ * is stored in flat arrays: the boxes of cell {@code c} are {@code items[cellStart[c]]} up to
+ * {@code items[cellStart[c + 1]]}. A box is listed in every cell it overlaps.
+ *
+ * <p>Immutable and safe to query from any thread. Coordinates are normalized like the tracks.
+ */
+public final class TrackIndex {
+  private static final int MAX_CELLS_PER_SIDE = 32;
+
+  private final float[] lefts;
+  private final float[] tops;
+  private final float[] rights;
+  private final float[] bottoms;
+  private final int size;
+
+  private final float originX;
+  private final float originY;
+  private final float cellWidth;
+  private final float cellHeight;
+  private final int columns;
+  private final int rows;
+  private final int[] cellStart;
+  private final int[] items;
+
+  /** Indexes the first {@code size} boxes; the arrays must not be changed afterwards. */
+  TrackIndex(
+      final float[] lefts,
+      final float[] tops,
+      final float[] rights,
+      final float[] bottoms,
+      final int size) {
+    this.lefts = lefts;
+    this.tops = tops;
+    this.rights = rights;
+    this.bottoms = bottoms;
+    this.size = size;
+
+    float minX = Float.MAX_VALUE;
+    float minY = Float.MAX_VALUE;
+    float maxX = -Float.MAX_VALUE;
+    float maxY = -Float.MAX_VALUE;
+    for (int i = 0; i < size; ++i) {
+      minX = Math.min(minX, lefts[i]);
+      minY = Math.min(minY, tops[i]);
+      maxX = Math.max(maxX, rights[i]);
+      maxY = Math.max(maxY, bottoms[i]);
+    }
+    final int side =
+        Math.max(1, Math.min(MAX_CELLS_PER_SIDE, (int) Math.ceil(Math.sqrt(size))));
+    columns = side;
+    rows = side;
+    originX = size > 0 ? minX : 0;
+    originY = size > 0 ? minY : 0;
+    cellWidth = size > 0 ? Math.max(1e-6f, (maxX - minX) / columns) : 1;
+    cellHeight = size > 0 ? Math.max(1e-6f, (maxY - minY) / rows) : 1;
+
+    // Count the boxes per cell, turn the counts into start offsets, then fill in.
+    cellStart = new int[columns * rows + 1];
+    for (int i = 0; i < size; ++i) {
+      for (int y = row(tops[i]); y <= row(bottoms[i]); ++y) {
+        for (int x = column(lefts[i]); x <= column(rights[i]); ++x) {
+          ++cellStart[y * columns + x + 1];
+        }
+      }
+    }
+    for (int c = 0; c < columns * rows; ++c) {
+      cellStart[c + 1] += cellStart[c];
+    }
+    items = new int[cellStart[columns * rows]];
+    final int[] fill = Arrays.copyOf(cellStart, columns * rows);
+    for (int i = 0; i < size; ++i) {
+      for (int y = row(tops[i]); y <= row(bottoms[i]); ++y) {
+        for (int x = column(lefts[i]); x <= column(rights[i]); ++x) {
+          items[fill[y * columns + x]++] = i;
+        }
+      }
+    }
+  }
+
+  private int column(final float x) {
+    return Math.max(0, Math.min(columns - 1, (int) Math.floor((x - originX) / cellWidth)));
+  }
+
+  private int row(final float y) {
+    return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - originY) / cellHeight)));
+  }
+
+  /**
+   * Returns the index of the smallest box containing the point, which is the most specific one
+   * where boxes are nested, or -1 if there is none.
+   */
+  public int findAt(final float x, final float y) {
+    if (size == 0) {
+      return -1;
+    }
+    final int cell = row(y) * columns + column(x);
+    int best = -1;
+    float bestArea = Float.MAX_VALUE;
+    for (int k = cellStart[cell]; k < cellStart[cell + 1]; ++k) {
+      final int i = items[k];
+      if (x >= lefts[i] && x <= rights[i] && y >= tops[i] && y <= bottoms[i]) {
+        final float area = (rights[i] - lefts[i]) * (bottoms[i] - tops[i]);
+        if (area < bestArea) {
+          bestArea = area;
+          best = i;
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Finds all boxes intersecting a rectangle.
+   *
+   * @param out receives the box indices; needs room for all boxes in the worst case
+   * @return the number of boxes found
+   */
+  public int query(
+      final float left, final float top, final float right, final float bottom, final int[] out) {
+    if (size == 0) {
+      return 0;
+    }
+    int count = 0;
+    for (int y = row(top); y <= row(bottom); ++y) {
+      for (int x = column(left); x <= column(right); ++x) {
+        final int cell = y * columns + x;
+        for (int k = cellStart[cell]; k < cellStart[cell + 1]; ++k) {
+          final int i = items[k];
+          if (lefts[i] > right || rights[i] < left || tops[i] > bottom || bottoms[i] < top) {
+            continue;
+          }
+          // Report each box only from the cell holding the corner of its overlap with the query.
+          if (column(Math.max(left, lefts[i])) == x && row(Math.max(top, tops[i])) == y) {
+            out[count++] = i;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Finds the {@code k} boxes closest to a point, measured to the nearest point of each box.
+   *
+   * @param out receives the box indices, nearest first; needs room for {@code k}
+   * @return the number of boxes found, less than {@code k} only if there are fewer boxes
+   */
+  public int nearest(final float x, final float y, final int k, final int[] out) {
+    final int wanted = Math.min(k, size);
+    if (wanted == 0) {
+      return 0;
+    }
+    final float[] distances = new float[wanted];
+    int count = 0;
+    final int centerColumn = column(x);
+    final int centerRow = row(y);
+    for (int ring = 0; ; ++ring) {
+      // Every box not seen yet is at least this far away.
+      final float ringDistance = ring == 0 ? 0 : (ring - 1) * Math.min(cellWidth, cellHeight);
+      if (count == wanted && ringDistance > distances[count - 1]) {
+        break;
+      }
+      if (ring > Math.max(columns, rows)) {
+        break;
+      }
+      for (int cy = centerRow - ring; cy <= centerRow + ring; ++cy) {
+        for (int cx = centerColumn - ring; cx <= centerColumn + ring; ++cx) {
+          final boolean onRing =
+              Math.abs(cy - centerRow) == ring || Math.abs(cx - centerColumn) == ring;
+          if (!onRing || cx < 0 || cy < 0 || cx >= columns || cy >= rows) {
+            continue;
+          }
+          final int cell = cy * columns + cx;
+          for (int j = cellStart[cell]; j < cellStart[cell + 1]; ++j) {
+            count = offer(items[j], distance(items[j], x, y), out, distances, count, wanted);
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  /** Inserts a box into the sorted result unless it is there already or too far away. */
+  private static int offer(
+      final int index,
+      final float distance,
+      final int[] out,
+      final float[] distances,
+      final int count,
+      final int wanted) {
+    for (int i = 0; i < count; ++i) {
+      if (out[i] == index) {
+        return count;
+      }
+    }
+    if (count == wanted && distance >= distances[count - 1]) {
+      return count;
+    }
+    int position = count == wanted ? count - 1 : count;
+    while (position > 0 && distances[position - 1] > distance) {
+      out[position] = out[position - 1];
+      distances[position] = distances[position - 1];
+      --position;
+    }
+    out[position] = index;
+    distances[position] = distance;
+    return count == wanted ? count : count + 1;
+  }
+
+  private float distance(final int i, final float x, final float y) {
+    final float dx = Math.max(0, Math.max(lefts[i] - x, x - rights[i]));
+    final float dy = Math.max(0, Math.max(tops[i] - y, y - bottoms[i]));
+    return (float) Math.sqrt(dx * dx + dy * dy);
+  }
+}
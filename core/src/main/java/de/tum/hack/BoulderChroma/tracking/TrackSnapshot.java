@@ -0,0 +1,206 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tracking;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable copy of all tracks at one point in time. The tracker publishes a new snapshot after
+ * every change, so that the overlay can draw without locking the tracker.
+ */
+public final class TrackSnapshot {
+  public static final TrackSnapshot EMPTY = new TrackSnapshot(0);
+
+  private static final float SETTLED_MATCH_IOU = 0.5f;
+
+  private final int[] ids;
+  private final String[] labels;
+  private final int[] colors;
+  private final float[] confidences;
+  private final float[] centerX;
+  private final float[] centerY;
+  private final float[] widths;
+  private final float[] heights;
+  private final float[] velocityX;
+  private final float[] velocityY;
+  private final long[] anchorMs;
+  private final boolean[] settled;
+  private TrackIndex index;
+  private int[] routeIds;
+
+  private TrackSnapshot(final int size) {
+    ids = new int[size];
+    labels = new String[size];
+    colors = new int[size];
+    confidences = new float[size];
+    centerX = new float[size];
+    centerY = new float[size];
+    widths = new float[size];
+    heights = new float[size];
+    velocityX = new float[size];
+    velocityY = new float[size];
+    anchorMs = new long[size];
+    settled = new boolean[size];
+    routeIds = new int[size];
+    if (size == 0) {
+      index = new TrackIndex(new float[0], new float[0], new float[0], new float[0], 0);
+    }
+  }
+
+  static TrackSnapshot of(final List<Track> tracks) {
+    if (tracks.isEmpty()) {
+      return EMPTY;
+    }
+    final TrackSnapshot snapshot = new TrackSnapshot(tracks.size());
+    for (int i = 0; i < tracks.size(); ++i) {
+      final Track track = tracks.get(i);
+      snapshot.ids[i] = track.getId();
+      snapshot.labels[i] = track.label;
+      snapshot.colors[i] = track.color;
+      snapshot.confidences[i] = track.confidence;
+      snapshot.centerX[i] = track.centerX;
+      snapshot.centerY[i] = track.centerY;
+      snapshot.widths[i] = track.width;
+      snapshot.heights[i] = track.height;
+      snapshot.velocityX[i] = track.velocityX;
+      snapshot.velocityY[i] = track.velocityY;
+      snapshot.anchorMs[i] = track.anchorMs;
+      snapshot.settled[i] = track.isSettled();
+    }
+
+    final float[] lefts = new float[tracks.size()];
+    final float[] tops = new float[tracks.size()];
+    final float[] rights = new float[tracks.size()];
+    final float[] bottoms = new float[tracks.size()];
+    for (int i = 0; i < tracks.size(); ++i) {
+      lefts[i] = snapshot.centerX[i] - snapshot.widths[i] / 2;
+      tops[i] = snapshot.centerY[i] - snapshot.heights[i] / 2;
+      rights[i] = snapshot.centerX[i] + snapshot.widths[i] / 2;
+      bottoms[i] = snapshot.centerY[i] + snapshot.heights[i] / 2;
+    }
+    snapshot.index = new TrackIndex(lefts, tops, rights, bottoms, tracks.size());
+    return snapshot;
+  }
+
+  /**
+   * Returns the spatial index over the boxes of this snapshot, at the time of their last update.
+   * Its results are indices into this snapshot.
+   */
+  public TrackIndex getIndex() {
+    return index;
+  }
+
+  /** Returns the route of the track at {@code index}, see {@link RouteGrouper}. */
+  public int getRouteId(final int index) {
+    return routeIds[index];
+  }
+
+  /** Only called before the snapshot is published. */
+  void setRouteIds(final int[] routeIds) {
+    this.routeIds = routeIds;
+  }
+
+  public int size() {
+    return ids.length;
+  }
+
+  public int getId(final int index) {
+    return ids[index];
+  }
+
+  /**
+   * Returns the index of the track with the given id, or -1 if it is not in this snapshot. Tracks
+   * are kept in order of creation, so ids ascend.
+   */
+  public int indexOfId(final int id) {
+    final int index = Arrays.binarySearch(ids, id);
+    return index >= 0 ? index : -1;
+  }
+
+  public String getLabel(final int index) {
+    return labels[index];
+  }
+
+  public int getColor(final int index) {
+    return colors[index];
+  }
+
+  public float getConfidence(final int index) {
+    return confidences[index];
+  }
+
+  /** See {@link Track#isSettled()}. */
+  public boolean isSettled(final int index) {
+    return settled[index];
+  }
+
+  /**
+   * Returns the index of a track with a settled color vote whose box overlaps the given box by an
+   * IoU of at least {@link #SETTLED_MATCH_IOU}, or -1 if there is none. A detection matching such
+   * a track does not need its color classified again.
+   *
+   * @param candidates scratch space for the index query; needs room for {@link #size()} indices
+   */
+  public int findSettled(
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final int[] candidates) {
+    final int count = index.query(left, top, right, bottom, candidates);
+    final float area = (right - left) * (bottom - top);
+    for (int k = 0; k < count; ++k) {
+      final int i = candidates[k];
+      if (!settled[i]) {
+        continue;
+      }
+      final float halfWidth = widths[i] / 2;
+      final float halfHeight = heights[i] / 2;
+      final float width =
+          Math.min(right, centerX[i] + halfWidth) - Math.max(left, centerX[i] - halfWidth);
+      final float height =
+          Math.min(bottom, centerY[i] + halfHeight) - Math.max(top, centerY[i] - halfHeight);
+      if (width <= 0 || height <= 0) {
+        continue;
+      }
+      final float intersection = width * height;
+      final float union = area + widths[i] * heights[i] - intersection;
+      if (intersection >= SETTLED_MATCH_IOU * union) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Writes the box of the track at {@code index} as of its last update into {@code out}. */
+  public void getBox(final int index, final float[] out) {
+    out[0] = centerX[index] - widths[index] / 2;
+    out[1] = centerY[index] - heights[index] / 2;
+    out[2] = centerX[index] + widths[index] / 2;
+    out[3] = centerY[index] + heights[index] / 2;
+  }
+
+  /** Like {@link Track#predict}, for the track at {@code index}. */
+  public void predict(final int index, final long timestampMs, final float[] out) {
+    final long dt = Track.predictionTime(anchorMs[index], timestampMs);
+    final float x = centerX[index] + velocityX[index] * dt;
+    final float y = centerY[index] + velocityY[index] * dt;
+    out[0] = x - widths[index] / 2;
+    out[1] = y - heights[index] / 2;
+    out[2] = x + widths[index] / 2;
+    out[3] = y + heights[index] / 2;
+  }
+}
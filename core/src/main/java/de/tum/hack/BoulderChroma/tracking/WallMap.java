@@ -0,0 +1,285 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.tracking;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A map of all holds seen on the wall so far. Wall coordinates are the normalized coordinates of
+ * the first frame of the map; a homography from each frame to the wall is chained from the
+ * frame-to-frame point matches of the optical flow.
+ *
+ * <p>Detected holds are stored once in wall coordinates and can be projected into the current
+ * frame without running the detector. The map also remembers which parts of the wall have been
+ * searched by the detector, so that detection can be limited to newly revealed regions. A few
+ * frames without a usable homography, e.g. blurred by a fast pan, keep the last good transform;
+ * when the flow loses the wall for longer, e.g. when the camera is covered, the map starts over.
+ * Holds that stay in view but are not detected again for several detections are forgotten.
+ *
+ * <p>Not thread-safe.
+ */
+class WallMap {
+  // Matches further apart than this from the fitted homography are outliers.
+  private static final float INLIER_THRESHOLD = 0.01f;
+  private static final int MIN_INLIERS = 8;
+  // Frames in a row without a usable homography after which the wall is considered lost.
+  private static final int MAX_FAILED_FRAMES = 5;
+  // Detections in a row that miss a hold in view after which the hold is forgotten.
+  private static final int MAX_MISSED_DETECTIONS = 3;
+  // Holds of the same color overlapping by more than this in wall coordinates are the same hold.
+  private static final float SAME_HOLD_IOU = 0.3f;
+  // Weight of a new detection in the averaged box of a known hold.
+  private static final float BOX_SMOOTHING = 0.3f;
+  // Side of the cells recording which part of the wall was searched, in wall units.
+  private static final float COVERAGE_CELL = 0.05f;
+  private static final int SAMPLE_GRID = 8;
+
+  private static final class WallHold {
+    float left;
+    float top;
+    float right;
+    float bottom;
+    String label;
+    int color;
+    float confidence;
+    int missedDetections;
+    boolean confirmed;
+  }
+
+  private final List<WallHold> holds = new ArrayList<>();
+  private final Set<Long> searched = new HashSet<>();
+  private final Random random = new Random(0);
+  // Current frame to wall, and back.
+  private final float[] frameToWall = new float[9];
+  private final float[] wallToFrame = new float[9];
+  private final float[] currentToPrevious = new float[9];
+  private final float[] next = new float[9];
+  private final float[] nextInverse = new float[9];
+  private final float[] point = new float[2];
+  private boolean[] inliers = new boolean[0];
+  private int failedFrames;
+
+  WallMap() {
+    Homography.setIdentity(frameToWall);
+    Homography.setIdentity(wallToFrame);
+  }
+
+  /**
+   * Updates the frame to wall homography from matches between the previous and the current frame.
+   *
+   * @param previous normalized points in the previous frame, interleaved
+   * @param current the same points in the current frame
+   */
+  void onFrameMotion(final float[] previous, final float[] current, final int count) {
+    if (inliers.length < count) {
+      inliers = new boolean[count];
+    }
+    final int inlierCount =
+        Homography.ransac(
+            current, previous, count, INLIER_THRESHOLD, random, currentToPrevious, inliers);
+    if (inlierCount < MIN_INLIERS) {
+      onFailedFrame();
+      return;
+    }
+    Homography.multiply(frameToWall, currentToPrevious, next);
+    if (!Homography.invert(next, nextInverse)) {
+      onFailedFrame();
+      return;
+    }
+    System.arraycopy(next, 0, frameToWall, 0, 9);
+    System.arraycopy(nextInverse, 0, wallToFrame, 0, 9);
+    failedFrames = 0;
+  }
+
+  /** Keeps the last good transform, as if the camera had not moved, until the wall is lost. */
+  private void onFailedFrame() {
+    if (++failedFrames > MAX_FAILED_FRAMES) {
+      clear();
+    }
+  }
+
+  void clear() {
+    failedFrames = 0;
+    holds.clear();
+    searched.clear();
+    Homography.setIdentity(frameToWall);
+    Homography.setIdentity(wallToFrame);
+  }
+
+  /**
+   * Adds the detections of the current frame to the map and marks the frame as searched.
+   *
+   * @param detections boxes normalized to the current frame
+   */
+  void addDetections(final List<Detection> detections) {
+    final float[] box = new float[4];
+    for (final Detection detection : detections) {
+      if (!mapBox(
+          frameToWall, detection.left, detection.top, detection.right, detection.bottom, box)) {
+        continue;
+      }
+      WallHold hold = find(box, detection.label);
+      if (hold == null) {
+        hold = new WallHold();
+        hold.left = box[0];
+        hold.top = box[1];
+        hold.right = box[2];
+        hold.bottom = box[3];
+        holds.add(hold);
+      } else {
+        hold.left += BOX_SMOOTHING * (box[0] - hold.left);
+        hold.top += BOX_SMOOTHING * (box[1] - hold.top);
+        hold.right += BOX_SMOOTHING * (box[2] - hold.right);
+        hold.bottom += BOX_SMOOTHING * (box[3] - hold.bottom);
+      }
+      hold.label = detection.label;
+      hold.color = detection.color;
+      hold.confidence = detection.confidence;
+      hold.confirmed = true;
+    }
+
+    // Forget holds the detector keeps missing although they are in view; e.g. a false detection.
+    for (final Iterator<WallHold> it = holds.iterator(); it.hasNext(); ) {
+      final WallHold hold = it.next();
+      if (hold.confirmed) {
+        hold.confirmed = false;
+        hold.missedDetections = 0;
+      } else if (isInFrame(hold) && ++hold.missedDetections >= MAX_MISSED_DETECTIONS) {
+        it.remove();
+      }
+    }
+
+    for (int y = 0; y <= SAMPLE_GRID; ++y) {
+      for (int x = 0; x <= SAMPLE_GRID; ++x) {
+        if (Homography.map(frameToWall, (float) x / SAMPLE_GRID, (float) y / SAMPLE_GRID, point)) {
+          searched.add(cell(point[0], point[1]));
+        }
+      }
+    }
+  }
+
+  private WallHold find(final float[] box, final String label) {
+    WallHold best = null;
+    float bestIou = SAME_HOLD_IOU;
+    for (final WallHold hold : holds) {
+      if (label != null && !label.equals(hold.label)) {
+        continue;
+      }
+      final float iou = iou(box, hold);
+      if (iou > bestIou) {
+        bestIou = iou;
+        best = hold;
+      }
+    }
+    return best;
+  }
+
+  /** Returns whether the center of a hold is inside the current frame. */
+  private boolean isInFrame(final WallHold hold) {
+    if (!Homography.map(
+        wallToFrame, (hold.left + hold.right) / 2, (hold.top + hold.bottom) / 2, point)) {
+      return false;
+    }
+    return point[0] >= 0 && point[0] <= 1 && point[1] >= 0 && point[1] <= 1;
+  }
+
+  /** Returns the known holds inside the current frame, normalized to the frame. */
+  List<Detection> project() {
+    final List<Detection> visible = new ArrayList<>();
+    final float[] box = new float[4];
+    for (final WallHold hold : holds) {
+      if (!mapBox(wallToFrame, hold.left, hold.top, hold.right, hold.bottom, box)) {
+        continue;
+      }
+      final float centerX = (box[0] + box[2]) / 2;
+      final float centerY = (box[1] + box[3]) / 2;
+      if (centerX < 0 || centerX > 1 || centerY < 0 || centerY > 1) {
+        continue;
+      }
+      visible.add(
+          new Detection(
+              box[0], box[1], box[2], box[3], hold.label, hold.color, hold.confidence));
+    }
+    return visible;
+  }
+
+  /** Returns the fraction of the current frame that shows parts of the wall never searched. */
+  float getUnsearchedFraction() {
+    int unsearched = 0;
+    int total = 0;
+    for (int y = 0; y < SAMPLE_GRID; ++y) {
+      for (int x = 0; x < SAMPLE_GRID; ++x) {
+        ++total;
+        if (!Homography.map(
+                frameToWall, (x + 0.5f) / SAMPLE_GRID, (y + 0.5f) / SAMPLE_GRID, point)
+            || !searched.contains(cell(point[0], point[1]))) {
+          ++unsearched;
+        }
+      }
+    }
+    return (float) unsearched / total;
+  }
+
+  private static long cell(final float x, final float y) {
+    final long column = (long) Math.floor(x / COVERAGE_CELL);
+    final long row = (long) Math.floor(y / COVERAGE_CELL);
+    return (row << 32) ^ (column & 0xffffffffL);
+  }
+
+  /** Maps the corners of a box and returns their bounding box. */
+  private boolean mapBox(
+      final float[] h,
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final float[] out) {
+    out[0] = Float.MAX_VALUE;
+    out[1] = Float.MAX_VALUE;
+    out[2] = -Float.MAX_VALUE;
+    out[3] = -Float.MAX_VALUE;
+    for (int corner = 0; corner < 4; ++corner) {
+      final float x = corner % 2 == 0 ? left : right;
+      final float y = corner < 2 ? top : bottom;
+      if (!Homography.map(h, x, y, point)) {
+        return false;
+      }
+      out[0] = Math.min(out[0], point[0]);
+      out[1] = Math.min(out[1], point[1]);
+      out[2] = Math.max(out[2], point[0]);
+      out[3] = Math.max(out[3], point[1]);
+    }
+    return true;
+  }
+
+  private static float iou(final float[] box, final WallHold hold) {
+    final float width = Math.min(box[2], hold.right) - Math.max(box[0], hold.left);
+    final float height = Math.min(box[3], hold.bottom) - Math.max(box[1], hold.top);
+    if (width <= 0 || height <= 0) {
+      return 0;
+    }
+    final float intersection = width * height;
+    final float union =
+        (box[2] - box[0]) * (box[3] - box[1])
+            + (hold.right - hold.left) * (hold.bottom - hold.top)
+            - intersection;
+    return intersection / union;
+  }
+}
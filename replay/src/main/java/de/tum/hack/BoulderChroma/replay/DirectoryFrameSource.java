@@ -0,0 +1,115 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.replay;
+
+import de.tum.hack.BoulderChroma.env.YuvConverter;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+
+/**
+ * Reads the frames of a recording from a directory, in the order of their file names. Raw NV21
+ * dumps ({@code .yuv}, {@code .nv21}) are used as they are and need the frame size to be given;
+ * images ({@code .jpg}, {@code .png}) are converted to NV21 so that they take the same path through
+ * the YUV conversion as camera frames.
+ */
+public class DirectoryFrameSource implements FrameSource {
+  private final File[] files;
+  private final int rawWidth;
+  private final int rawHeight;
+  private final long frameIntervalMs;
+  private int index = 0;
+
+  /**
+   * @param rawWidth width of raw frames, or 0 if the directory has none
+   * @param frameIntervalMs time between two frames of the recording, used for their timestamps
+   */
+  public DirectoryFrameSource(
+      final File directory, final int rawWidth, final int rawHeight, final long frameIntervalMs)
+      throws IOException {
+    final File[] all = directory.listFiles();
+    if (all == null) {
+      throw new IOException("Not a directory: " + directory);
+    }
+    final List<File> frames = new ArrayList<>();
+    for (final File file : all) {
+      if (isRaw(file) || isImage(file)) {
+        if (isRaw(file) && rawWidth <= 0) {
+          throw new IOException("The size of raw frames must be given: " + file);
+        }
+        frames.add(file);
+      }
+    }
+    this.files = frames.toArray(new File[0]);
+    Arrays.sort(this.files);
+    this.rawWidth = rawWidth;
+    this.rawHeight = rawHeight;
+    this.frameIntervalMs = frameIntervalMs;
+  }
+
+  public int size() {
+    return files.length;
+  }
+
+  @Override
+  public Frame next() throws IOException {
+    if (index >= files.length) {
+      return null;
+    }
+    final File file = files[index];
+    final long timestampMs = index * frameIntervalMs;
+    ++index;
+    if (isRaw(file)) {
+      final byte[] nv21 = Files.readAllBytes(file.toPath());
+      if (nv21.length < YuvConverter.getYUVByteSize(rawWidth, rawHeight)) {
+        throw new IOException("Frame is smaller than " + rawWidth + "x" + rawHeight + ": " + file);
+      }
+      return new Frame(file.getName(), timestampMs, rawWidth, rawHeight, nv21);
+    }
+
+    final BufferedImage image = ImageIO.read(file);
+    if (image == null) {
+      throw new IOException("Unreadable image: " + file);
+    }
+    // NV21 subsamples the chroma planes by two, so odd sizes lose their last row or column.
+    final int width = image.getWidth() & ~1;
+    final int height = image.getHeight() & ~1;
+    final int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+    final byte[] nv21 = new byte[YuvConverter.getYUVByteSize(width, height)];
+    YuvConverter.convertARGB8888ToYUV420SP(argb, width, height, nv21);
+    return new Frame(file.getName(), timestampMs, width, height, nv21);
+  }
+
+  @Override
+  public void close() {
+    index = files.length;
+  }
+
+  private static boolean isRaw(final File file) {
+    final String name = file.getName().toLowerCase(Locale.ROOT);
+    return name.endsWith(".yuv") || name.endsWith(".nv21");
+  }
+
+  private static boolean isImage(final File file) {
+    final String name = file.getName().toLowerCase(Locale.ROOT);
+    return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png");
+  }
+}
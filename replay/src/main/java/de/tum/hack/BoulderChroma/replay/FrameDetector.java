@@ -0,0 +1,54 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.replay;
+
+import de.tum.hack.BoulderChroma.tflite.DetectedBox;
+import de.tum.hack.BoulderChroma.tflite.ServerDetector;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/** Finds holds in a converted frame for the replay runner. */
+interface FrameDetector {
+  /**
+   * @param pixels ARGB pixels of the frame, row by row
+   * @return the holds found, with boxes relative to the frame size (0..1)
+   */
+  List<DetectedBox> detect(int[] pixels, int width, int height) throws IOException;
+
+  /** A detector that finds nothing, to measure the cost of everything around inference. */
+  FrameDetector NONE =
+      new FrameDetector() {
+        @Override
+        public List<DetectedBox> detect(final int[] pixels, final int width, final int height) {
+          return Collections.emptyList();
+        }
+      };
+
+  /**
+   * Creates a detector from its command line name: {@code none}, {@code remote} for the server the
+   * app uses or {@code remote:<url>} for another one.
+   */
+  static FrameDetector create(final String spec) {
+    if (spec.equals("none")) {
+      return NONE;
+    } else if (spec.equals("remote")) {
+      return new RemoteFrameDetector(new ServerDetector(ServerDetector.DEFAULT_URL));
+    } else if (spec.startsWith("remote:")) {
+      return new RemoteFrameDetector(new ServerDetector(spec.substring("remote:".length())));
+    }
+    throw new IllegalArgumentException("Unknown detector: " + spec);
+  }
+}
@@ -0,0 +1,187 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package de.tum.hack.BoulderChroma.replay;
+
+import de.tum.hack.BoulderChroma.governor.DeviceState;
+import de.tum.hack.BoulderChroma.governor.PerformanceGovernor;
+import de.tum.hack.BoulderChroma.governor.PerformanceProfile;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Drives the performance governor with simulated device signals and prints the profiles it
+ * chooses, to see how it reacts to a session before trying it on a phone.
+ *
+ * <p>A scenario has one line per change of the signals: the time in seconds, followed by any of
+ * {@code thermal=<0..6>}, {@code battery=<percent>}, {@code charging=<true|false>}, {@code
+ * powersave=<true|false>} and {@code latency=<ms>}. Signals keep their value until changed. The
+ * latency is that of a detection with the first profile; cheaper profiles scale it by their model
+ * input area and detect as often as their interval allows. The last line ends the scenario.
+ * Without a file, a session in a warming gym is simulated.
+ *
+ * <pre>
+ * governor [scenario]
+ * </pre>
+ */
+public class GovernorSimulation {
+  // The app updates the governor with the bottom sheet, once a second.
+  private static final long UPDATE_INTERVAL_MS = 1000;
+  // As DetectorActivity.DETECTION_BUDGET_MS.
+  private static final long LATENCY_BUDGET_MS = 250;
+
+  private static final String WARMING_GYM =
+      "0 thermal=0 battery=80 charging=false latency=150\n"
+          + "60 thermal=1\n"
+          + "120 thermal=2 latency=300\n"
+          + "240 thermal=3 latency=400\n"
+          + "360 thermal=2 battery=28\n"
+          + "480 thermal=0 latency=150\n"
+          + "600 battery=14\n"
+          + "720 charging=true\n"
+          + "900\n";
+
+  /** The signals from one line of a scenario on. */
+  private static final class Step {
+    final long timeMs;
+    final DeviceState state;
+    final long latencyMs;
+
+    Step(final long timeMs, final DeviceState state, final long latencyMs) {
+      this.timeMs = timeMs;
+      this.state = state;
+      this.latencyMs = latencyMs;
+    }
+  }
+
+  public static void main(final String[] args) throws IOException {
+    if (args.length > 1) {
+      System.err.println("Usage: governor [scenario]");
+      System.exit(2);
+    }
+    final List<Step> steps;
+    try (Reader reader =
+        args.length == 0
+            ? new StringReader(WARMING_GYM)
+            : new InputStreamReader(new FileInputStream(new File(args[0])), "UTF-8")) {
+      steps = parse(reader);
+    }
+    run(steps);
+  }
+
+  private static List<Step> parse(final Reader input) throws IOException {
+    final BufferedReader reader = new BufferedReader(input);
+    final List<Step> steps = new ArrayList<>();
+    int thermal = DeviceState.THERMAL_NONE;
+    int battery = -1;
+    boolean charging = true;
+    boolean powerSave = false;
+    long latencyMs = 0;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      final String[] fields = line.split("\\s+");
+      final long timeMs = (long) (Double.parseDouble(fields[0]) * 1000);
+      for (int i = 1; i < fields.length; ++i) {
+        final String[] pair = fields[i].split("=", 2);
+        final String value = pair.length > 1 ? pair[1] : "";
+        switch (pair[0]) {
+          case "thermal":
+            thermal = Integer.parseInt(value);
+            break;
+          case "battery":
+            battery = Integer.parseInt(value);
+            break;
+          case "charging":
+            charging = Boolean.parseBoolean(value);
+            break;
+          case "powersave":
+            powerSave = Boolean.parseBoolean(value);
+            break;
+          case "latency":
+            latencyMs = Long.parseLong(value);
+            break;
+          default:
+            throw new IOException("Unknown signal in line: " + line);
+        }
+      }
+      final DeviceState state = new DeviceState(thermal, battery, charging, powerSave);
+      steps.add(new Step(timeMs, state, latencyMs));
+    }
+    if (steps.isEmpty()) {
+      throw new IOException("Empty scenario");
+    }
+    return steps;
+  }
+
+  private static void run(final List<Step> steps) {
+    final List<PerformanceProfile> ladder = PerformanceProfile.LADDER;
+    final PerformanceGovernor governor = new PerformanceGovernor(ladder, LATENCY_BUDGET_MS);
+    final long[] timeInProfileMs = new long[ladder.size()];
+    final int fullInputSize = ladder.get(0).maxInputSize;
+    final long endMs = steps.get(steps.size() - 1).timeMs;
+
+    int stepIndex = 0;
+    double nextDetectionMs = 0;
+    System.out.println(format(0, steps.get(0).state, governor.describe()));
+    for (long nowMs = 0; nowMs < endMs; nowMs += UPDATE_INTERVAL_MS) {
+      while (stepIndex + 1 < steps.size() && steps.get(stepIndex + 1).timeMs <= nowMs) {
+        ++stepIndex;
+      }
+      final Step step = steps.get(stepIndex);
+      final PerformanceProfile profile = governor.getProfile();
+
+      // Detections of the past interval, each as expensive as the current profile's input size.
+      final float scale = (float) profile.maxInputSize / fullInputSize;
+      final long latencyMs = (long) (step.latencyMs * scale * scale);
+      if (latencyMs > 0) {
+        final long periodMs = Math.max(latencyMs, profile.minDetectionIntervalMs);
+        for (; nextDetectionMs < nowMs; nextDetectionMs += periodMs) {
+          governor.onDetectionLatency(latencyMs);
+        }
+      }
+
+      if (governor.update(nowMs, step.state)) {
+        System.out.println(format(nowMs, step.state, governor.describe()));
+      }
+      timeInProfileMs[ladder.indexOf(governor.getProfile())] += UPDATE_INTERVAL_MS;
+    }
+
+    System.out.println("Time in each profile:");
+    for (int i = 0; i < ladder.size(); ++i) {
+      System.out.println(
+          String.format(
+              Locale.ROOT,
+              "  %-10s %6.0f s",
+              ladder.get(i).name,
+              timeInProfileMs[i] / 1000.0));
+    }
+  }
+
+  private static String format(final long nowMs, final DeviceState state, final String profile) {
+    return String.format(Locale.ROOT, "%7.0f s  %-36s -> %s", nowMs / 1000.0, state, profile);
+  }
+}
@@ -0,0 +1,58 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.replay;
+
+import de.tum.hack.BoulderChroma.tflite.DetectedBox;
+import de.tum.hack.BoulderChroma.tflite.ServerDetector;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * Sends frames to the detection server, scaled to the square crop the app sends. The server answers
+ * with boxes relative to the crop, which are relative to the frame as well since the whole frame is
+ * scaled into it.
+ */
+class RemoteFrameDetector implements FrameDetector {
+  // Side of the crop, as the input size of the app.
+  private static final int CROP_SIZE = 416;
+
+  private final ServerDetector server;
+
+  RemoteFrameDetector(final ServerDetector server) {
+    this.server = server;
+  }
+
+  @Override
+  public List<DetectedBox> detect(final int[] pixels, final int width, final int height)
+      throws IOException {
+    final BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    frame.setRGB(0, 0, width, height, pixels, 0, width);
+    final BufferedImage crop = new BufferedImage(CROP_SIZE, CROP_SIZE, BufferedImage.TYPE_INT_RGB);
+    final Graphics2D graphics = crop.createGraphics();
+    graphics.setRenderingHint(
+        RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    graphics.drawImage(frame, 0, 0, CROP_SIZE, CROP_SIZE, null);
+    graphics.dispose();
+
+    final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    ImageIO.write(crop, "jpg", jpeg);
+    return server.detect(jpeg.toByteArray());
+  }
+}
@@ -0,0 +1,315 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package de.tum.hack.BoulderChroma.replay;
+
+import de.tum.hack.BoulderChroma.color.HoldColorClassifier;
+import de.tum.hack.BoulderChroma.color.HoldPalette;
+import de.tum.hack.BoulderChroma.env.YuvConverter;
+import de.tum.hack.BoulderChroma.pipeline.ErrorHandler;
+import de.tum.hack.BoulderChroma.pipeline.Pipeline;
+import de.tum.hack.BoulderChroma.pipeline.Recycler;
+import de.tum.hack.BoulderChroma.pipeline.Stage;
+import de.tum.hack.BoulderChroma.tflite.DetectedBox;
+import de.tum.hack.BoulderChroma.tracking.Detection;
+import de.tum.hack.BoulderChroma.tracking.HoldTracker;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Pushes a recording through the detection pipeline of the app on a workstation and reports its
+ * throughput: flow tracking on the capture thread, then YUV conversion, inference and color
+ * classification with tracking on their own stages.
+ *
+ * <p>By default every frame is processed, so that runs are repeatable. With {@code --fps}, frames
+ * are fed at the camera rate and skipped while the pipeline is full, as in the app.
+ *
+ * <pre>
+ * replay &lt;dir&gt; [--size WxH] [--fps N] [--detector none|remote|remote:&lt;url&gt;]
+ * </pre>
+ */
+public class ReplayRunner {
+  // Frames that can be in the pipeline at once when frames may be skipped: one per stage.
+  private static final int PACED_FRAMES_IN_FLIGHT = 3;
+  // Frames in flight when none may be lost. The capture thread waits for a free one.
+  private static final int LOSSLESS_FRAMES_IN_FLIGHT = 2;
+  // Frame rate assumed for the timestamps of a recording.
+  private static final int DEFAULT_FPS = 30;
+  // Detections below this confidence are not tracked, as in the app.
+  private static final float MINIMUM_CONFIDENCE = 0.1f;
+
+  private static final int STAGE_CAPTURE = 0;
+  private static final int STAGE_CONVERT = 1;
+  private static final int STAGE_INFER = 2;
+  private static final int STAGE_POST = 3;
+  private static final String[] STAGE_NAMES = {"capture", "convert", "infer", "post"};
+
+  /** A frame on its way through the pipeline, with the buffers it owns. */
+  private static final class ReplayFrame {
+    Frame frame;
+    int[] pixels = new int[0];
+    List<DetectedBox> results;
+  }
+
+  private final FrameDetector detector;
+  private final HoldTracker holdTracker = new HoldTracker();
+  private final HoldColorClassifier colorClassifier = new HoldColorClassifier();
+  private final AtomicLongArray stageNanos = new AtomicLongArray(STAGE_NAMES.length);
+  private final AtomicLongArray stageCounts = new AtomicLongArray(STAGE_NAMES.length);
+  private final AtomicInteger failed = new AtomicInteger();
+  private int configuredWidth = 0;
+  private int configuredHeight = 0;
+
+  ReplayRunner(final FrameDetector detector) {
+    this.detector = detector;
+  }
+
+  public static void main(final String[] args) throws Exception {
+    File directory = null;
+    int width = 0;
+    int height = 0;
+    int fps = 0;
+    String detector = "none";
+    for (int i = 0; i < args.length; ++i) {
+      if (args[i].equals("--size") && i + 1 < args.length) {
+        final String[] size = args[++i].split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+      } else if (args[i].equals("--fps") && i + 1 < args.length) {
+        fps = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("--detector") && i + 1 < args.length) {
+        detector = args[++i];
+      } else if (directory == null && !args[i].startsWith("--")) {
+        directory = new File(args[i]);
+      } else {
+        directory = null;
+        break;
+      }
+    }
+    if (directory == null) {
+      System.err.println(
+          "Usage: replay <dir> [--size WxH] [--fps N] [--detector none|remote|remote:<url>]");
+      System.exit(2);
+    }
+
+    final long frameIntervalMs = 1000 / (fps > 0 ? fps : DEFAULT_FPS);
+    try (DirectoryFrameSource source =
+        new DirectoryFrameSource(directory, width, height, frameIntervalMs)) {
+      System.out.println("Replaying " + source.size() + " frames from " + directory);
+      new ReplayRunner(FrameDetector.create(detector)).run(source, fps);
+    }
+  }
+
+  /**
+   * Runs all frames of the source through the pipeline and prints the statistics.
+   *
+   * @param fps the rate to feed frames at, or 0 to process every frame as fast as possible
+   */
+  void run(final FrameSource source, final int fps) throws IOException, InterruptedException {
+    final boolean paced = fps > 0;
+    final int framesInFlight = paced ? PACED_FRAMES_IN_FLIGHT : LOSSLESS_FRAMES_IN_FLIGHT;
+    final BlockingQueue<ReplayFrame> freeFrames = new ArrayBlockingQueue<>(framesInFlight);
+    for (int i = 0; i < framesInFlight; ++i) {
+      freeFrames.add(new ReplayFrame());
+    }
+    final Recycler<ReplayFrame> recycler =
+        new Recycler<ReplayFrame>() {
+          @Override
+          public void recycle(final ReplayFrame frame) {
+            frame.frame = null;
+            frame.results = null;
+            freeFrames.offer(frame);
+          }
+        };
+    // Without pacing, the queues can hold every frame in flight so that none is pushed out.
+    final int queueCapacity = paced ? 1 : framesInFlight;
+    final Pipeline<ReplayFrame> pipeline =
+        new Pipeline<>(recycler)
+            .setErrorHandler(
+                new ErrorHandler<ReplayFrame>() {
+                  @Override
+                  public void onError(
+                      final String stage, final ReplayFrame frame, final RuntimeException e) {
+                    failed.incrementAndGet();
+                    System.err.println(stage + " failed on " + frame.frame.name + ": " + e);
+                  }
+                })
+            .addStage("convert", timed(STAGE_CONVERT, this::convert), 1, queueCapacity)
+            .addStage("infer", timed(STAGE_INFER, this::infer), 1, queueCapacity)
+            .addStage("post", timed(STAGE_POST, this::postProcess), 1, queueCapacity)
+            .start();
+
+    int read = 0;
+    int skipped = 0;
+    final long startNanos = System.nanoTime();
+    try {
+      Frame frame;
+      while ((frame = source.next()) != null) {
+        ++read;
+        if (paced) {
+          final long dueNanos = startNanos + frame.timestampMs * 1000000L;
+          final long waitNanos = dueNanos - System.nanoTime();
+          if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+          }
+        }
+
+        final long captureStart = System.nanoTime();
+        if (frame.width != configuredWidth || frame.height != configuredHeight) {
+          configuredWidth = frame.width;
+          configuredHeight = frame.height;
+          holdTracker.setFrameConfiguration(frame.width, frame.height, 0);
+        }
+        holdTracker.trackFlow(frame.nv21, frame.width, frame.timestampMs);
+        // All frames are still in the pipeline; when paced, this frame is skipped as in the app.
+        final ReplayFrame replayFrame = paced ? freeFrames.poll() : freeFrames.take();
+        if (replayFrame != null) {
+          replayFrame.frame = frame;
+          pipeline.submit(replayFrame);
+        } else {
+          ++skipped;
+        }
+        record(STAGE_CAPTURE, captureStart);
+      }
+
+      // Wait until every frame is back from the pipeline.
+      for (int i = 0; i < framesInFlight; ++i) {
+        freeFrames.take();
+      }
+    } finally {
+      pipeline.close();
+    }
+    final long elapsedNanos = System.nanoTime() - startNanos;
+    printStats(pipeline, read, skipped, elapsedNanos);
+  }
+
+  /** Converts the NV21 frame to ARGB, as the camera activity does for every preview frame. */
+  private boolean convert(final ReplayFrame replayFrame) {
+    final Frame frame = replayFrame.frame;
+    if (replayFrame.pixels.length != frame.width * frame.height) {
+      replayFrame.pixels = new int[frame.width * frame.height];
+    }
+    YuvConverter.convertYUV420SPToARGB8888(
+        frame.nv21, frame.width, frame.height, replayFrame.pixels);
+    return true;
+  }
+
+  private boolean infer(final ReplayFrame replayFrame) {
+    final Frame frame = replayFrame.frame;
+    try {
+      replayFrame.results = detector.detect(replayFrame.pixels, frame.width, frame.height);
+    } catch (final IOException e) {
+      failed.incrementAndGet();
+      System.err.println("Detection failed on " + frame.name + ": " + e);
+      return false;
+    }
+    return true;
+  }
+
+  /** Colors the detected holds and hands them to the tracker. */
+  private boolean postProcess(final ReplayFrame replayFrame) {
+    final Frame frame = replayFrame.frame;
+    final List<Detection> detections = new ArrayList<>(replayFrame.results.size());
+    for (final DetectedBox box : replayFrame.results) {
+      if (box.confidence < MINIMUM_CONFIDENCE) {
+        continue;
+      }
+      final int color =
+          colorClassifier.classify(
+              replayFrame.pixels,
+              frame.width,
+              frame.height,
+              box.left * frame.width,
+              box.top * frame.height,
+              box.right * frame.width,
+              box.bottom * frame.height);
+      final int displayColor = color >= 0 ? HoldPalette.getDisplayColor(color) : 0;
+      detections.add(
+          new Detection(
+              box.left,
+              box.top,
+              box.right,
+              box.bottom,
+              box.title,
+              displayColor,
+              box.confidence));
+    }
+    holdTracker.trackDetections(Collections.unmodifiableList(detections), frame.timestampMs);
+    return true;
+  }
+
+  private Stage<ReplayFrame> timed(final int index, final Stage<ReplayFrame> stage) {
+    return new Stage<ReplayFrame>() {
+      @Override
+      public boolean process(final ReplayFrame frame) {
+        final long start = System.nanoTime();
+        try {
+          return stage.process(frame);
+        } finally {
+          record(index, start);
+        }
+      }
+    };
+  }
+
+  private void record(final int stage, final long startNanos) {
+    stageNanos.addAndGet(stage, System.nanoTime() - startNanos);
+    stageCounts.incrementAndGet(stage);
+  }
+
+  private void printStats(
+      final Pipeline<ReplayFrame> pipeline,
+      final int read,
+      final int skipped,
+      final long elapsedNanos) {
+    final long completed = stageCounts.get(STAGE_POST);
+    final double seconds = elapsedNanos / 1e9;
+    System.out.println(
+        String.format(
+            Locale.ROOT,
+            "%d frames read, %d completed in %.2f s: %.1f fps",
+            read,
+            completed,
+            seconds,
+            completed / seconds));
+    for (int i = 0; i < STAGE_NAMES.length; ++i) {
+      final long count = stageCounts.get(i);
+      System.out.println(
+          String.format(
+              Locale.ROOT,
+              "  %-8s %6d frames, %8.2f ms mean",
+              STAGE_NAMES[i],
+              count,
+              count > 0 ? stageNanos.get(i) / 1e6 / count : 0.0));
+    }
+    System.out.println(
+        String.format(
+            Locale.ROOT,
+            "  skipped %d, dropped %d/%d/%d (convert/infer/post), failed %d, tracks %d",
+            skipped,
+            pipeline.getDropped(0),
+            pipeline.getDropped(1),
+            pipeline.getDropped(2),
+            failed.get(),
+            holdTracker.getSnapshot().size()));
+  }
+}
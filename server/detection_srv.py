@@ -25,8 +25,8 @@ COLOR = [
     ("green", u"#9abf94"),
     ("orange", u"#f2bfa4"),
     ("white", u"#d8d1c9"),
-    ("blue", u"#395c44"),
-    ("green", u"#31364a")
+    ("blue", u"#31364a"),
+    ("green", u"#395c44")
 ]
 
 TAG_IDS = {